@@ -2,11 +2,18 @@ package eu.unicore.security.canl;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import org.apache.logging.log4j.Logger;
 
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.X509Credential;
 import eu.unicore.util.Log;
 import eu.unicore.util.configuration.ConfigurationException;
 import eu.unicore.util.configuration.FilePropertiesHelper;
@@ -25,6 +32,7 @@ public class AuthnAndTrustProperties extends DefaultAuthnAndTrustConfiguration
 	
 	private TruststoreProperties truststoreProperties;
 	private CredentialProperties credentialProperties;
+	private CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
 	
 	public AuthnAndTrustProperties(String file) throws IOException, ConfigurationException
 	{
@@ -107,6 +115,49 @@ public class AuthnAndTrustProperties extends DefaultAuthnAndTrustConfiguration
 	
 	public AuthnAndTrustProperties(Properties p, String trustPrefix, String credPrefix, PasswordCallback passwordCallback, 
 			boolean trustOptional, boolean credOptional) throws ConfigurationException
+	{
+		prefetchSecrets(p, trustPrefix, credPrefix);
+		loadTruststore(p, trustPrefix, passwordCallback, trustOptional);
+		loadCredential(p, credPrefix, passwordCallback, credOptional);
+	}
+
+	/**
+	 * Asynchronous initialization: the truststore and the credential are loaded concurrently, 
+	 * in background. The constructor returns immediately, use {@link #getReadyFuture()} 
+	 * to be notified when the loading is finished. Methods returning the loaded material block 
+	 * until it is available and throw {@link ConfigurationException} if the loading failed.
+	 * <p>
+	 * Note that the password callback (if any) can be invoked concurrently for the truststore and
+	 * the credential.
+	 * @param executor used to load the truststore and the credential. If null the default 
+	 * executor of {@link CompletableFuture} is used.
+	 */
+	public AuthnAndTrustProperties(Properties p, String trustPrefix, String credPrefix, PasswordCallback passwordCallback, 
+			boolean trustOptional, boolean credOptional, Executor executor)
+	{
+		prefetchSecrets(p, trustPrefix, credPrefix);
+		CompletableFuture<Void> trust = executor == null ? 
+				CompletableFuture.runAsync(() -> loadTruststore(p, trustPrefix, passwordCallback, trustOptional)) :
+				CompletableFuture.runAsync(() -> loadTruststore(p, trustPrefix, passwordCallback, trustOptional), executor);
+		CompletableFuture<Void> cred = executor == null ?
+				CompletableFuture.runAsync(() -> loadCredential(p, credPrefix, passwordCallback, credOptional)) :
+				CompletableFuture.runAsync(() -> loadCredential(p, credPrefix, passwordCallback, credOptional), executor);
+		ready = CompletableFuture.allOf(trust, cred);
+	}
+
+	/**
+	 * Starts fetching of all configured secrets in parallel, so the truststore and credential
+	 * loading do not wait for them one after another.
+	 */
+	private static void prefetchSecrets(Properties p, String trustPrefix, String credPrefix)
+	{
+		List<String> secrets = new ArrayList<>(TrustedIssuersProperties.getSecretReferences(p, trustPrefix));
+		secrets.addAll(CredentialProperties.getSecretReferences(p, credPrefix));
+		SecretProviders.prefetch(secrets);
+	}
+
+	private void loadTruststore(Properties p, String trustPrefix, PasswordCallback passwordCallback, 
+			boolean trustOptional) throws ConfigurationException
 	{
 		try
 		{
@@ -120,7 +171,11 @@ public class AuthnAndTrustProperties extends DefaultAuthnAndTrustConfiguration
 			else
 				log.info("Trust store settings (optional) were not loaded as: " + e.getMessage());
 		}
-		
+	}
+
+	private void loadCredential(Properties p, String credPrefix, PasswordCallback passwordCallback, 
+			boolean credOptional) throws ConfigurationException
+	{
 		try
 		{
 			credentialProperties = new CredentialProperties(p, passwordCallback, credPrefix); 
@@ -134,11 +189,60 @@ public class AuthnAndTrustProperties extends DefaultAuthnAndTrustConfiguration
 		} 
 	}
 
+	/**
+	 * @return future completed when the truststore and credential are loaded. For objects created 
+	 * synchronously it is always completed.
+	 */
+	public CompletableFuture<Void> getReadyFuture()
+	{
+		return ready;
+	}
+
+	/**
+	 * @return true if loading of the truststore and credential has finished (possibly with an error)
+	 */
+	public boolean isReady()
+	{
+		return ready.isDone();
+	}
+
+	/**
+	 * Waits until the truststore and credential are loaded.
+	 * @throws ConfigurationException if the loading failed
+	 */
+	public void awaitReady() throws ConfigurationException
+	{
+		try
+		{
+			ready.join();
+		} catch (CompletionException e)
+		{
+			if (e.getCause() instanceof ConfigurationException ce)
+				throw ce;
+			throw new ConfigurationException("Loading of the truststore or credential failed", e.getCause());
+		}
+	}
+
+	@Override
+	public X509CertChainValidatorExt getValidator()
+	{
+		awaitReady();
+		return super.getValidator();
+	}
+
+	@Override
+	public X509Credential getCredential()
+	{
+		awaitReady();
+		return super.getCredential();
+	}
+
 	/**
 	 * @return the truststoreProperties
 	 */
 	public TruststoreProperties getTruststoreProperties()
 	{
+		awaitReady();
 		return truststoreProperties;
 	}
 
@@ -147,11 +251,13 @@ public class AuthnAndTrustProperties extends DefaultAuthnAndTrustConfiguration
 	 */
 	public CredentialProperties getCredentialProperties()
 	{
+		awaitReady();
 		return credentialProperties;
 	}
 	
 	public AuthnAndTrustProperties clone()
 	{
+		awaitReady();
 		AuthnAndTrustProperties clonedRaw = (AuthnAndTrustProperties) super.clone();
 		CredentialProperties cp = credentialProperties == null ? null : credentialProperties.clone();
 		TruststoreProperties tp = truststoreProperties == null ? null : truststoreProperties.clone();
@@ -161,6 +267,7 @@ public class AuthnAndTrustProperties extends DefaultAuthnAndTrustConfiguration
 	}
 
 	public void reloadCredential() throws ConfigurationException {
+		awaitReady();
 		credentialProperties.reloadCredential();
 		setCredential(credentialProperties.getCredential());
 	}
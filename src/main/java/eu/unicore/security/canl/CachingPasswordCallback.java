@@ -1,34 +1,145 @@
 package eu.unicore.security.canl;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This abstract class provides a commonly useful feature: passwords are cached.
- * 
+ * <p>
+ * The class is thread safe. Concurrent requests for the same artifact wait for a single invocation of
+ * {@link #getPasswordFromUser(String, String)}. Optionally cached passwords expire, then the user is asked
+ * again. Expired or cleared passwords are overwritten in memory. Callers get a copy of the cached password.
+ *
  * @author K. Benedyczak
  */
 public abstract class CachingPasswordCallback implements PasswordCallback
 {
-	private transient Map<String, char[]> cache = new HashMap<String, char[]>();
-	
+	private final transient ConcurrentMap<ArtifactKey, CompletableFuture<CachedPassword>> cache =
+			new ConcurrentHashMap<>();
+	private final long expiry;
+
+	/**
+	 * Cached passwords never expire.
+	 */
+	protected CachingPasswordCallback()
+	{
+		this(-1);
+	}
+
+	/**
+	 * @param expiry time in ms after which a cached password expires. Non positive value turns expiry off.
+	 */
+	protected CachingPasswordCallback(long expiry)
+	{
+		this.expiry = expiry;
+	}
+
 	@Override
 	public final char[] getPassword(String protectedArtifactType, String protectedArtifactDescription)
 	{
-		String key = protectedArtifactType + "__||__" + protectedArtifactDescription;
-		char[] cached = cache.get(key);
-		if (cached != null)
-			return cached;
-		cached = getPasswordFromUser(protectedArtifactType, protectedArtifactDescription);
-		cache.put(key, cached);
-		return cached;
+		ArtifactKey key = new ArtifactKey(protectedArtifactType, protectedArtifactDescription);
+		while (true)
+		{
+			CompletableFuture<CachedPassword> created = new CompletableFuture<>();
+			CompletableFuture<CachedPassword> existing = cache.putIfAbsent(key, created);
+			if (existing == null)
+				return obtain(key, created);
+			CachedPassword cached;
+			try
+			{
+				cached = existing.join();
+			} catch (CompletionException e)
+			{
+				//the request which we waited for failed, try on our own
+				continue;
+			}
+			if (cached.isExpired())
+			{
+				if (cache.remove(key, existing))
+					cached.clear();
+				continue;
+			}
+			return cached.copy();
+		}
+	}
+
+	private char[] obtain(ArtifactKey key, CompletableFuture<CachedPassword> future)
+	{
+		char[] password;
+		try
+		{
+			password = getPasswordFromUser(key.type, key.description);
+		} catch (RuntimeException | Error e)
+		{
+			cache.remove(key, future);
+			future.completeExceptionally(e);
+			throw e;
+		}
+		if (password == null)
+		{
+			cache.remove(key, future);
+			future.completeExceptionally(new IllegalStateException("No password was provided"));
+			return null;
+		}
+		CachedPassword cached = new CachedPassword(password,
+				expiry > 0 ? System.currentTimeMillis() + expiry : Long.MAX_VALUE);
+		future.complete(cached);
+		return cached.copy();
+	}
+
+	/**
+	 * Removes all cached passwords, overwriting them in memory.
+	 */
+	public void clearCache()
+	{
+		for (ArtifactKey key: cache.keySet())
+		{
+			CompletableFuture<CachedPassword> removed = cache.remove(key);
+			if (removed != null && removed.isDone() && !removed.isCompletedExceptionally())
+				removed.join().clear();
+		}
 	}
-	
+
 	/**
 	 * Implement this method to obtain the password. It is guaranteed that this method is called only once
-	 * per type and description combination.
+	 * per type and description combination, unless the cached password expired, the cache was cleared
+	 * or the previous invocation failed or returned null.
 	 * @param protectedArtifactType
 	 * @param protectedArtifactDescription
 	 */
 	protected abstract char[] getPasswordFromUser(String protectedArtifactType, String protectedArtifactDescription);
+
+	private record ArtifactKey(String type, String description)
+	{
+	}
+
+	private static class CachedPassword
+	{
+		private final char[] password;
+		private final long expiresAt;
+
+		private CachedPassword(char[] password, long expiresAt)
+		{
+			this.password = password.clone();
+			this.expiresAt = expiresAt;
+		}
+
+		private boolean isExpired()
+		{
+			return System.currentTimeMillis() >= expiresAt;
+		}
+
+		private char[] copy()
+		{
+			return password.clone();
+		}
+
+		private void clear()
+		{
+			Arrays.fill(password, '\0');
+		}
+	}
 }
@@ -0,0 +1,222 @@
+package eu.unicore.security.canl;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.Logger;
+
+import eu.emi.security.authn.x509.impl.X500NameUtils;
+import eu.unicore.util.Log;
+
+/**
+ * Tracks the expiry of a credential loaded by {@link CredentialProperties}. The credential files
+ * are checked with a cadence which is exponentially shortened as the expiry approaches: the next check 
+ * is done after half of the remaining validity time, bounded by the configured minimum and maximum 
+ * check intervals. If the credential files were modified and dynamical reloading of the credential 
+ * is enabled, the reload action is invoked, unless none was given as the credential is reloaded by other 
+ * means, e.g. after a notification of a file watch. Warnings are logged in each check done in the expiry 
+ * warning period, errors after the credential expired.
+ * <p>
+ * The time to expiry is exported as a JMX attribute of an MBean named 
+ * <code>eu.unicore.security:type=CredentialExpiry,name=PATH</code>, registered while the monitor
+ * is started. All monitors share a single daemon thread.
+ */
+public class CredentialExpiryMonitor implements CredentialExpiryMonitorMBean
+{
+	private static final Logger log = Log.getLogger(Log.SECURITY, CredentialExpiryMonitor.class);
+	private static final String JMX_DOMAIN = "eu.unicore.security";
+
+	private static ScheduledExecutorService scheduler;
+
+	private final CredentialProperties credProperties;
+	private final Runnable reloadAction;
+	private List<String> fingerprints;
+	private ScheduledFuture<?> nextCheck;
+	private long nextCheckTime;
+	private ObjectName objectName;
+
+	/**
+	 * The credential is reloaded with {@link CredentialProperties#reloadCredential()}.
+	 */
+	public CredentialExpiryMonitor(CredentialProperties credProperties)
+	{
+		this(credProperties, credProperties::reloadCredential);
+	}
+
+	/**
+	 * @param reloadAction invoked after the credential files were modified. It should reload 
+	 * the credential properties and apply the new credential where needed. If null, the credential 
+	 * files are not compared and only the expiry is tracked.
+	 */
+	public CredentialExpiryMonitor(CredentialProperties credProperties, Runnable reloadAction)
+	{
+		this.credProperties = credProperties;
+		this.reloadAction = reloadAction;
+	}
+
+	/**
+	 * Schedules the first check after the minimum check interval and registers the MBean.
+	 */
+	public synchronized void start()
+	{
+		if (nextCheck != null)
+			return;
+		if (reloadAction != null)
+			fingerprints = TrustSnapshot.getFingerprints(credProperties.getCredentialFiles());
+		registerMBean();
+		log.info("Monitoring expiry of the credential {}, which expires on {}", getCredentialPath(), 
+				getNotAfter());
+		schedule(credProperties.getExpiryCheckMinInterval());
+	}
+
+	/**
+	 * Cancels further checks and unregisters the MBean.
+	 */
+	public synchronized void stop()
+	{
+		if (nextCheck != null)
+			nextCheck.cancel(false);
+		nextCheck = null;
+		unregisterMBean();
+	}
+
+	/**
+	 * Checks the credential: reloads it if its files were modified and the reload action was given, 
+	 * logs its expiry state and schedules the next check.
+	 */
+	void check()
+	{
+		if (reloadAction != null && credProperties.isDynamicalReloadEnabled())
+			reloadIfModified();
+		long remaining = getSecondsToExpiry();
+		String subject = X500NameUtils.getReadableForm(
+				credProperties.getCredential().getCertificate().getSubjectX500Principal());
+		if (remaining <= 0)
+			log.error("Credential certificate with DN {} loaded from {} is EXPIRED since {}", subject, 
+					getCredentialPath(), getNotAfter());
+		else if (remaining <= TimeUnit.DAYS.toSeconds(credProperties.getExpiryWarningPeriod()))
+			log.warn("Credential certificate with DN {} loaded from {} will expire in {} hour(s), on {}", 
+					subject, getCredentialPath(), remaining / 3600, getNotAfter());
+		long delay = Math.min(Math.max(remaining / 2, credProperties.getExpiryCheckMinInterval()), 
+				credProperties.getExpiryCheckMaxInterval());
+		synchronized (this)
+		{
+			if (nextCheck != null)
+				schedule(delay);
+		}
+	}
+
+	private void reloadIfModified()
+	{
+		List<String> current = TrustSnapshot.getFingerprints(credProperties.getCredentialFiles());
+		if (current.equals(fingerprints))
+			return;
+		log.info("Credential {} was modified, reloading it", getCredentialPath());
+		try
+		{
+			reloadAction.run();
+			fingerprints = current;
+		} catch (Exception e)
+		{
+			log.error("Cannot reload the modified credential " + getCredentialPath() + 
+					", the previous one is still used", e);
+		}
+	}
+
+	private void schedule(long delay)
+	{
+		nextCheckTime = System.currentTimeMillis() + delay * 1000;
+		nextCheck = getScheduler().schedule(this::checkSafe, delay, TimeUnit.SECONDS);
+	}
+
+	private void checkSafe()
+	{
+		try
+		{
+			check();
+		} catch (Exception e)
+		{
+			log.error("Credential expiry check failed", e);
+			synchronized (this)
+			{
+				if (nextCheck != null)
+					schedule(credProperties.getExpiryCheckMinInterval());
+			}
+		}
+	}
+
+	@Override
+	public long getSecondsToExpiry()
+	{
+		return (getNotAfter().getTime() - System.currentTimeMillis()) / 1000;
+	}
+
+	@Override
+	public Date getNotAfter()
+	{
+		return credProperties.getCredential().getCertificate().getNotAfter();
+	}
+
+	@Override
+	public String getCredentialPath()
+	{
+		List<File> files = credProperties.getCredentialFiles();
+		return files.get(0).getPath();
+	}
+
+	@Override
+	public synchronized Date getNextCheck()
+	{
+		return nextCheck == null ? null : new Date(nextCheckTime);
+	}
+
+	private void registerMBean()
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try
+		{
+			objectName = new ObjectName(JMX_DOMAIN + ":type=CredentialExpiry,name=" + 
+					ObjectName.quote(getCredentialPath()) + ",id=" + System.identityHashCode(this));
+			server.registerMBean(this, objectName);
+		} catch (JMException e)
+		{
+			log.warn("Cannot register credential expiry MBean", e);
+			objectName = null;
+		}
+	}
+
+	private void unregisterMBean()
+	{
+		if (objectName == null)
+			return;
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e)
+		{
+			log.debug("Cannot unregister credential expiry MBean", e);
+		}
+		objectName = null;
+	}
+
+	private static synchronized ScheduledExecutorService getScheduler()
+	{
+		if (scheduler == null)
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "credential-expiry-monitor");
+				t.setDaemon(true);
+				return t;
+			});
+		return scheduler;
+	}
+}
@@ -0,0 +1,29 @@
+package eu.unicore.security.canl;
+
+import java.util.Date;
+
+/**
+ * JMX view of {@link CredentialExpiryMonitor}.
+ */
+public interface CredentialExpiryMonitorMBean
+{
+	/**
+	 * @return time in seconds until the monitored credential's certificate expires, negative if it has expired
+	 */
+	long getSecondsToExpiry();
+
+	/**
+	 * @return end of the validity period of the monitored credential's certificate
+	 */
+	Date getNotAfter();
+
+	/**
+	 * @return location of the monitored credential
+	 */
+	String getCredentialPath();
+
+	/**
+	 * @return time of the next check of the credential, or null if the monitor is stopped
+	 */
+	Date getNextCheck();
+}
@@ -7,11 +7,14 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 
@@ -39,7 +42,6 @@ public class CredentialProperties extends PropertiesHelper
 {
 	private static final Logger log = Log.getLogger(Log.CONFIGURATION, CredentialProperties.class);
 
-	private static final long WEEK=7*24*60*60*1000;
 	public static final String DEFAULT_PREFIX = "credential.";
 
 	//common for all
@@ -48,12 +50,18 @@ public class CredentialProperties extends PropertiesHelper
 
 	public static final String PROP_LOCATION = "path";
 	public static final String PROP_PASSWORD = "password";
+	public static final String PROP_PASSWORD_SECRET = "passwordSecret";
 	public static final String PROP_RELOAD_DYNAMICALLY= "reloadOnChange";
+	public static final String PROP_EXPIRY_MONITORING = "expiryMonitoring";
+	public static final String PROP_EXPIRY_WARNING_PERIOD = "expiryWarningPeriod";
+	public static final String PROP_EXPIRY_CHECK_MIN_INTERVAL = "expiryCheckMinInterval";
+	public static final String PROP_EXPIRY_CHECK_MAX_INTERVAL = "expiryCheckMaxInterval";
 	
 	//type-specific
 	public static final String PROP_KEY_LOCATION = "keyPath";
 	public static final String PROP_KS_ALIAS = "keyAlias";
 	public static final String PROP_KS_KEY_PASSWORD = "keyPassword";
+	public static final String PROP_KS_KEY_PASSWORD_SECRET = "keyPasswordSecret";
 
 	public static final Map<String, PropertyMD> META = new HashMap<String, PropertyMD>();
 	static
@@ -64,14 +72,32 @@ public class CredentialProperties extends PropertiesHelper
 				setDescription("Format of the credential. It is guessed when not given. Note that 'pem' might be either a PEM keystore with certificates and keys (in PEM format) or a pair of PEM files (one with certificate and second with private key)."));
 		META.put(PROP_PASSWORD, new PropertyMD().setSecret().setSortKey("3").
 				setDescription("Password required to load the credential."));
+		META.put(PROP_PASSWORD_SECRET, new PropertyMD().setSortKey("3a").
+				setDescription("Reference of the credential password in a secret provider, used if the password " +
+						"is not set directly. Built in providers are 'file:PATH', 'env:VARIABLE' and " +
+						"'agent:SOCKET#NAME'. Secrets are fetched in parallel when the configuration is loaded and cached."));
 		META.put(PROP_KEY_LOCATION, new PropertyMD().setSortKey("4").
 				setDescription("Location of the private key if stored separately from the main credential (applicable for 'pem' and 'der' types only),"));
 		META.put(PROP_KS_KEY_PASSWORD, new PropertyMD().setSecret().setSortKey("5").
 				setDescription("Private key password, which might be needed only for 'jks' or 'pkcs12', if key is encrypted with different password then the main credential password."));
+		META.put(PROP_KS_KEY_PASSWORD_SECRET, new PropertyMD().setSortKey("5a").
+				setDescription("Reference of the private key password in a secret provider, used if the key password " +
+						"is not set directly."));
 		META.put(PROP_KS_ALIAS, new PropertyMD().setSortKey("6").
 				setDescription("Keystore alias of the key entry to be used. Can be ignored if the keystore contains only one key entry. Only applicable for 'jks' and 'pkcs12'."));
 		META.put(PROP_RELOAD_DYNAMICALLY, new PropertyMD("true").setBoolean().setSortKey("6").
 				setDescription("Monitor credential location and trigger dynamical reload if file changes."));
+		META.put(PROP_EXPIRY_MONITORING, new PropertyMD("true").setBoolean().setSortKey("7").
+				setDescription("If true, servers periodically check the credential, more often as its expiry approaches. "
+						+ "Modified credential files are reloaded (if dynamical reload is enabled) and warnings "
+						+ "are logged when the expiry is near. The time to expiry is exported via JMX."));
+		META.put(PROP_EXPIRY_WARNING_PERIOD, new PropertyMD("7").setInt().setNonNegative().setSortKey("8").
+				setDescription("Number of days before the credential expiry, when warnings about it are logged."));
+		META.put(PROP_EXPIRY_CHECK_MIN_INTERVAL, new PropertyMD("60").setLong().setPositive().setSortKey("9").
+				setDescription("Minimal interval (in seconds) between checks of the credential expiry."));
+		META.put(PROP_EXPIRY_CHECK_MAX_INTERVAL, new PropertyMD("86400").setLong().setPositive().setSortKey("9a").
+				setDescription("Maximal interval (in seconds) between checks of the credential expiry. "
+						+ "The checks are done after half of the remaining validity time, within the bounds."));
 	}
 	
 
@@ -79,6 +105,8 @@ public class CredentialProperties extends PropertiesHelper
 	private String credPath;
 	
 	private X509Credential credential;
+	private Map<String, String> credentialSettings;
+	private boolean sharedCredential;
 	
 	private PasswordCallback passwordCallback;
 	
@@ -130,8 +158,25 @@ public class CredentialProperties extends PropertiesHelper
 	{
 		super(pfx, properties, META, log);
 		this.passwordCallback = callback;
+		SecretProviders.prefetch(getSecretReferences(properties, pfx));
 		createCredentialSafe();
 	}
+
+	/**
+	 * Creates a copy which shares the loaded credential of the source. The credential is loaded 
+	 * again (copy-on-write) only after the copy's credential settings are changed.
+	 * @param source
+	 */
+	protected CredentialProperties(CredentialProperties source)
+	{
+		super(source);
+		passwordCallback = source.passwordCallback;
+		type = source.type;
+		credPath = source.credPath;
+		credential = source.credential;
+		credentialSettings = source.credentialSettings;
+		sharedCredential = true;
+	}
 	
 	/**
 	 * @return a previously loaded credential. 
@@ -145,6 +190,7 @@ public class CredentialProperties extends PropertiesHelper
 	{
 		try
 		{
+			credentialSettings = getCredentialSettings();
 			createCredential();
 		} catch (ConfigurationException e)
 		{
@@ -162,7 +208,8 @@ public class CredentialProperties extends PropertiesHelper
 			cert.checkValidity();
 			try 
 			{
-				cert.checkValidity(new Date(System.currentTimeMillis()+WEEK));
+				cert.checkValidity(new Date(System.currentTimeMillis() + 
+						TimeUnit.DAYS.toMillis(getExpiryWarningPeriod())));
 			} catch(CertificateExpiredException ce){
 				String date=cert.getNotAfter().toString(); 
 				log.warn("Credential certificate with DN " + 
@@ -195,10 +242,7 @@ public class CredentialProperties extends PropertiesHelper
 		boolean preferCallback = passwordCallback != null && passwordCallback.ignoreProperties();
 		char[] credPassword = null;
 		if (!preferCallback)
-		{
-			String pass = getValue(PROP_PASSWORD);
-			credPassword = pass == null ? null : pass.toCharArray();
-		}
+			credPassword = getPassword(PROP_PASSWORD, PROP_PASSWORD_SECRET);
 		if (credPassword == null && passwordCallback != null)
 		{
 			credPassword = passwordCallback.getPassword("credential", credPath);
@@ -208,10 +252,7 @@ public class CredentialProperties extends PropertiesHelper
 		String ksAlias = getValue(PROP_KS_ALIAS);
 		char[] ksKeyPassword = null;
 		if (!preferCallback)
-		{
-			String pass = getValue(PROP_KS_KEY_PASSWORD);
-			ksKeyPassword = pass == null ? null : pass.toCharArray();
-		}
+			ksKeyPassword = getPassword(PROP_KS_KEY_PASSWORD, PROP_KS_KEY_PASSWORD_SECRET);
 
 		type = getEnumValue(PROP_FORMAT, CredentialFormat.class);
 		if (type == null)
@@ -227,7 +268,7 @@ public class CredentialProperties extends PropertiesHelper
 			log.debug("Credential keystore alias: " + (ksAlias == null ? "NOT-SET" : ksAlias));
 			if (credPassword == null)
 				throw new ConfigurationException("For " + type + 
-					" credential, the " + prefix + PROP_PASSWORD + 
+					" credential, the " + prefix + PROP_PASSWORD + " or " + prefix + PROP_PASSWORD_SECRET +
 					" property must be set and provide a keystore password");
 			if (ksKeyPassword == null && passwordCallback != null && passwordCallback.askForSeparateKeyPassword())
 			{
@@ -260,6 +301,30 @@ public class CredentialProperties extends PropertiesHelper
 					Arrays.toString(CredentialFormat.values()));
 	}
 	
+	private char[] getPassword(String passwordKey, String secretKey) throws ConfigurationException
+	{
+		String pass = getValue(passwordKey);
+		if (pass != null)
+			return pass.toCharArray();
+		String secret = getValue(secretKey);
+		return secret == null ? null : SecretProviders.resolve(secret);
+	}
+
+	/**
+	 * @return references of the secrets configured in the given properties
+	 */
+	static List<String> getSecretReferences(Properties properties, String pfx)
+	{
+		List<String> ret = new ArrayList<>();
+		for (String key: new String[] {PROP_PASSWORD_SECRET, PROP_KS_KEY_PASSWORD_SECRET})
+		{
+			String value = properties.getProperty(pfx + key);
+			if (value != null)
+				ret.add(value.trim());
+		}
+		return ret;
+	}
+
 	protected CredentialFormat autodetectType(String credPath, char[] credPassword,
 			String keyLocation, String ksAlias, char[] ksKeyPassword)
 	{
@@ -276,6 +341,9 @@ public class CredentialProperties extends PropertiesHelper
 			//possible: JKS, PKCS12 and PEM keystore
 			if (credPath.toLowerCase().endsWith("pem"))
 				return CredentialFormat.pem;
+			CredentialFormat detected = detectType(credPath);
+			if (detected != null)
+				return detected;
 			
 			//possible: JKS, PKCS12
 			try
@@ -309,19 +377,131 @@ public class CredentialProperties extends PropertiesHelper
 		return CredentialFormat.pem;
 	}
 
+	/**
+	 * @return the type detected from the file header, so the credential is loaded only once, 
+	 * or null if it was not recognized
+	 */
+	private static CredentialFormat detectType(String credPath)
+	{
+		try
+		{
+			String type = KeystoreTypeDetector.detect(new File(credPath));
+			if (KeystoreTypeDetector.JKS.equals(type))
+				return CredentialFormat.jks;
+			if (KeystoreTypeDetector.PKCS12.equals(type))
+				return CredentialFormat.pkcs12;
+			if (KeystoreTypeDetector.PEM.equals(type))
+				return CredentialFormat.pem;
+		} catch (IOException e)
+		{
+			log.debug("Can not read the header of the credential " + credPath, e);
+		}
+		return null;
+	}
+
 	public boolean isDynamicalReloadEnabled() {
 		return getBooleanValue(PROP_RELOAD_DYNAMICALLY);
 	}
+
+	public boolean isExpiryMonitoringEnabled() {
+		return getBooleanValue(PROP_EXPIRY_MONITORING);
+	}
+
+	/**
+	 * @return number of days before the credential expiry, when warnings are logged
+	 */
+	public int getExpiryWarningPeriod() {
+		return getIntValue(PROP_EXPIRY_WARNING_PERIOD);
+	}
+
+	/**
+	 * @return minimal interval between expiry checks, in seconds
+	 */
+	public long getExpiryCheckMinInterval() {
+		return getLongValue(PROP_EXPIRY_CHECK_MIN_INTERVAL);
+	}
+
+	/**
+	 * @return maximal interval between expiry checks, in seconds
+	 */
+	public long getExpiryCheckMaxInterval() {
+		return Math.max(getLongValue(PROP_EXPIRY_CHECK_MAX_INTERVAL), getExpiryCheckMinInterval());
+	}
+
+	/**
+	 * @return files of the credential: the credential location and the private key location if 
+	 * it is configured separately
+	 */
+	public List<File> getCredentialFiles()
+	{
+		List<File> ret = new ArrayList<>();
+		ret.add(new File(getFileValueAsString(PROP_LOCATION, false)));
+		String keyLocation = getFileValueAsString(PROP_KEY_LOCATION, false);
+		if (keyLocation != null)
+			ret.add(new File(keyLocation));
+		return ret;
+	}
 	
 	public void reloadCredential() throws ConfigurationException {
 		if(isDynamicalReloadEnabled()) {
+			try
+			{
+				createCredentialSafe();
+			} catch (ConfigurationException e)
+			{
+				//the secrets might have been rotated together with the credential
+				List<String> secrets = getSecretReferences(properties, prefix);
+				if (secrets.isEmpty())
+					throw e;
+				log.debug("Reloading the credential with refetched secrets");
+				secrets.forEach(SecretProviders::invalidate);
+				createCredentialSafe();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void setProperties(Properties properties) throws ConfigurationException
+	{
+		super.setProperties(properties);
+		reloadIfDiverged();
+	}
+
+	@Override
+	public synchronized void setProperty(String key, String value) throws ConfigurationException
+	{
+		super.setProperty(key, value);
+		reloadIfDiverged();
+	}
+
+	private void reloadIfDiverged()
+	{
+		if (sharedCredential && !getCredentialSettings().equals(credentialSettings))
+		{
+			log.debug("Properties of a cloned credential were changed, loading it again");
+			sharedCredential = false;
 			createCredentialSafe();
 		}
 	}
 
+	private Map<String, String> getCredentialSettings()
+	{
+		Map<String, String> ret = new HashMap<>();
+		for (String key: META.keySet())
+		{
+			String value = properties.getProperty(prefix + key);
+			if (value != null)
+				ret.put(key, value);
+		}
+		return ret;
+	}
+
+	/**
+	 * The returned object shares the loaded credential with this one, until its properties are changed.
+	 */
 	public CredentialProperties clone()
 	{
-		CredentialProperties ret = new CredentialProperties(properties, passwordCallback, prefix);
+		CredentialProperties ret = new CredentialProperties(this);
 		super.cloneTo(ret);
 		return ret;
 	}
@@ -0,0 +1,161 @@
+package eu.unicore.security.canl;
+
+import java.security.cert.CertPath;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.emi.security.authn.x509.ProxySupport;
+import eu.emi.security.authn.x509.RevocationParameters;
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.ValidationError;
+import eu.emi.security.authn.x509.ValidationErrorListener;
+import eu.emi.security.authn.x509.ValidationResult;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+
+/**
+ * Base class for validators wrapping a canl {@link X509CertChainValidatorExt} and adding
+ * extra checks on top of it. All operations are delegated to the wrapped validator.
+ * Extensions should override {@link #validate(X509Certificate[])} and report their
+ * own problems with {@link #addErrors(ValidationResult, List)}, so that registered
+ * {@link ValidationErrorListener}s are consulted in the same way as for the errors
+ * found by the wrapped validator.
+ * <p>
+ * The validator can be shared: each additional user is registered with {@link #retain()}
+ * and {@link #dispose()} only releases the caller's reference. Resources are freed by
+ * {@link #disposeValidator()} when the last user disposes the validator.
+ */
+public class DelegatingCertChainValidator implements X509CertChainValidatorExt
+{
+	protected final X509CertChainValidatorExt delegate;
+	private final Set<ValidationErrorListener> listeners = new CopyOnWriteArraySet<>();
+	private final AtomicInteger users = new AtomicInteger(1);
+
+	public DelegatingCertChainValidator(X509CertChainValidatorExt delegate)
+	{
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return the wrapped validator
+	 */
+	public X509CertChainValidatorExt getDelegate()
+	{
+		return delegate;
+	}
+
+	@Override
+	public ValidationResult validate(CertPath certPath)
+	{
+		List<? extends Certificate> certs = certPath.getCertificates();
+		X509Certificate[] chain = new X509Certificate[certs.size()];
+		for (int i=0; i<chain.length; i++)
+			chain[i] = (X509Certificate) certs.get(i);
+		return validate(chain);
+	}
+
+	@Override
+	public ValidationResult validate(X509Certificate[] certChain)
+	{
+		return delegate.validate(certChain);
+	}
+
+	/**
+	 * Adds errors found by this validator to the result of the wrapped validator.
+	 * Errors which are ignored by any of the registered listeners are dropped.
+	 * @return the (possibly new) validation result
+	 */
+	protected ValidationResult addErrors(ValidationResult result, List<ValidationError> errors)
+	{
+		List<ValidationError> remaining = new ArrayList<>(errors.size());
+		for (ValidationError error: errors)
+		{
+			boolean ignore = false;
+			for (ValidationErrorListener listener: listeners)
+				ignore |= listener.onValidationError(error);
+			if (!ignore)
+				remaining.add(error);
+		}
+		if (remaining.isEmpty())
+			return result;
+		List<ValidationError> all = new ArrayList<>(result.getErrors());
+		all.addAll(remaining);
+		return new ValidationResult(false, all, result.getUnresolvedCriticalExtensions(),
+				result.getValidChain());
+	}
+
+	@Override
+	public X509Certificate[] getTrustedIssuers()
+	{
+		return delegate.getTrustedIssuers();
+	}
+
+	@Override
+	public void addValidationListener(ValidationErrorListener listener)
+	{
+		listeners.add(listener);
+		delegate.addValidationListener(listener);
+	}
+
+	@Override
+	public void removeValidationListener(ValidationErrorListener listener)
+	{
+		listeners.remove(listener);
+		delegate.removeValidationListener(listener);
+	}
+
+	@Override
+	public void addUpdateListener(StoreUpdateListener listener)
+	{
+		delegate.addUpdateListener(listener);
+	}
+
+	@Override
+	public void removeUpdateListener(StoreUpdateListener listener)
+	{
+		delegate.removeUpdateListener(listener);
+	}
+
+	@Override
+	public ProxySupport getProxySupport()
+	{
+		return delegate.getProxySupport();
+	}
+
+	@Override
+	public RevocationParameters getRevocationCheckingMode()
+	{
+		return delegate.getRevocationCheckingMode();
+	}
+
+	/**
+	 * Registers an additional user of this validator, which must call {@link #dispose()}
+	 * when the validator is no longer used.
+	 */
+	public void retain()
+	{
+		users.incrementAndGet();
+	}
+
+	/**
+	 * Releases the caller's reference, the validator is disposed after the last one is released.
+	 */
+	@Override
+	public void dispose()
+	{
+		if (users.decrementAndGet() == 0)
+			disposeValidator();
+	}
+
+	/**
+	 * Frees resources of this validator and disposes the wrapped one.
+	 */
+	protected void disposeValidator()
+	{
+		delegate.dispose();
+	}
+}
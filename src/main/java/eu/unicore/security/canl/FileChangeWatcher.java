@@ -0,0 +1,360 @@
+package eu.unicore.security.canl;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.Logger;
+
+import eu.unicore.util.Log;
+
+/**
+ * Watches local files and directories using the {@link WatchService} and invokes actions
+ * when they are modified. Bursts of changes are coalesced: an action is invoked once no further
+ * change of its files was observed for the configured delay. Actions are invoked sequentially,
+ * from the single watcher thread.
+ * <p>
+ * Files are watched by observing their parent directories, so files which are atomically replaced
+ * (e.g. moved over) or recreated are handled. Watching a directory means that a change of any
+ * of its entries (but not of subdirectories contents) triggers the action.
+ */
+public class FileChangeWatcher
+{
+	private static final Logger log = Log.getLogger(Log.SECURITY, FileChangeWatcher.class);
+
+	/**
+	 * Delay (in ms) used by the shared watcher.
+	 */
+	public static final long DEFAULT_DELAY = 2000;
+
+	/**
+	 * Maximum time (in ms) after which registrations of garbage collected owners are cancelled.
+	 */
+	private static final long CLEANUP_INTERVAL = 60000;
+
+	private static FileChangeWatcher shared;
+
+	private final long delay;
+	private final long cleanupInterval;
+	private final ReferenceQueue<Object> collectedOwners = new ReferenceQueue<>();
+	private final Map<Path, List<Registration>> registrations = new HashMap<>();
+	private final Map<Path, WatchKey> keys = new HashMap<>();
+	private WatchService watchService;
+	private Thread thread;
+
+	/**
+	 * @param delay time in ms without further changes after which the action is invoked
+	 */
+	public FileChangeWatcher(long delay)
+	{
+		this(delay, CLEANUP_INTERVAL);
+	}
+
+	FileChangeWatcher(long delay, long cleanupInterval)
+	{
+		this.delay = delay;
+		this.cleanupInterval = cleanupInterval;
+	}
+
+	/**
+	 * @return watcher shared in the JVM, using the {@link #DEFAULT_DELAY}
+	 */
+	public static synchronized FileChangeWatcher getShared()
+	{
+		if (shared == null)
+			shared = new FileChangeWatcher(DEFAULT_DELAY);
+		return shared;
+	}
+
+	/**
+	 * Starts watching the given files or directories.
+	 * @param paths files and directories to be watched. Non existing paths are treated as files.
+	 * @param action invoked after the paths were changed
+	 * @return registration which can be used to stop watching
+	 */
+	public Registration watch(Collection<File> paths, Runnable action) throws IOException
+	{
+		return register(new Registration(action), paths);
+	}
+
+	/**
+	 * Starts watching the given files or directories, on behalf of an owner which is only weakly
+	 * referenced, so the registration does not prevent garbage collection of the owner.
+	 * Once the owner is collected, the registration is cancelled by the watcher thread.
+	 * @param paths files and directories to be watched. Non existing paths are treated as files.
+	 * @param owner object which is passed to the action
+	 * @param action invoked after the paths were changed. Must not keep a reference to the owner.
+	 * @return registration which can be used to stop watching
+	 */
+	public <T> Registration watch(Collection<File> paths, T owner, Consumer<? super T> action)
+			throws IOException
+	{
+		Registration registration = new Registration(null);
+		OwnerReference<T> ownerRef = new OwnerReference<>(owner, collectedOwners, registration);
+		registration.action = () -> {
+			T o = ownerRef.get();
+			if (o == null)
+				registration.cancel();
+			else
+				action.accept(o);
+		};
+		return register(registration, paths);
+	}
+
+	private synchronized Registration register(Registration registration, Collection<File> paths)
+			throws IOException
+	{
+		for (File file: paths)
+		{
+			addTarget(registration, file.getAbsoluteFile().toPath().normalize());
+			try
+			{
+				Path real = file.toPath().toRealPath();
+				addTarget(registration, real);
+			} catch (IOException e)
+			{
+				//not existing - only the given path is watched
+			}
+		}
+		if (watchService == null)
+		{
+			watchService = FileSystems.getDefault().newWatchService();
+			thread = new Thread(this::run, "file-change-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		for (Path dir: registration.targets.keySet())
+		{
+			if (!keys.containsKey(dir))
+				keys.put(dir, dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE));
+			registrations.computeIfAbsent(dir, d -> new ArrayList<>()).add(registration);
+		}
+		return registration;
+	}
+
+	private static void addTarget(Registration registration, Path path)
+	{
+		if (path.toFile().isDirectory())
+		{
+			registration.targets.put(path, null);
+		} else
+		{
+			Path dir = path.getParent();
+			if (registration.targets.containsKey(dir) && registration.targets.get(dir) == null)
+				return;
+			registration.targets.computeIfAbsent(dir, d -> new HashSet<>()).add(path.getFileName());
+		}
+	}
+
+	private synchronized void unregister(Registration registration)
+	{
+		for (Path dir: registration.targets.keySet())
+		{
+			List<Registration> forDir = registrations.get(dir);
+			if (forDir == null)
+				continue;
+			forDir.remove(registration);
+			if (forDir.isEmpty())
+			{
+				registrations.remove(dir);
+				WatchKey key = keys.remove(dir);
+				if (key != null)
+					key.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Stops the watcher thread. All registrations are dropped.
+	 */
+	public synchronized void dispose()
+	{
+		registrations.clear();
+		keys.clear();
+		if (watchService != null)
+		{
+			try
+			{
+				watchService.close();
+			} catch (IOException e)
+			{
+				log.debug("Can not close watch service", e);
+			}
+			watchService = null;
+		}
+	}
+
+	private void run()
+	{
+		WatchService service;
+		synchronized (this)
+		{
+			service = watchService;
+		}
+		try
+		{
+			while (true)
+			{
+				long wait = getWaitTime();
+				WatchKey key = service.poll(wait < 0 ? cleanupInterval : Math.min(wait, cleanupInterval),
+						TimeUnit.MILLISECONDS);
+				if (key != null)
+					processEvents(key);
+				for (Registration registration: getDueRegistrations())
+					invoke(registration);
+				cancelCollected();
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e)
+		{
+			log.debug("File change watcher was stopped");
+		}
+	}
+
+	private void cancelCollected()
+	{
+		Reference<?> collected;
+		while ((collected = collectedOwners.poll()) != null)
+		{
+			Registration registration = ((OwnerReference<?>) collected).registration;
+			log.debug("Stopping to watch {}, its owner was garbage collected", registration.targets.keySet());
+			registration.cancel();
+		}
+	}
+
+	/**
+	 * @return whether the given directory is watched
+	 */
+	synchronized boolean isWatched(File dir)
+	{
+		return keys.containsKey(dir.getAbsoluteFile().toPath().normalize());
+	}
+
+	private synchronized void processEvents(WatchKey key)
+	{
+		Path dir = (Path) key.watchable();
+		List<WatchEvent<?>> events = key.pollEvents();
+		key.reset();
+		List<Registration> forDir = registrations.get(dir);
+		if (forDir == null)
+			return;
+		long now = System.currentTimeMillis();
+		for (WatchEvent<?> event: events)
+		{
+			Path name = event.kind() == OVERFLOW ? null : (Path) event.context();
+			for (Registration registration: forDir)
+				if (registration.matches(dir, name))
+				{
+					log.trace("{} was modified", name == null ? dir : dir.resolve(name));
+					registration.changedAt = now;
+				}
+		}
+	}
+
+	/**
+	 * @return time to wait for the earliest pending action or -1 if there is none
+	 */
+	private synchronized long getWaitTime()
+	{
+		long now = System.currentTimeMillis();
+		long ret = -1;
+		for (List<Registration> forDir: registrations.values())
+			for (Registration registration: forDir)
+				if (registration.changedAt > 0)
+				{
+					long wait = Math.max(1, registration.changedAt + delay - now);
+					if (ret < 0 || wait < ret)
+						ret = wait;
+				}
+		return ret;
+	}
+
+	private synchronized Set<Registration> getDueRegistrations()
+	{
+		long now = System.currentTimeMillis();
+		Set<Registration> ret = new HashSet<>();
+		for (List<Registration> forDir: registrations.values())
+			for (Registration registration: forDir)
+				if (registration.changedAt > 0 && registration.changedAt + delay <= now)
+				{
+					registration.changedAt = 0;
+					ret.add(registration);
+				}
+		return ret;
+	}
+
+	private void invoke(Registration registration)
+	{
+		try
+		{
+			registration.action.run();
+		} catch (Exception e)
+		{
+			log.error("Reloading after a change of " + registration.targets.keySet() + " failed", e);
+		}
+	}
+
+	private static class OwnerReference<T> extends WeakReference<T>
+	{
+		private final Registration registration;
+
+		private OwnerReference(T owner, ReferenceQueue<Object> queue, Registration registration)
+		{
+			super(owner, queue);
+			this.registration = registration;
+		}
+	}
+
+	/**
+	 * Handle of a set of watched paths with a common action.
+	 */
+	public class Registration
+	{
+		/**
+		 * Watched directories, with names of the watched files or null if the whole directory is watched
+		 */
+		private final Map<Path, Set<Path>> targets = new HashMap<>();
+		private Runnable action;
+		private long changedAt;
+
+		private Registration(Runnable action)
+		{
+			this.action = action;
+		}
+
+		private boolean matches(Path dir, Path name)
+		{
+			Set<Path> names = targets.get(dir);
+			return names == null || name == null || names.contains(name);
+		}
+
+		/**
+		 * Stops watching. Pending changes are discarded.
+		 */
+		public void cancel()
+		{
+			unregister(this);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package eu.unicore.security.canl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Detects the type of a keystore file from its leading bytes, without loading it. This is much 
+ * cheaper than trial loading of the keystore, which for PKCS12 involves the password based key derivation.
+ */
+class KeystoreTypeDetector
+{
+	static final String JKS = "jks";
+	static final String JCEKS = "jceks";
+	static final String PKCS12 = "pkcs12";
+	static final String PEM = "pem";
+
+	private static final int JKS_MAGIC = 0xFEEDFEED;
+	private static final int JCEKS_MAGIC = 0xCECECECE;
+	private static final int HEADER_LENGTH = 4096;
+
+	private KeystoreTypeDetector()
+	{
+	}
+
+	/**
+	 * @return one of {@link #JKS}, {@link #JCEKS}, {@link #PKCS12} or {@link #PEM}, or null if the type 
+	 * was not recognized
+	 */
+	static String detect(File file) throws IOException
+	{
+		byte[] header = new byte[HEADER_LENGTH];
+		int length;
+		try (InputStream is = new FileInputStream(file))
+		{
+			length = is.readNBytes(header, 0, HEADER_LENGTH);
+		}
+		if (length >= 4)
+		{
+			int magic = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) | 
+					((header[2] & 0xff) << 8) | (header[3] & 0xff);
+			if (magic == JKS_MAGIC)
+				return JKS;
+			if (magic == JCEKS_MAGIC)
+				return JCEKS;
+		}
+		if (isPFX(header, length))
+			return PKCS12;
+		if (new String(header, 0, length, StandardCharsets.ISO_8859_1).contains("-----BEGIN "))
+			return PEM;
+		return null;
+	}
+
+	/**
+	 * PKCS#12 PFX is a DER SEQUENCE starting with the version INTEGER 3.
+	 */
+	private static boolean isPFX(byte[] header, int length)
+	{
+		if (length < 2 || header[0] != 0x30)
+			return false;
+		int pos = 2;
+		int lengthByte = header[1] & 0xff;
+		if (lengthByte > 0x80)
+			pos += lengthByte - 0x80;
+		return length >= pos + 3 && header[pos] == 0x02 && header[pos+1] == 0x01 && header[pos+2] == 0x03;
+	}
+}
@@ -0,0 +1,326 @@
+package eu.unicore.security.canl;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.logging.log4j.Logger;
+
+import eu.emi.security.authn.x509.OCSPCheckingMode;
+import eu.emi.security.authn.x509.OCSPParametes;
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.ValidationError;
+import eu.emi.security.authn.x509.ValidationErrorCode;
+import eu.emi.security.authn.x509.ValidationResult;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.helpers.ObserversHandler;
+import eu.emi.security.authn.x509.helpers.ocsp.OCSPRevocationChecker;
+import eu.emi.security.authn.x509.helpers.ocsp.OCSPVerifier;
+import eu.emi.security.authn.x509.helpers.pkipath.SimpleValidationErrorException;
+import eu.emi.security.authn.x509.helpers.revocation.RevocationStatus;
+import eu.emi.security.authn.x509.proxy.ProxyUtils;
+import eu.unicore.util.Log;
+
+/**
+ * Performs OCSP checking on behalf of the wrapped validator, keeping the OCSP status of
+ * recently validated certificates warm.
+ * <p>
+ * The wrapped validator must be configured with OCSP checking turned off. After a successful
+ * validation by the wrapped validator, the OCSP status of each (non-proxy) certificate of the chain
+ * is taken from a local cache, and only on a cache miss the responder is queried synchronously.
+ * Certificates seen recently are tracked and their OCSP status is refreshed on a bounded
+ * thread pool before the cached one expires, so that TLS handshakes are normally served
+ * without waiting for the responder. Certificates which were not used for two cache periods
+ * are forgotten.
+ * <p>
+ * Only definite responses (good or revoked) are cached. The 'unknown' status, which is also
+ * reported when the responder is not available and OCSP is not required, and errors are not cached,
+ * but the certificate is still tracked so the next refresh retries. Such a result does not replace
+ * a cached response nor extends its validity, so a revoked certificate stays rejected during
+ * a responder outage.
+ */
+public class OCSPPrefetchingValidator extends DelegatingCertChainValidator
+{
+	private static final Logger log = Log.getLogger(Log.SECURITY, OCSPPrefetchingValidator.class);
+
+	/**
+	 * Fraction of the cache period after which an entry is refreshed in background.
+	 */
+	private static final double REFRESH_AT = 0.75;
+
+	private final OCSPCheckingMode mode;
+	private final OCSPRevocationChecker checker;
+	private final OCSPRevocationChecker refreshingChecker;
+	private final long ttl;
+	private final int maxEntries;
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler;
+	private final ThreadPoolExecutor refreshPool;
+
+	/**
+	 * @param delegate validator performing all but OCSP checks
+	 * @param ocspParameters OCSP settings. The cache TTL of the parameters (in seconds) defines how
+	 * long the responses are used and must be positive.
+	 * @param listeners store update listeners, notified about OCSP problems
+	 * @param threads maximum number of concurrent background OCSP queries
+	 * @param maxEntries maximum number of certificates which are tracked
+	 */
+	public OCSPPrefetchingValidator(X509CertChainValidatorExt delegate, OCSPParametes ocspParameters,
+			Collection<? extends StoreUpdateListener> listeners, int threads, int maxEntries)
+	{
+		super(delegate);
+		if (ocspParameters.getCacheTtl() <= 0)
+			throw new IllegalArgumentException("OCSP cache TTL must be positive to enable prefetching");
+		this.mode = ocspParameters.getCheckingMode();
+		this.ttl = ocspParameters.getCacheTtl() * 1000L;
+		this.maxEntries = maxEntries;
+		ObserversHandler observers = new ObserversHandler(listeners);
+		this.checker = new OCSPRevocationChecker(new OCSPVerifier(ocspParameters, observers), mode);
+		OCSPParametes uncached = new OCSPParametes(mode, ocspParameters.getLocalResponders(),
+				ocspParameters.getConntectTimeout(), ocspParameters.isPreferLocalResponders(),
+				ocspParameters.isUseNonce(), 0, null);
+		this.refreshingChecker = new OCSPRevocationChecker(new OCSPVerifier(uncached, observers), mode);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> newThread(r, "ocsp-prefetch-scheduler"));
+		this.refreshPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(maxEntries), r -> newThread(r, "ocsp-prefetch"),
+				new ThreadPoolExecutor.DiscardPolicy());
+		this.refreshPool.allowCoreThreadTimeOut(true);
+		long sweepPeriod = Math.max(100, ttl/10);
+		scheduler.scheduleWithFixedDelay(this::sweep, sweepPeriod, sweepPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	private static Thread newThread(Runnable r, String name)
+	{
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+	@Override
+	public ValidationResult validate(X509Certificate[] certChain)
+	{
+		ValidationResult result = super.validate(certChain);
+		if (!result.isValid() || mode == OCSPCheckingMode.IGNORE)
+			return result;
+		List<ValidationError> errors = new ArrayList<>();
+		for (int i=0; i<certChain.length; i++)
+		{
+			X509Certificate cert = certChain[i];
+			if (ProxyUtils.isProxy(cert) || isSelfIssued(cert))
+				continue;
+			X509Certificate issuer = findIssuer(certChain, i, result.getValidChain());
+			if (issuer == null)
+				continue;
+			ValidationError error = check(certChain, i, issuer);
+			if (error != null)
+				errors.add(error);
+		}
+		return errors.isEmpty() ? result : addErrors(result, errors);
+	}
+
+	/**
+	 * @return number of currently tracked certificates
+	 */
+	public int getTrackedCount()
+	{
+		return entries.size();
+	}
+
+	@Override
+	protected void disposeValidator()
+	{
+		scheduler.shutdownNow();
+		refreshPool.shutdownNow();
+		entries.clear();
+		super.disposeValidator();
+	}
+
+	private ValidationError check(X509Certificate[] chain, int position, X509Certificate issuer)
+	{
+		X509Certificate cert = chain[position];
+		Key key = new Key(cert);
+		long now = System.currentTimeMillis();
+		Entry entry = entries.get(key);
+		if (entry == null)
+		{
+			entry = new Entry(cert, issuer);
+			if (entries.size() < maxEntries)
+			{
+				Entry existing = entries.putIfAbsent(key, entry);
+				if (existing != null)
+					entry = existing;
+			}
+		}
+		entry.lastUsed = now;
+		Outcome outcome = entry.outcome;
+		if (outcome == null || now >= entry.expiresAt)
+			outcome = entry.refresh(checker);
+		return outcome.toError(chain, position);
+	}
+
+	private void sweep()
+	{
+		long now = System.currentTimeMillis();
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext())
+		{
+			Entry entry = it.next();
+			if (now - entry.lastUsed > 2*ttl)
+			{
+				it.remove();
+				continue;
+			}
+			if (now >= entry.fetchedAt + (long)(ttl*REFRESH_AT) && entry.refreshing.compareAndSet(false, true))
+			{
+				try
+				{
+					refreshPool.execute(() -> {
+						try
+						{
+							entry.refresh(refreshingChecker);
+						} finally
+						{
+							entry.refreshing.set(false);
+						}
+					});
+				} catch (RejectedExecutionException e)
+				{
+					entry.refreshing.set(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks for the issuer in the chain, then in the chain established by the wrapped validator 
+	 * (which includes the trust anchor) and only as the last resort among all trusted issuers,
+	 * as with lazy truststores the latter requires loading all CAs.
+	 */
+	private X509Certificate findIssuer(X509Certificate[] chain, int position, List<X509Certificate> validChain)
+	{
+		X500Principal issuerName = chain[position].getIssuerX500Principal();
+		if (position + 1 < chain.length && chain[position+1].getSubjectX500Principal().equals(issuerName))
+			return chain[position+1];
+		if (validChain != null)
+			for (X509Certificate cert: validChain)
+				if (cert.getSubjectX500Principal().equals(issuerName))
+					return cert;
+		for (X509Certificate trusted: getTrustedIssuers())
+			if (trusted.getSubjectX500Principal().equals(issuerName))
+				return trusted;
+		return null;
+	}
+
+	private static boolean isSelfIssued(X509Certificate cert)
+	{
+		return cert.getSubjectX500Principal().equals(cert.getIssuerX500Principal());
+	}
+
+	private class Entry
+	{
+		private final X509Certificate cert;
+		private final X509Certificate issuer;
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+		private volatile Outcome outcome;
+		private volatile long fetchedAt;
+		private volatile long expiresAt;
+		private volatile long lastUsed;
+
+		private Entry(X509Certificate cert, X509Certificate issuer)
+		{
+			this.cert = cert;
+			this.issuer = issuer;
+			//the first status is fetched synchronously, it must not be refreshed in parallel
+			this.fetchedAt = System.currentTimeMillis();
+		}
+
+		private Outcome refresh(OCSPRevocationChecker usedChecker)
+		{
+			Outcome fresh;
+			boolean definite;
+			try
+			{
+				definite = usedChecker.checkRevocation(cert, issuer) == RevocationStatus.verified;
+				fresh = new Outcome(null, null);
+			} catch (SimpleValidationErrorException e)
+			{
+				definite = e.getCode() == ValidationErrorCode.ocspCertRevoked;
+				fresh = new Outcome(e.getCode(), e.getArguments());
+			}
+			long now = System.currentTimeMillis();
+			fetchedAt = now;
+			if (definite)
+			{
+				outcome = fresh;
+				expiresAt = now + ttl;
+				return fresh;
+			}
+			log.debug("OCSP status of {} is not available: {}", cert.getSubjectX500Principal(),
+					fresh.code == null ? RevocationStatus.unknown : fresh.code);
+			Outcome previous = outcome;
+			//revocation is permanent, so it is not overruled by an unavailable status
+			return previous != null && previous.code == ValidationErrorCode.ocspCertRevoked ? previous : fresh;
+		}
+	}
+
+	private static class Outcome
+	{
+		private final ValidationErrorCode code;
+		private final Object[] arguments;
+
+		private Outcome(ValidationErrorCode code, Object[] arguments)
+		{
+			this.code = code;
+			this.arguments = arguments;
+		}
+
+		private ValidationError toError(X509Certificate[] chain, int position)
+		{
+			if (code == null)
+				return null;
+			return new ValidationError(chain, position, code, arguments);
+		}
+	}
+
+	private static class Key
+	{
+		private final X500Principal issuer;
+		private final BigInteger serial;
+
+		private Key(X509Certificate cert)
+		{
+			this.issuer = cert.getIssuerX500Principal();
+			this.serial = cert.getSerialNumber();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(issuer, serial);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return issuer.equals(other.issuer) && serial.equals(other.serial);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package eu.unicore.security.canl;
+
+import java.io.IOException;
+
+/**
+ * Source of secrets (e.g. keystore passwords) referenced from the configuration. 
+ * A secret reference has the form <code>NAME:VALUE</code>, where NAME is the name of the provider 
+ * and VALUE is interpreted by the provider, e.g. <code>file:/run/secrets/keystore</code> or 
+ * <code>env:KEYSTORE_PASSWORD</code>.
+ * <p>
+ * Providers are registered in {@link SecretProviders}, either explicitly or with the 
+ * {@link java.util.ServiceLoader} mechanism. Implementations must be thread safe, as secrets 
+ * are fetched concurrently.
+ */
+public interface SecretProvider
+{
+	/**
+	 * @return name of the provider, used as the prefix of secret references
+	 */
+	String getName();
+
+	/**
+	 * @param value the part of the secret reference after the provider name
+	 * @return the secret, never null
+	 * @throws IOException if the secret can not be obtained
+	 */
+	char[] getSecret(String value) throws IOException;
+}
@@ -0,0 +1,350 @@
+package eu.unicore.security.canl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.logging.log4j.Logger;
+
+import eu.unicore.util.Log;
+import eu.unicore.util.configuration.ConfigurationException;
+
+/**
+ * Registry of {@link SecretProvider}s and a JVM wide cache of the resolved secrets. 
+ * <p>
+ * Secrets are fetched at most once: concurrent requests for the same reference wait for a single lookup, 
+ * and the result is cached until {@link #invalidate(String)} is called. Failed lookups are not cached. 
+ * Callers receive copies of the cached secrets, the cached values are overwritten in memory 
+ * when invalidated. Secrets can be prefetched in parallel with {@link #prefetch(Collection)}, 
+ * so that slow lookups do not serialize the loading of a configuration.
+ * <p>
+ * The following providers are available by default:
+ * <ul>
+ * <li><code>file:PATH</code> - contents of a file, with the trailing line break removed,
+ * <li><code>env:NAME</code> - value of an environment variable,
+ * <li><code>agent:SOCKET#NAME</code> - secret served by a local agent listening on a unix domain 
+ * socket. The NAME followed by a line break is sent, a single line with the secret is expected in answer.
+ * </ul>
+ * Resolving of a secret fails if its lookup does not complete within {@link #DEFAULT_TIMEOUT}.
+ */
+public class SecretProviders
+{
+	private static final Logger log = Log.getLogger(Log.SECURITY, SecretProviders.class);
+
+	/**
+	 * Default time (in ms) to wait for a secret.
+	 */
+	public static final long DEFAULT_TIMEOUT = 30000;
+
+	private static final Map<String, SecretProvider> providers = new ConcurrentHashMap<>();
+	private static final Map<String, CompletableFuture<char[]>> cache = new ConcurrentHashMap<>();
+	private static ExecutorService executor;
+
+	static
+	{
+		register(new FileSecretProvider());
+		register(new EnvironmentSecretProvider());
+		register(new AgentSecretProvider());
+		for (SecretProvider provider: ServiceLoader.load(SecretProvider.class))
+			register(provider);
+	}
+
+	private SecretProviders()
+	{
+	}
+
+	/**
+	 * Registers a provider, replacing a previously registered one with the same name.
+	 */
+	public static void register(SecretProvider provider)
+	{
+		providers.put(provider.getName(), provider);
+	}
+
+	/**
+	 * @return true if the argument has the syntax of a secret reference and its provider is registered
+	 */
+	public static boolean isSecretReference(String reference)
+	{
+		int colon = reference.indexOf(':');
+		return colon > 0 && providers.containsKey(reference.substring(0, colon));
+	}
+
+	/**
+	 * Starts fetching of the given secrets in background, concurrently. Secrets which are cached 
+	 * or being fetched are not fetched again.
+	 * @return future completed when all secrets are fetched. Lookup failures are not reported by 
+	 * the future, they are reported when the secret is resolved.
+	 */
+	public static CompletableFuture<Void> prefetch(Collection<String> references)
+	{
+		List<CompletableFuture<char[]>> fetched = new ArrayList<>();
+		for (String reference: references)
+			fetched.add(fetch(reference));
+		return CompletableFuture.allOf(fetched.toArray(new CompletableFuture<?>[0]))
+				.handle((r, e) -> null);
+	}
+
+	/**
+	 * Returns the secret, waiting for its lookup if it is not cached, at most {@link #DEFAULT_TIMEOUT} ms.
+	 * @return a copy of the secret, which can be cleared by the caller
+	 * @throws ConfigurationException if the reference is invalid or the secret can not be obtained
+	 */
+	public static char[] resolve(String reference) throws ConfigurationException
+	{
+		return resolve(reference, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Returns the secret, waiting for its lookup if it is not cached.
+	 * @param timeout maximum time in ms to wait for the lookup
+	 * @return a copy of the secret, which can be cleared by the caller
+	 * @throws ConfigurationException if the reference is invalid, the secret can not be obtained 
+	 * or it was not obtained in time
+	 */
+	public static char[] resolve(String reference, long timeout) throws ConfigurationException
+	{
+		CompletableFuture<char[]> fetched = fetch(reference);
+		try
+		{
+			return fetched.get(timeout, TimeUnit.MILLISECONDS).clone();
+		} catch (TimeoutException e)
+		{
+			//the lookup is not cancelled, but the next resolution starts a new one
+			cache.remove(reference, fetched);
+			throw new ConfigurationException("Can not obtain the secret " + reference + 
+					": lookup has not completed in " + timeout + "ms");
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new ConfigurationException("Interrupted while waiting for the secret " + reference);
+		} catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof ConfigurationException)
+				throw (ConfigurationException) cause;
+			throw new ConfigurationException("Can not obtain the secret " + reference + ": " + 
+					cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Removes the secret from cache, so that it is fetched again when needed.
+	 */
+	public static void invalidate(String reference)
+	{
+		CompletableFuture<char[]> removed = cache.remove(reference);
+		if (removed != null && removed.isDone() && !removed.isCompletedExceptionally())
+			Arrays.fill(removed.join(), '\0');
+	}
+
+	private static CompletableFuture<char[]> fetch(String reference)
+	{
+		CompletableFuture<char[]> ret = cache.computeIfAbsent(reference, 
+				r -> CompletableFuture.supplyAsync(() -> lookup(r), getExecutor()));
+		ret.whenComplete((secret, error) -> {
+			if (error != null)
+				cache.remove(reference, ret);
+		});
+		return ret;
+	}
+
+	private static char[] lookup(String reference)
+	{
+		int colon = reference.indexOf(':');
+		SecretProvider provider = colon > 0 ? providers.get(reference.substring(0, colon)) : null;
+		if (provider == null)
+			throw new ConfigurationException("Invalid secret reference, it must be in the form PROVIDER:VALUE, " 
+					+ "where PROVIDER is one of " + providers.keySet());
+		long start = System.currentTimeMillis();
+		try
+		{
+			char[] ret = provider.getSecret(reference.substring(colon+1));
+			log.debug("Secret {} was obtained in {}ms", reference, System.currentTimeMillis() - start);
+			return ret;
+		} catch (IOException e)
+		{
+			throw new CompletionException(e);
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor()
+	{
+		if (executor == null)
+			executor = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "secret-provider");
+				t.setDaemon(true);
+				return t;
+			});
+		return executor;
+	}
+
+	private static char[] decode(byte[] bytes)
+	{
+		int length = bytes.length;
+		if (length > 0 && bytes[length-1] == '\n')
+			length--;
+		if (length > 0 && bytes[length-1] == '\r')
+			length--;
+		CharBuffer chars = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes, 0, length));
+		char[] ret = new char[chars.remaining()];
+		chars.get(ret);
+		Arrays.fill(bytes, (byte)0);
+		Arrays.fill(chars.array(), '\0');
+		return ret;
+	}
+
+	/**
+	 * Reads secrets from files, e.g. from container secret mounts.
+	 */
+	public static class FileSecretProvider implements SecretProvider
+	{
+		@Override
+		public String getName()
+		{
+			return "file";
+		}
+
+		@Override
+		public char[] getSecret(String value) throws IOException
+		{
+			return decode(Files.readAllBytes(Path.of(value)));
+		}
+	}
+
+	/**
+	 * Reads secrets from environment variables.
+	 */
+	public static class EnvironmentSecretProvider implements SecretProvider
+	{
+		@Override
+		public String getName()
+		{
+			return "env";
+		}
+
+		@Override
+		public char[] getSecret(String value) throws IOException
+		{
+			String ret = System.getenv(value);
+			if (ret == null)
+				throw new IOException("Environment variable " + value + " is not set");
+			return ret.toCharArray();
+		}
+	}
+
+	/**
+	 * Obtains secrets from a local agent, listening on a unix domain socket. Connecting, sending
+	 * of the request and receiving of the answer must complete within the configured timeout.
+	 */
+	public static class AgentSecretProvider implements SecretProvider
+	{
+		private final long timeout;
+
+		public AgentSecretProvider()
+		{
+			this(DEFAULT_TIMEOUT);
+		}
+
+		/**
+		 * @param timeout maximum time in ms of a single lookup
+		 */
+		public AgentSecretProvider(long timeout)
+		{
+			this.timeout = timeout;
+		}
+
+		@Override
+		public String getName()
+		{
+			return "agent";
+		}
+
+		@Override
+		public char[] getSecret(String value) throws IOException
+		{
+			int hash = value.lastIndexOf('#');
+			if (hash <= 0)
+				throw new IOException("Agent secret reference must be in the form SOCKET#NAME");
+			UnixDomainSocketAddress address = UnixDomainSocketAddress.of(value.substring(0, hash));
+			long deadline = System.currentTimeMillis() + timeout;
+			try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+					Selector selector = Selector.open())
+			{
+				channel.configureBlocking(false);
+				SelectionKey key = channel.register(selector, 0);
+				if (!channel.connect(address))
+				{
+					await(key, SelectionKey.OP_CONNECT, deadline, address);
+					channel.finishConnect();
+				}
+				ByteBuffer request = StandardCharsets.UTF_8.encode(value.substring(hash+1) + "\n");
+				while (request.hasRemaining())
+				{
+					await(key, SelectionKey.OP_WRITE, deadline, address);
+					channel.write(request);
+				}
+				ByteArrayOutputStream answer = new ByteArrayOutputStream();
+				ByteBuffer buffer = ByteBuffer.allocate(256);
+				boolean complete = false;
+				while (!complete)
+				{
+					await(key, SelectionKey.OP_READ, deadline, address);
+					buffer.clear();
+					int read = channel.read(buffer);
+					complete = read < 0;
+					for (int i=0; i<read && !complete; i++)
+					{
+						byte b = buffer.get(i);
+						if (b == '\n')
+							complete = true;
+						else
+							answer.write(b);
+					}
+				}
+				Arrays.fill(buffer.array(), (byte)0);
+				if (answer.size() == 0)
+					throw new IOException("The agent at " + address + " has not returned the secret");
+				return decode(answer.toByteArray());
+			}
+		}
+
+		private void await(SelectionKey key, int operation, long deadline, UnixDomainSocketAddress address) 
+				throws IOException
+		{
+			key.interestOps(operation);
+			Selector selector = key.selector();
+			selector.selectedKeys().clear();
+			while (selector.selectedKeys().isEmpty())
+			{
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0)
+					throw new IOException("The agent at " + address + " has not answered in " + timeout + "ms");
+				selector.select(wait);
+			}
+		}
+	}
+}
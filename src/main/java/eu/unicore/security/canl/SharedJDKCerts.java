@@ -0,0 +1,95 @@
+package eu.unicore.security.canl;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.logging.log4j.Logger;
+
+import eu.unicore.util.Log;
+
+/**
+ * Cache of the CAs of the JDK default truststore, shared by all configurations in the JVM
+ * which use the java_default truststore. The JDK CAs are loaded once, and again only when
+ * one of the javax.net.ssl.trustStore* system properties is changed or after {@link #invalidate()}.
+ * <p>
+ * Only the (immutable) certificates are shared: each call of {@link #getKeyStore()} returns a new
+ * keystore, so each configuration can use its own validator, with its own listeners.
+ */
+public class SharedJDKCerts
+{
+	private static final Logger log = Log.getLogger(Log.SECURITY, SharedJDKCerts.class);
+	private static final String[] SYSTEM_PROPERTIES = {"javax.net.ssl.trustStore",
+			"javax.net.ssl.trustStoreType", "javax.net.ssl.trustStoreProvider"};
+
+	private static X509Certificate[] certificates;
+	private static List<String> certificatesKey;
+
+	private SharedJDKCerts()
+	{
+	}
+
+	/**
+	 * @return a new in-memory keystore with the JDK default CAs as trusted entries. The CAs are
+	 * loaded if this is the first call, after the JDK truststore system properties were changed
+	 * or after invalidation.
+	 */
+	public static KeyStore getKeyStore() throws GeneralSecurityException, IOException
+	{
+		X509Certificate[] cas = getCertificates();
+		KeyStore ks = KeyStore.getInstance("jks");
+		ks.load(null);
+		for (int i = 0; i < cas.length; i++)
+			ks.setEntry(String.valueOf(i + 1), new KeyStore.TrustedCertificateEntry(cas[i]), null);
+		return ks;
+	}
+
+	/**
+	 * Drops the cached CAs, so that they are loaded again on the next use. Keystores
+	 * which were already returned are not modified.
+	 */
+	public static synchronized void invalidate()
+	{
+		certificates = null;
+		certificatesKey = null;
+	}
+
+	private static synchronized X509Certificate[] getCertificates() throws GeneralSecurityException
+	{
+		List<String> key = getKey();
+		if (certificates == null || !key.equals(certificatesKey))
+		{
+			long start = System.currentTimeMillis();
+			certificates = loadJDKCerts();
+			certificatesKey = key;
+			log.debug("Loaded {} JDK default trusted CAs in {}ms", certificates.length,
+					System.currentTimeMillis() - start);
+		}
+		return certificates;
+	}
+
+	private static List<String> getKey()
+	{
+		return Arrays.stream(SYSTEM_PROPERTIES).map(System::getProperty).toList();
+	}
+
+	private static X509Certificate[] loadJDKCerts() throws GeneralSecurityException
+	{
+		List<X509Certificate> ret = new ArrayList<>();
+		TrustManagerFactory tmf = TrustManagerFactory.getInstance("PKIX");
+		tmf.init((KeyStore)null);
+		for(TrustManager tm: tmf.getTrustManagers()) {
+			X509TrustManager xtm = (X509TrustManager)tm;
+			ret.addAll(Arrays.asList(xtm.getAcceptedIssuers()));
+		}
+		return ret.toArray(new X509Certificate[0]);
+	}
+}
@@ -0,0 +1,188 @@
+package eu.unicore.security.canl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary snapshot of trusted certificates, together with fingerprints (size and modification
+ * time) of the files they were loaded from. The snapshot is memory mapped when loaded and the
+ * certificates are decoded from DER, what is much cheaper than loading the original truststore.
+ * <p>
+ * The snapshot file is trusted, so it must be protected in the same way as the truststore files.
+ */
+class TrustSnapshot
+{
+	private static final long MAGIC = 0x554E4943414E4348L;
+	private static final int VERSION = 1;
+
+	private final List<String> fingerprints;
+	private final ByteBuffer certificates;
+	private final int count;
+
+	private TrustSnapshot(List<String> fingerprints, ByteBuffer certificates, int count)
+	{
+		this.fingerprints = fingerprints;
+		this.certificates = certificates;
+		this.count = count;
+	}
+
+	/**
+	 * @param key identifies the truststore configuration
+	 * @return the snapshot or null if it does not exist or was created for a different configuration
+	 */
+	static TrustSnapshot load(File file, String key) throws IOException
+	{
+		if (!file.exists())
+			return null;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getLong() != MAGIC || buffer.getInt() != VERSION)
+				throw new IOException("File " + file + " is not a valid truststore snapshot");
+			if (!key.equals(readString(buffer)))
+				return null;
+			int sources = buffer.getInt();
+			if (sources < 0)
+				throw new BufferUnderflowException();
+			List<String> fingerprints = new ArrayList<>(sources);
+			for (int i=0; i<sources; i++)
+				fingerprints.add(readString(buffer));
+			int count = buffer.getInt();
+			return new TrustSnapshot(fingerprints, buffer.slice(), count);
+		} catch (BufferUnderflowException e)
+		{
+			throw new IOException("Truststore snapshot " + file + " is truncated");
+		}
+	}
+
+	/**
+	 * @return true if the source files were not modified since the snapshot was created
+	 */
+	boolean isUpToDate(List<File> sources)
+	{
+		return fingerprints.equals(getFingerprints(sources));
+	}
+
+	X509Certificate[] getCertificates() throws CertificateException, IOException
+	{
+		CertificateFactory factory = CertificateFactory.getInstance("X.509");
+		ByteBuffer buffer = certificates.duplicate();
+		X509Certificate[] ret = new X509Certificate[count];
+		try
+		{
+			for (int i=0; i<count; i++)
+			{
+				byte[] der = readBytes(buffer);
+				ret[i] = (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(der));
+			}
+		} catch (BufferUnderflowException e)
+		{
+			throw new IOException("Truststore snapshot is truncated");
+		}
+		return ret;
+	}
+
+	/**
+	 * Atomically replaces the snapshot file.
+	 * @param fingerprints fingerprints of the source files, obtained before they were loaded
+	 */
+	static void save(File file, String key, List<String> fingerprints, X509Certificate[] certs)
+			throws IOException, CertificateEncodingException
+	{
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile("truststore", ".tmp", dir);
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp), 65536)))
+			{
+				out.writeLong(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, key);
+				out.writeInt(fingerprints.size());
+				for (String fingerprint: fingerprints)
+					writeString(out, fingerprint);
+				out.writeInt(certs.length);
+				for (X509Certificate cert: certs)
+				{
+					byte[] der = cert.getEncoded();
+					out.writeInt(der.length);
+					out.write(der);
+				}
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally
+		{
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	/**
+	 * @return size and modification time of the given files and of the entries of the given directories
+	 */
+	static List<String> getFingerprints(List<File> sources)
+	{
+		List<String> ret = new ArrayList<>();
+		for (File source: sources)
+		{
+			File[] entries = source.listFiles();
+			if (entries == null)
+			{
+				ret.add(getFingerprint(source));
+			} else
+			{
+				Arrays.sort(entries);
+				for (File entry: entries)
+					ret.add(getFingerprint(entry));
+			}
+		}
+		return ret;
+	}
+
+	private static String getFingerprint(File file)
+	{
+		return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer)
+	{
+		return new String(readBytes(buffer), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer)
+	{
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining())
+			throw new BufferUnderflowException();
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
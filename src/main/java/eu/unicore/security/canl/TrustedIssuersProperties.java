@@ -1,20 +1,26 @@
 package eu.unicore.security.canl;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
-import javax.net.ssl.X509TrustManager;
+import java.util.function.Consumer;
 
 import org.apache.logging.log4j.Logger;
 
@@ -27,6 +33,8 @@ import eu.emi.security.authn.x509.RevocationParameters;
 import eu.emi.security.authn.x509.StoreUpdateListener;
 import eu.emi.security.authn.x509.X509CertChainValidator;
 import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.helpers.KeyStoreHelper;
+import eu.emi.security.authn.x509.helpers.pkipath.PlainCRLValidator;
 import eu.emi.security.authn.x509.impl.CRLParameters;
 import eu.emi.security.authn.x509.impl.CertificateUtils.Encoding;
 import eu.emi.security.authn.x509.impl.DirectoryCertChainValidator;
@@ -73,19 +81,23 @@ public class TrustedIssuersProperties extends PropertiesHelper
 	public static final String PROP_TYPE = "type";
 
 	public static final String PROP_UPDATE = "updateInterval";
+	public static final String PROP_RELOAD_ON_CHANGE = "reloadOnChange";
 
 	//the rest is store dependent
 	public static final String PROP_KS_PATH = "keystorePath";
 	public static final String PROP_KS_PASSWORD = "keystorePassword";
+	public static final String PROP_KS_PASSWORD_SECRET = "keystorePasswordSecret";
 	public static final String PROP_KS_TYPE = "keystoreFormat";
 
 	public static final String PROP_OPENSSL_DIR = "opensslPath";
 	public static final String PROP_OPENSSL_NEW_STORE_FORMAT = "opensslNewStoreFormat";
+	public static final String PROP_OPENSSL_LAZY_MODE = "opensslLazyMode";
 
 	public static final String PROP_DIRECTORY_LOCATIONS = "directoryLocations.";
 	public static final String PROP_DIRECTORY_ENCODING = "directoryEncoding";
 	public static final String PROP_DIRECTORY_CONNECTION_TIMEOUT = "directoryConnectionTimeout";
 	public static final String PROP_DIRECTORY_CACHE_PATH = "directoryDiskCachePath";
+	public static final String PROP_SNAPSHOT_PATH = "snapshotPath";
 
 	private final static String[] UPDATEABLE_PROPS = {PROP_UPDATE, PROP_DIRECTORY_LOCATIONS};
 
@@ -93,7 +105,9 @@ public class TrustedIssuersProperties extends PropertiesHelper
 	protected OpensslCertChainValidator opensslValidator = null;
 	protected DirectoryCertChainValidator directoryValidator = null;
 	protected KeystoreCertChainValidator ksValidator = null;
+	protected InMemoryKeystoreCertChainValidator reloadableKsValidator = null;
 	protected InMemoryKeystoreCertChainValidator builtinCertsValidator = null;
+	protected InMemoryKeystoreCertChainValidator snapshotValidator = null;
 
 	public final static Map<String, PropertyMD> META = new HashMap<>();
 	static 
@@ -106,9 +120,17 @@ public class TrustedIssuersProperties extends PropertiesHelper
 				setMandatory().setDescription("The truststore type."));
 		META.put(PROP_UPDATE, new PropertyMD("600").setLong().setUpdateable().
 				setDescription("How often the truststore should be reloaded, in seconds. Set to negative value to disable refreshing at runtime."));
+		META.put(PROP_RELOAD_ON_CHANGE, new PropertyMD("false").
+				setDescription("If true, local truststore files are monitored and the truststore is reloaded "
+						+ "shortly after they are modified. Periodic reloading is then turned off, unless "
+						+ "the truststore uses remote locations. Supported for the 'keystore' and 'directory' "
+						+ "truststores, together with their CRLs."));
 
 		META.put(PROP_KS_PASSWORD, new PropertyMD().setSecret().setCategory(ksCat).
 				setDescription("The password of the keystore type truststore."));
+		META.put(PROP_KS_PASSWORD_SECRET, new PropertyMD().setCategory(ksCat).
+				setDescription("Reference of the keystore password in a secret provider, used if the password " +
+						"is not set directly. Built in providers are 'file:PATH', 'env:VARIABLE' and 'agent:SOCKET#NAME'."));
 		META.put(PROP_KS_TYPE, new PropertyMD().setCategory(ksCat).
 				setDescription("The keystore type (jks, pkcs12) in case of truststore of keystore type."));
 		META.put(PROP_KS_PATH, new PropertyMD().setCategory(ksCat).
@@ -118,6 +140,12 @@ public class TrustedIssuersProperties extends PropertiesHelper
 				setDescription("Directory to be used for openssl truststore."));
 		META.put(PROP_OPENSSL_NEW_STORE_FORMAT, new PropertyMD("false").setCategory(opensslCat).
 				setDescription("In case of openssl truststore, specifies whether the trust store is in openssl 1.0.0+ format (true) or older openssl 0.x format (false)"));
+		META.put(PROP_OPENSSL_LAZY_MODE, new PropertyMD("false").setCategory(opensslCat).
+				setDescription("In case of openssl truststore, controls whether CA certificates (and the related CRLs "
+						+ "and namespace definitions) are loaded only when needed to validate a certificate, "
+						+ "using the subject hash based file names. Loaded items are cached and re-read after "
+						+ "the truststore update interval. Recommended for large truststores, "
+						+ "where most of the CAs are not used."));
 
 		META.put(PROP_DIRECTORY_LOCATIONS, new PropertyMD().setList(false).setUpdateable().setCategory(dirCat).
 				setDescription("List of CA certificates locations. Can contain URLs, local files and wildcard expressions."));
@@ -129,21 +157,36 @@ public class TrustedIssuersProperties extends PropertiesHelper
 				setDescription("Connection timeout for fetching the remote CA certificates in seconds."));
 		META.put(PROP_DIRECTORY_CACHE_PATH, new PropertyMD().setPath().setCategory(dirCat).
 				setDescription("Directory where CA certificates should be cached, after downloading them from a remote source. Can be left undefined if no disk cache should be used. Note that directory should be secured, i.e. normal users should not be allowed to write to it."));
+		META.put(PROP_SNAPSHOT_PATH, new PropertyMD().setPath().setCategory(dirCat).
+				setDescription("File with a binary snapshot of the loaded CA certificates, used to speed up startup. "
+						+ "If sizes and modification times of the truststore files did not change, certificates "
+						+ "are loaded from the snapshot, otherwise the snapshot is recreated. Only local locations "
+						+ "are supported. The truststore is not reloaded periodically when the snapshot is used, "
+						+ "use '" + PROP_RELOAD_ON_CHANGE + "' instead. The file must be secured in the same way "
+						+ "as the truststore."));
 	}
 
 	protected TruststoreType type;
 
 	protected long storeUpdateInterval;
+	protected boolean reloadOnChange;
+	protected List<File> truststoreFiles;
+	private FileChangeWatcher.Registration truststoreWatch;
 	protected String opensslDir;
 	protected boolean opensslNewStoreFormat;
+	protected boolean opensslLazyMode;
 	protected Encoding directoryEncoding;
 	protected List<String> directoryLocations;
 	protected int caConnectionTimeout;
 	protected String caDiskCache;
+	protected File snapshotFile;
 
 	protected String ksPath;
 	protected String ksType;
+	private char[] ksPassword;
 	protected PasswordCallback passwordCallback;
+	private boolean sharedValidator;
+	private TrustedIssuersProperties validatorKeeper;
 
 	/**
 	 * Simple constructor: logging is turned on and standard properties prefix is used.
@@ -224,6 +267,83 @@ public class TrustedIssuersProperties extends PropertiesHelper
 		addPropertyChangeListener(new PropertyChangeListenerImpl());
 	}
 
+	/**
+	 * Creates a copy which shares the validator of the source. The copy creates its own validator 
+	 * (copy-on-write) only when one of its updateable properties is changed. Until then
+	 * updates of the shared validator, e.g. after its files were changed, are visible in the copy.
+	 * @param source
+	 */
+	protected TrustedIssuersProperties(TrustedIssuersProperties source)
+	{
+		super(source);
+		initialListeners = source.initialListeners;
+		passwordCallback = source.passwordCallback;
+		opensslValidator = source.opensslValidator;
+		directoryValidator = source.directoryValidator;
+		ksValidator = source.ksValidator;
+		reloadableKsValidator = source.reloadableKsValidator;
+		builtinCertsValidator = source.builtinCertsValidator;
+		snapshotValidator = source.snapshotValidator;
+		snapshotFile = source.snapshotFile;
+		type = source.type;
+		storeUpdateInterval = source.storeUpdateInterval;
+		reloadOnChange = source.reloadOnChange;
+		truststoreFiles = source.truststoreFiles;
+		opensslDir = source.opensslDir;
+		opensslNewStoreFormat = source.opensslNewStoreFormat;
+		opensslLazyMode = source.opensslLazyMode;
+		directoryEncoding = source.directoryEncoding;
+		directoryLocations = source.directoryLocations;
+		caConnectionTimeout = source.caConnectionTimeout;
+		caDiskCache = source.caDiskCache;
+		ksPath = source.ksPath;
+		ksType = source.ksType;
+		ksPassword = source.ksPassword;
+		sharedValidator = true;
+	}
+
+	/**
+	 * @return a copy sharing the validator, without property change listeners
+	 */
+	protected TrustedIssuersProperties copy()
+	{
+		return new TrustedIssuersProperties(this);
+	}
+
+	/**
+	 * Called when this object's validator starts to be shared with a clone. Afterwards the first of 
+	 * the objects sharing the validator, whose properties are changed, creates its own validator. 
+	 * The shared validator is reloaded on file changes by a private copy, which is kept 
+	 * as long as any object uses the shared validator.
+	 */
+	private synchronized void shareValidator()
+	{
+		if (sharedValidator)
+			return;
+		sharedValidator = true;
+		if (getWatchedFiles().isEmpty())
+			return;
+		stopWatching();
+		validatorKeeper = copy();
+		validatorKeeper.startWatching();
+	}
+
+	/**
+	 * Starts monitoring of the truststore files, if enabled.
+	 */
+	protected void startWatching()
+	{
+		if (truststoreFiles != null)
+			truststoreWatch = watchFiles(truststoreFiles, TrustedIssuersProperties::reloadTruststore);
+	}
+
+	protected void stopWatching()
+	{
+		if (truststoreWatch != null)
+			truststoreWatch.cancel();
+		truststoreWatch = null;
+	}
+
 	/**
 	 * @return a configured validator. 
 	 */
@@ -231,13 +351,13 @@ public class TrustedIssuersProperties extends PropertiesHelper
 	{
 		if (type.equals(TruststoreType.keystore))
 		{
-			return ksValidator;
+			return ksValidator != null ? ksValidator : reloadableKsValidator;
 		} else if (type.equals(TruststoreType.openssl))
 		{
 			return opensslValidator;
 		} else if (type.equals(TruststoreType.directory))
 		{
-			return directoryValidator;
+			return directoryValidator != null ? directoryValidator : snapshotValidator;
 		}
 		else if (type.equals(TruststoreType.java_default)) {
 			return builtinCertsValidator;
@@ -255,7 +375,12 @@ public class TrustedIssuersProperties extends PropertiesHelper
 		if (property.equals(PROP_UPDATE))
 		{
 			long newUpdateInterval = getLongValue(PROP_UPDATE);
-			if (newUpdateInterval != storeUpdateInterval)
+			if (newUpdateInterval != storeUpdateInterval && truststoreFiles != null)
+			{
+				storeUpdateInterval = newUpdateInterval;
+				log.info("Truststore files are monitored for changes, the updated " + prefix+PROP_UPDATE + 
+						" value is not used");
+			} else if (newUpdateInterval != storeUpdateInterval)
 			{
 				if (opensslValidator != null)
 					opensslValidator.setUpdateInterval(newUpdateInterval*1000);
@@ -271,7 +396,7 @@ public class TrustedIssuersProperties extends PropertiesHelper
 		if (opensslValidator != null)
 			return;
 
-		if (ksValidator != null)
+		if (ksValidator != null || reloadableKsValidator != null)
 			return;
 
 		if (property.startsWith(PROP_DIRECTORY_LOCATIONS))
@@ -279,8 +404,13 @@ public class TrustedIssuersProperties extends PropertiesHelper
 			List<String> newDirectoryLocations = getListOfValues(PROP_DIRECTORY_LOCATIONS);
 			if (!newDirectoryLocations.equals(directoryLocations))
 			{
-				directoryValidator.setTruststorePaths(newDirectoryLocations);
 				directoryLocations = newDirectoryLocations;
+				if (snapshotValidator != null)
+					reloadSnapshot();
+				else
+					directoryValidator.setTruststorePaths(newDirectoryLocations);
+				if (reloadOnChange)
+					updateTruststoreWatch();
 				log.info("Updated " + prefix+PROP_DIRECTORY_LOCATIONS);
 			}
 		}
@@ -314,49 +444,352 @@ public class TrustedIssuersProperties extends PropertiesHelper
 	{
 		type = getEnumValue(PROP_TYPE, TruststoreType.class);
 		storeUpdateInterval = getLongValue(PROP_UPDATE);
+		reloadOnChange = getBooleanValue(PROP_RELOAD_ON_CHANGE);
+		truststoreFiles = reloadOnChange ? getTruststoreFiles() : null;
+		if (reloadOnChange && truststoreFiles == null)
+			log.info("Truststore of type " + type + " can not be monitored for changes, " + 
+					"it will be reloaded periodically");
 
 		if (type.equals(TruststoreType.keystore))
 		{
-			ksValidator = getKeystoreValidator();
+			if (truststoreFiles != null)
+				reloadableKsValidator = getReloadableKeystoreValidator();
+			else
+				ksValidator = getKeystoreValidator();
 		} else if (type.equals(TruststoreType.openssl))
 		{
 			opensslValidator = getOpensslValidator();
 		} else if (type.equals(TruststoreType.directory))
 		{
-			directoryValidator = getDirectoryValidator();
+			String snapshotPath = getValue(PROP_SNAPSHOT_PATH);
+			snapshotFile = snapshotPath == null ? null : new File(snapshotPath);
+			if (snapshotFile != null && getLocalFiles(getListOfValues(PROP_DIRECTORY_LOCATIONS)) == null)
+			{
+				log.warn("Truststore snapshot is not used as the truststore has remote locations");
+				snapshotFile = null;
+			}
+			if (snapshotFile != null)
+				snapshotValidator = getSnapshotValidator();
+			else
+				directoryValidator = getDirectoryValidator();
 		}
 		else if(type.equals(TruststoreType.java_default))
 		{
 			builtinCertsValidator = getJDKCertsValidator();
 		}
+		startWatching();
 	}
 
-	protected DirectoryCertChainValidator getDirectoryValidator() 
-			throws ConfigurationException, KeyStoreException, IOException
+	/**
+	 * @return the truststore update interval in ms, which should be used by the validator. 
+	 * Periodic updates are turned off if the truststore files are monitored for changes.
+	 */
+	protected long getEffectiveUpdateInterval()
+	{
+		return truststoreFiles != null ? -1 : storeUpdateInterval*1000;
+	}
+
+	/**
+	 * @return local files and directories of the configured truststore or null if the truststore 
+	 * can not be monitored for changes.
+	 */
+	protected List<File> getTruststoreFiles()
+	{
+		switch (type)
+		{
+		case keystore:
+			String path = getValue(PROP_KS_PATH);
+			return path == null ? null : Collections.singletonList(new File(path));
+		case directory:
+			return getLocalFiles(getListOfValues(PROP_DIRECTORY_LOCATIONS));
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return files and directories (for wildcard locations) to be watched, or null if some 
+	 * of the locations is remote or can not be watched.
+	 */
+	protected static List<File> getLocalFiles(List<String> locations)
+	{
+		List<File> ret = new ArrayList<>();
+		for (String location: locations)
+		{
+			String path = location;
+			try
+			{
+				URL url = new URL(location);
+				if (!"file".equals(url.getProtocol()))
+					return null;
+				path = url.getPath();
+			} catch (MalformedURLException e)
+			{
+				//local path
+			}
+			File file = new File(path).getAbsoluteFile();
+			if (isWildcard(file.getName()))
+			{
+				File dir = file.getParentFile();
+				if (isWildcard(dir.getPath()))
+					return null;
+				ret.add(dir);
+			} else if (isWildcard(path))
+				return null;
+			else
+				ret.add(file);
+		}
+		return ret;
+	}
+
+	private static boolean isWildcard(String path)
+	{
+		return path.indexOf('*') >= 0 || path.indexOf('?') >= 0 || 
+				path.indexOf('[') >= 0 || path.indexOf('{') >= 0;
+	}
+
+	protected <T extends TrustedIssuersProperties> FileChangeWatcher.Registration watchFiles(List<File> files, 
+			Consumer<T> action)
+	{
+		if (files.isEmpty())
+			return null;
+		try
+		{
+			@SuppressWarnings("unchecked")
+			T owner = (T) this;
+			return FileChangeWatcher.getShared().watch(files, owner, action);
+		} catch (IOException e)
+		{
+			throw new ConfigurationException("Can not monitor truststore files " + files + 
+					" for changes: " + e.getMessage(), e);
+		}
+	}
+
+	private void updateTruststoreWatch()
+	{
+		stopWatching();
+		List<File> newFiles = getLocalFiles(directoryLocations);
+		if (directoryValidator != null && newFiles == null && truststoreFiles != null)
+			directoryValidator.setTruststoreUpdateInterval(storeUpdateInterval*1000);
+		else if (directoryValidator != null && newFiles != null && truststoreFiles == null)
+			directoryValidator.setTruststoreUpdateInterval(-1);
+		truststoreFiles = newFiles;
+		startWatching();
+	}
+
+	/**
+	 * @return local files and directories which are monitored for changes. Empty if 
+	 * {@value #PROP_RELOAD_ON_CHANGE} is not enabled.
+	 */
+	public List<File> getWatchedFiles()
+	{
+		return truststoreFiles == null ? Collections.emptyList() : 
+			Collections.unmodifiableList(truststoreFiles);
+	}
+
+	/**
+	 * Reloads the trusted certificates of the directory and keystore truststores. A keystore 
+	 * is reloaded only if it is monitored for changes, otherwise the change is picked 
+	 * by the next periodic update. 
+	 */
+	public void reloadTruststore()
+	{
+		log.info("Reloading truststore of type " + type);
+		if (snapshotValidator != null)
+			reloadSnapshot();
+		else if (directoryValidator != null)
+			directoryValidator.setTruststorePaths(directoryLocations);
+		else if (reloadableKsValidator != null)
+			reloadKeystore();
+	}
+
+	/**
+	 * The canl keystore validator can not be reloaded on demand, so a monitored keystore is 
+	 * loaded by this class and its validator gets a fresh copy after each change.
+	 */
+	private void reloadKeystore()
+	{
+		try
+		{
+			reloadableKsValidator.setTruststore(loadKeystore());
+		} catch (IOException | GeneralSecurityException e)
+		{
+			log.error("Can not reload the truststore " + ksPath + 
+					", the previous trusted certificates are used", e);
+		}
+	}
+
+	private void setDirectorySettings()
 	{
 		directoryLocations = getListOfValues(PROP_DIRECTORY_LOCATIONS);
 		directoryEncoding = getEnumValue(PROP_DIRECTORY_ENCODING, Encoding.class);
 		caConnectionTimeout = getIntValue(PROP_DIRECTORY_CONNECTION_TIMEOUT);
 		caDiskCache = getFileValueAsString(PROP_DIRECTORY_CACHE_PATH, true);
+	}
+
+	protected DirectoryCertChainValidator getDirectoryValidator() 
+			throws ConfigurationException, KeyStoreException, IOException
+	{
+		setDirectorySettings();
 		ValidatorParamsExt params = getValidatorParamsExt();
 		return new DirectoryCertChainValidator(directoryLocations, directoryEncoding, 
-			storeUpdateInterval*1000, caConnectionTimeout*1000, caDiskCache, params);
+			getEffectiveUpdateInterval(), caConnectionTimeout*1000, caDiskCache, params);
+	}
+
+	/**
+	 * @return validator of the directory truststore, with certificates loaded from the snapshot if it is 
+	 * up to date. Otherwise the truststore is loaded and the snapshot is recreated.
+	 */
+	protected InMemoryKeystoreCertChainValidator getSnapshotValidator() 
+			throws ConfigurationException, GeneralSecurityException, IOException
+	{
+		setDirectorySettings();
+		X509Certificate[] certs = null;
+		try
+		{
+			TrustSnapshot snapshot = TrustSnapshot.load(snapshotFile, getSnapshotKey());
+			if (snapshot != null && snapshot.isUpToDate(getLocalFiles(directoryLocations)))
+			{
+				certs = snapshot.getCertificates();
+				log.debug("Loaded " + certs.length + " trusted certificates from the snapshot " + snapshotFile);
+			}
+		} catch (IOException | CertificateException e)
+		{
+			log.warn("Can not use the truststore snapshot " + snapshotFile + 
+					", it will be recreated: " + e.toString());
+		}
+		if (certs == null)
+			certs = createSnapshot();
+		return new InMemoryKeystoreCertChainValidator(createKeyStore(certs), getValidatorParamsExt());
+	}
+
+	/**
+	 * Loads the certificates from the directory truststore locations and stores them in the snapshot.
+	 */
+	private X509Certificate[] createSnapshot() throws KeyStoreException, IOException
+	{
+		List<File> sources = getLocalFiles(directoryLocations);
+		List<String> fingerprints = sources == null ? null : TrustSnapshot.getFingerprints(sources);
+		RevocationParametersExt revParams = new RevocationParametersExt(CrlCheckingMode.IGNORE, 
+				new CRLParameters(), new OCSPParametes(OCSPCheckingMode.IGNORE));
+		DirectoryCertChainValidator loader = new DirectoryCertChainValidator(directoryLocations, 
+				directoryEncoding, -1, caConnectionTimeout*1000, caDiskCache, 
+				new ValidatorParamsExt(revParams, ProxySupport.DENY, initialListeners));
+		X509Certificate[] certs;
+		try
+		{
+			certs = loader.getTrustedIssuers();
+		} finally
+		{
+			loader.dispose();
+		}
+		if (fingerprints == null)
+			return certs;
+		try
+		{
+			TrustSnapshot.save(snapshotFile, getSnapshotKey(), fingerprints, certs);
+			log.info("Truststore snapshot " + snapshotFile + " was created with " + certs.length + 
+					" trusted certificates");
+		} catch (IOException | CertificateEncodingException e)
+		{
+			log.warn("Can not save the truststore snapshot " + snapshotFile + ": " + e.toString());
+		}
+		return certs;
+	}
+
+	private void reloadSnapshot()
+	{
+		try
+		{
+			snapshotValidator.setTruststore(createKeyStore(createSnapshot()));
+		} catch (IOException | GeneralSecurityException e)
+		{
+			log.error("Can not reload the truststore, the previous trusted certificates are used", e);
+		}
+	}
+
+	private String getSnapshotKey()
+	{
+		return directoryEncoding + "\n" + String.join("\n", directoryLocations);
+	}
+
+	private static KeyStore createKeyStore(X509Certificate[] certs) 
+			throws KeyStoreException, IOException
+	{
+		KeyStore ks = KeyStore.getInstance("jks");
+		try
+		{
+			ks.load(null);
+		} catch (GeneralSecurityException e)
+		{
+			throw new KeyStoreException("Can not initialize an empty keystore", e);
+		}
+		for (int i=0; i<certs.length; i++)
+			ks.setEntry(String.valueOf(i), new KeyStore.TrustedCertificateEntry(certs[i]), null);
+		return ks;
+	}
+
+	/**
+	 * @return the validator providing CRL support or null if the truststore type doesn't support CRLs
+	 */
+	protected PlainCRLValidator getCRLValidator()
+	{
+		if (directoryValidator != null)
+			return directoryValidator;
+		if (snapshotValidator != null)
+			return snapshotValidator;
+		return ksValidator != null ? ksValidator : reloadableKsValidator;
 	}
 
 	protected OpensslCertChainValidator getOpensslValidator() throws ConfigurationException
 	{
 		opensslDir = getFileValueAsString(PROP_OPENSSL_DIR, true);
 		opensslNewStoreFormat = getBooleanValue(PROP_OPENSSL_NEW_STORE_FORMAT);
+		opensslLazyMode = getBooleanValue(PROP_OPENSSL_LAZY_MODE);
 		RevocationParameters revocationSettings = new RevocationParameters(CrlCheckingMode.IGNORE, 
 				getOCSPParameters());
 		ValidatorParams params = new ValidatorParams(revocationSettings, 
 			ProxySupport.DENY, initialListeners);
 		return new OpensslCertChainValidator(opensslDir, opensslNewStoreFormat, 
-				NamespaceCheckingMode.IGNORE, storeUpdateInterval*1000,	params);
+				NamespaceCheckingMode.IGNORE, getEffectiveUpdateInterval(), params, opensslLazyMode);
 	}
 
 	protected KeystoreCertChainValidator getKeystoreValidator() 
 			throws ConfigurationException, KeyStoreException, IOException
+	{
+		char[] ksPassword = setKeystoreSettings();
+		ValidatorParamsExt params = getValidatorParamsExt();
+		return new KeystoreCertChainValidator(ksPath, ksPassword, 
+			ksType, getEffectiveUpdateInterval(), params);
+	}
+
+	/**
+	 * @return validator of a keystore monitored for changes. The keystore is loaded by this class, 
+	 * so that it can be reloaded after a change.
+	 */
+	protected InMemoryKeystoreCertChainValidator getReloadableKeystoreValidator() 
+			throws ConfigurationException, GeneralSecurityException, IOException
+	{
+		ksPassword = setKeystoreSettings();
+		ValidatorParamsExt params = getValidatorParamsExt();
+		return new InMemoryKeystoreCertChainValidator(loadKeystore(), params);
+	}
+
+	private KeyStore loadKeystore() throws GeneralSecurityException, IOException
+	{
+		KeyStore ks = KeyStoreHelper.getInstanceForTrust(ksType);
+		try (InputStream is = new BufferedInputStream(new FileInputStream(ksPath)))
+		{
+			ks.load(is, ksPassword);
+		}
+		return ks;
+	}
+
+	/**
+	 * Sets the keystore path and type.
+	 * @return the keystore password
+	 */
+	private char[] setKeystoreSettings() throws ConfigurationException
 	{
 		ksPath = getValue(PROP_KS_PATH);
 		if (ksPath == null)
@@ -374,7 +807,11 @@ public class TrustedIssuersProperties extends PropertiesHelper
 		if (!preferCallback)
 		{
 			String pass = getValue(PROP_KS_PASSWORD);
-			ksPassword = pass == null ? null : pass.toCharArray();
+			String secret = getValue(PROP_KS_PASSWORD_SECRET);
+			if (pass != null)
+				ksPassword = pass.toCharArray();
+			else if (secret != null)
+				ksPassword = SecretProviders.resolve(secret);
 		}
 		if (ksPassword == null && passwordCallback != null)
 		{
@@ -382,32 +819,29 @@ public class TrustedIssuersProperties extends PropertiesHelper
 		}
 		if (ksPassword == null)
 			throw new ConfigurationException("Keystore password must be set, property: " + 
-					prefix + PROP_KS_PASSWORD);
+					prefix + PROP_KS_PASSWORD + " or " + prefix + PROP_KS_PASSWORD_SECRET);
 		ksType = getValue(PROP_KS_TYPE);
 		if (ksType == null)
 			autodetectKeystoreType(ksPassword);
-		
-		ValidatorParamsExt params = getValidatorParamsExt();
-		return new KeystoreCertChainValidator(ksPath, ksPassword, 
-			ksType, storeUpdateInterval*1000, params);
+		return ksPassword;
 	}
 
+	/**
+	 * @return references of the secrets configured in the given properties
+	 */
+	static List<String> getSecretReferences(Properties properties, String pfx)
+	{
+		String value = properties.getProperty(pfx + PROP_KS_PASSWORD_SECRET);
+		return value == null ? Collections.emptyList() : Collections.singletonList(value.trim());
+	}
+
+	/**
+	 * @return validator of the JDK default CAs, the CAs are loaded once and shared in the JVM
+	 */
 	protected InMemoryKeystoreCertChainValidator getJDKCertsValidator()
 			throws ConfigurationException, GeneralSecurityException, IOException
 	{
-		KeyStore ks = KeyStore.getInstance("jks");
-		ks.load(null);
-		TrustManagerFactory tmf = TrustManagerFactory.getInstance("PKIX");
-		tmf.init((KeyStore)null); 
-		for(TrustManager tm: tmf.getTrustManagers()) {
-			X509TrustManager xtm = (X509TrustManager)tm;
-			int alias = 1;
-			for(X509Certificate x : xtm.getAcceptedIssuers()) {
-				ks.setEntry(String.valueOf(alias), new KeyStore.TrustedCertificateEntry(x), null);
-				alias++;
-			}
-		}
-		return new InMemoryKeystoreCertChainValidator(ks);
+		return new InMemoryKeystoreCertChainValidator(SharedJDKCerts.getKeyStore());
 	}
 
 	protected ValidatorParamsExt getValidatorParamsExt()
@@ -424,6 +858,18 @@ public class TrustedIssuersProperties extends PropertiesHelper
 	
 	private void autodetectKeystoreType(char[] ksPassword) throws ConfigurationException
 	{
+		try
+		{
+			String detected = KeystoreTypeDetector.detect(new File(ksPath));
+			if (detected != null && !KeystoreTypeDetector.PEM.equals(detected))
+			{
+				ksType = detected;
+				return;
+			}
+		} catch (IOException e)
+		{
+			log.debug("Can not read the header of the truststore " + ksPath, e);
+		}
 		try
 		{
 			ksType = KeystoreCredential.autodetectType(ksPath, ksPassword);
@@ -453,14 +899,61 @@ public class TrustedIssuersProperties extends PropertiesHelper
 		@Override
 		public void propertyChanged(String propertyKey)
 		{
-			update(propertyKey);
+			synchronized (TrustedIssuersProperties.this)
+			{
+				if (sharedValidator)
+				{
+					log.debug("Properties of a truststore sharing its validator were changed, " + 
+							"creating its own validator");
+					sharedValidator = false;
+					validatorKeeper = null;
+					stopWatching();
+					releaseSharedValidator();
+					createValidatorSafe();
+				} else
+					update(propertyKey);
+			}
 		}
 	}
-	
+
+	/**
+	 * Called before a truststore, which shared its validator, creates its own one. Subclasses 
+	 * using reference counted validators release the shared one here.
+	 */
+	protected void releaseSharedValidator()
+	{
+	}
+
+	/**
+	 * The returned object shares the validator with this one, until its properties are changed.
+	 */
 	public TrustedIssuersProperties clone()
 	{
-		TrustedIssuersProperties ret = new TrustedIssuersProperties(properties, initialListeners, passwordCallback, prefix);
-		super.cloneTo(ret);
+		TrustedIssuersProperties ret = new TrustedIssuersProperties(this);
+		cloneTo(ret);
 		return ret;
 	}
+
+	/**
+	 * Copies listeners to the clone, except of the listener updating validator of this object: 
+	 * the clone gets its own one. The validator of this object becomes shared with the clone.
+	 */
+	@Override
+	protected void cloneTo(PropertiesHelper to)
+	{
+		super.cloneTo(to);
+		if (to instanceof TrustedIssuersProperties clone)
+		{
+			shareValidator();
+			clone.validatorKeeper = validatorKeeper;
+			for (Map.Entry<String, List<PropertyChangeListener>> entry: 
+					clone.propertyFocusedListeners.entrySet())
+			{
+				List<PropertyChangeListener> listeners = new ArrayList<>(entry.getValue());
+				listeners.removeIf(l -> l instanceof PropertyChangeListenerImpl);
+				entry.setValue(listeners);
+			}
+			clone.addPropertyChangeListener(clone.new PropertyChangeListenerImpl());
+		}
+	}
 }
@@ -1,6 +1,7 @@
 package eu.unicore.security.canl;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -9,7 +10,9 @@ import java.net.URL;
 import java.security.GeneralSecurityException;
 import java.security.KeyStoreException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,15 +29,19 @@ import eu.emi.security.authn.x509.ProxySupport;
 import eu.emi.security.authn.x509.RevocationParameters;
 import eu.emi.security.authn.x509.RevocationParameters.RevocationCheckingOrder;
 import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
 import eu.emi.security.authn.x509.impl.CRLParameters;
 import eu.emi.security.authn.x509.impl.CertificateUtils;
 import eu.emi.security.authn.x509.impl.CertificateUtils.Encoding;
 import eu.emi.security.authn.x509.impl.DirectoryCertChainValidator;
+import eu.emi.security.authn.x509.impl.InMemoryKeystoreCertChainValidator;
 import eu.emi.security.authn.x509.impl.KeystoreCertChainValidator;
 import eu.emi.security.authn.x509.impl.OpensslCertChainValidator;
 import eu.emi.security.authn.x509.impl.RevocationParametersExt;
 import eu.emi.security.authn.x509.impl.ValidatorParams;
 import eu.emi.security.authn.x509.impl.ValidatorParamsExt;
+import eu.unicore.security.canl.crl.CRLIndexManager;
+import eu.unicore.security.canl.crl.RevocationIndexValidator;
 import eu.unicore.util.Log;
 import eu.unicore.util.configuration.ConfigurationException;
 import eu.unicore.util.configuration.PropertyMD;
@@ -68,6 +75,9 @@ public class TruststoreProperties extends TrustedIssuersProperties
 	public static final String PROP_OCSP_CACHE_TTL = "ocspCacheTtl";
 	public static final String PROP_OCSP_DISK_CACHE = "ocspDiskCache";
 	public static final String PROP_OCSP_LOCAL_RESPONDERS = "ocspLocalResponders.";
+	public static final String PROP_OCSP_PREFETCH = "ocspPrefetch";
+	public static final String PROP_OCSP_PREFETCH_THREADS = "ocspPrefetchThreads";
+	public static final String PROP_OCSP_PREFETCH_MAX_ENTRIES = "ocspPrefetchMaxEntries";
 	public static final String PROP_REVOCATION_ORDER = "revocationOrder";
 	public static final String PROP_REVOCATION_USE_ALL = "revocationUseAll";
 
@@ -76,6 +86,11 @@ public class TruststoreProperties extends TrustedIssuersProperties
 	public static final String PROP_CRL_UPDATE = "crlUpdateInterval";
 	public static final String PROP_CRL_CONNECTION_TIMEOUT = "crlConnectionTimeout";
 	public static final String PROP_CRL_CACHE_PATH = "crlDiskCachePath";
+	public static final String PROP_CRL_INDEX_MODE = "crlIndexMode";
+	public static final String PROP_CRL_INDEX_THREADS = "crlIndexThreads";
+	public static final String PROP_CRL_INDEX_PATH = "crlIndexPath";
+
+	public enum CrlIndexMode {canl, heap, offheap};
 
 	public static final String PROP_OPENSSL_NS_MODE = "opensslNsMode";
 
@@ -111,6 +126,20 @@ public class TruststoreProperties extends TrustedIssuersProperties
 						"remote source. Can be left undefined if no disk cache should be used. Note that directory should be secured, i.e. normal users should not be allowed to write to it. Not used for Openssl truststores."));
 		META.put(PROP_CRL_LOCATIONS, new PropertyMD().setList(false).setUpdateable().setCategory(revCat).
 				setDescription("List of CRLs locations. Can contain URLs, local files and wildcard expressions. Not used for Openssl truststores."));
+		META.put(PROP_CRL_INDEX_MODE, new PropertyMD(CrlIndexMode.canl).setCategory(revCat).
+				setDescription("Controls how CRLs are loaded and checked. With 'canl' CRLs are handled by the " +
+						"truststore implementation. With 'heap' CRLs are loaded in parallel, unchanged ones are not reloaded " +
+						"and revoked serial numbers are kept in a compact in-memory index. With 'offheap' the index " +
+						"is kept in memory mapped files (see " + PROP_CRL_INDEX_PATH + "), which are reused after restart. " +
+						"Not used for Openssl truststores."));
+		META.put(PROP_CRL_INDEX_THREADS, new PropertyMD("4").setPositive().setCategory(revCat).
+				setDescription("Number of threads used to load CRLs in parallel, when " + PROP_CRL_INDEX_MODE + 
+						" other than 'canl' is used."));
+		META.put(PROP_CRL_INDEX_PATH, new PropertyMD().setPath().setCategory(revCat).
+				setDescription("Directory where the CRL index files are stored, required if " + PROP_CRL_INDEX_MODE + 
+						" is 'offheap', unless the truststore " + PROP_SNAPSHOT_PATH + " is set: then the " +
+						"snapshot path with the '.crl' suffix is used by default. The directory should be secured in the same way as the CRL disk cache, " +
+						"as the index files are trusted."));
 		META.put(PROP_OCSP_MODE, new PropertyMD(OCSPCheckingMode.IF_AVAILABLE).setCategory(revCat).
 				setDescription("General OCSP ckecking mode. REQUIRE should not be used unless it is guaranteed that for all certificates an OCSP responder is defined."));
 		META.put(PROP_OCSP_LOCAL_RESPONDERS, new PropertyMD().setList(true).setCategory(revCat).
@@ -121,6 +150,14 @@ public class TruststoreProperties extends TrustedIssuersProperties
 				setDescription("For how long the OCSP responses should be locally cached in seconds (this is a maximum value, responses won't be cached after expiration)"));
 		META.put(PROP_OCSP_DISK_CACHE, new PropertyMD().setPath().setCategory(revCat).
 				setDescription("If this property is defined then OCSP responses will be cached on disk in the defined folder."));
+		META.put(PROP_OCSP_PREFETCH, new PropertyMD("false").setCategory(revCat).
+				setDescription("If enabled, OCSP status of recently validated certificates is refreshed in background, "
+						+ "before the cached response expires (see " + PROP_OCSP_CACHE_TTL + "). Thanks to that "
+						+ "the OCSP responder is normally not queried during the validation itself."));
+		META.put(PROP_OCSP_PREFETCH_THREADS, new PropertyMD("2").setPositive().setCategory(revCat).
+				setDescription("Maximum number of concurrent background OCSP queries, used when OCSP prefetching is enabled."));
+		META.put(PROP_OCSP_PREFETCH_MAX_ENTRIES, new PropertyMD("1000").setPositive().setCategory(revCat).
+				setDescription("Maximum number of certificates for which the OCSP status is kept fresh, used when OCSP prefetching is enabled."));
 	}
 
 	private ProxySupport proxySupport;
@@ -130,6 +167,13 @@ public class TruststoreProperties extends TrustedIssuersProperties
 	private int crlConnectionTimeout;
 	private String crlDiskCache;
 	private List<String> crlLocations;
+	private List<File> crlFiles;
+	private FileChangeWatcher.Registration crlWatch;
+	private CrlIndexMode crlIndexMode;
+	private boolean ocspPrefetch;
+	private CRLIndexManager crlIndex;
+	private OCSPPrefetchingValidator ocspPrefetcher;
+	private X509CertChainValidatorExt wrappingValidator;
 
 	/**
 	 * Simple constructor: logging is turned on and standard properties prefix is used.
@@ -189,6 +233,29 @@ public class TruststoreProperties extends TrustedIssuersProperties
 		super(META, log, properties, initialListeners, callback, pfx);
 	}
 
+	/**
+	 * Creates a copy sharing the validator (and CRL index) of the source, see 
+	 * {@link TrustedIssuersProperties#TrustedIssuersProperties(TrustedIssuersProperties)}.
+	 * @param source
+	 */
+	protected TruststoreProperties(TruststoreProperties source)
+	{
+		super(source);
+		proxySupport = source.proxySupport;
+		crlMode = source.crlMode;
+		nsMode = source.nsMode;
+		crlUpdateInterval = source.crlUpdateInterval;
+		crlConnectionTimeout = source.crlConnectionTimeout;
+		crlDiskCache = source.crlDiskCache;
+		crlLocations = source.crlLocations;
+		crlFiles = source.crlFiles;
+		crlIndexMode = source.crlIndexMode;
+		ocspPrefetch = source.ocspPrefetch;
+		crlIndex = source.crlIndex;
+		ocspPrefetcher = source.ocspPrefetcher;
+		wrappingValidator = source.wrappingValidator;
+	}
+
 	/**
 	 * Checks properties and tries to update the underlying validator whenever possible.
 	 * Only few options can be modified at runtime.
@@ -203,12 +270,17 @@ public class TruststoreProperties extends TrustedIssuersProperties
 		if (property.equals(PROP_CRL_UPDATE))
 		{
 			long newCrlUpdateInterval = getLongValue(PROP_CRL_UPDATE);
-			if (newCrlUpdateInterval != crlUpdateInterval)
+			if (newCrlUpdateInterval != crlUpdateInterval && crlFiles != null)
 			{
-				if (directoryValidator != null)
-					directoryValidator.setCRLUpdateInterval(newCrlUpdateInterval*1000);
-				if (ksValidator != null)
-					ksValidator.setCRLUpdateInterval(newCrlUpdateInterval*1000);
+				crlUpdateInterval = newCrlUpdateInterval;
+				log.info("CRL files are monitored for changes, the updated " + prefix+PROP_CRL_UPDATE + 
+						" value is not used");
+			} else if (newCrlUpdateInterval != crlUpdateInterval)
+			{
+				if (getCRLValidator() != null)
+					getCRLValidator().setCRLUpdateInterval(newCrlUpdateInterval*1000);
+				if (crlIndex != null)
+					crlIndex.setUpdateInterval(newCrlUpdateInterval*1000);
 				crlUpdateInterval = newCrlUpdateInterval;
 				log.info("Updated " + prefix+PROP_CRL_UPDATE + " value to " + crlUpdateInterval);
 			}
@@ -219,11 +291,13 @@ public class TruststoreProperties extends TrustedIssuersProperties
 			List<String> newCrlLocations = getListOfValues(PROP_CRL_LOCATIONS);
 			if (!newCrlLocations.equals(crlLocations))
 			{
-				if (directoryValidator != null)
-					directoryValidator.setCrls(newCrlLocations);
-				if (ksValidator != null)
-					ksValidator.setCrls(newCrlLocations);
+				if (getCRLValidator() != null)
+					getCRLValidator().setCrls(newCrlLocations);
+				if (crlIndex != null)
+					crlIndex.setLocations(newCrlLocations);
 				crlLocations = newCrlLocations;
+				if (reloadOnChange)
+					updateCrlWatch();
 				log.info("Updated " + prefix+PROP_CRL_LOCATIONS);
 			}
 		}
@@ -234,12 +308,159 @@ public class TruststoreProperties extends TrustedIssuersProperties
 		return UPDATEABLE_PROPS;
 	}
 
+	/**
+	 * @return a configured validator. If the CRL index or OCSP prefetching is enabled, 
+	 * the truststore's validator is wrapped with {@link RevocationIndexValidator} and
+	 * {@link OCSPPrefetchingValidator} respectively.
+	 */
+	@Override
+	public X509CertChainValidatorExt getValidator()
+	{
+		if (wrappingValidator != null)
+			return wrappingValidator;
+		return super.getValidator();
+	}
+
 	protected void createValidator() throws ConfigurationException,
 			GeneralSecurityException, IOException
 	{
 		crlMode = getEnumValue(PROP_CRL_MODE, CrlCheckingMode.class);
 		proxySupport = getEnumValue(PROP_PROXY_SUPPORT, ProxySupport.class);
+		ocspPrefetch = getBooleanValue(PROP_OCSP_PREFETCH);
+		crlIndexMode = getEnumValue(PROP_CRL_INDEX_MODE, CrlIndexMode.class);
+		TruststoreType storeType = getEnumValue(PROP_TYPE, TruststoreType.class);
+		if (crlMode == CrlCheckingMode.IGNORE || 
+				(storeType != TruststoreType.directory && storeType != TruststoreType.keystore))
+			crlIndexMode = CrlIndexMode.canl;
+		crlIndex = null;
+		ocspPrefetcher = null;
+		wrappingValidator = null;
 		super.createValidator();
+		X509CertChainValidatorExt validator = super.getValidator();
+		if (crlIndexMode != CrlIndexMode.canl)
+		{
+			crlIndex = createCRLIndex(validator);
+			validator = wrappingValidator = new RevocationIndexValidator(validator, crlIndex, crlMode);
+		}
+		if (ocspPrefetch)
+		{
+			ocspPrefetcher = createOCSPPrefetcher(validator);
+			if (ocspPrefetcher != null)
+				wrappingValidator = ocspPrefetcher;
+		}
+	}
+
+	@Override
+	protected void startWatching()
+	{
+		super.startWatching();
+		if (crlFiles != null)
+			crlWatch = watchFiles(crlFiles, TruststoreProperties::reloadCRLs);
+	}
+
+	@Override
+	protected void stopWatching()
+	{
+		super.stopWatching();
+		stopCrlWatching();
+	}
+
+	private void stopCrlWatching()
+	{
+		if (crlWatch != null)
+			crlWatch.cancel();
+		crlWatch = null;
+	}
+
+	/**
+	 * @return the CRL update interval in ms, which should be used. Periodic updates are 
+	 * turned off if the CRL files are monitored for changes.
+	 */
+	protected long getEffectiveCrlUpdateInterval()
+	{
+		return crlFiles != null ? -1 : crlUpdateInterval*1000;
+	}
+
+	private void updateCrlWatch()
+	{
+		stopCrlWatching();
+		List<File> newFiles = getLocalFiles(crlLocations);
+		boolean pollingChanged = (newFiles == null) != (crlFiles == null);
+		crlFiles = newFiles;
+		if (pollingChanged)
+		{
+			long interval = getEffectiveCrlUpdateInterval();
+			if (getCRLValidator() != null)
+				getCRLValidator().setCRLUpdateInterval(interval);
+			if (crlIndex != null)
+				crlIndex.setUpdateInterval(interval);
+		}
+		if (crlFiles != null)
+			crlWatch = watchFiles(crlFiles, TruststoreProperties::reloadCRLs);
+	}
+
+	/**
+	 * @return local truststore and CRL files and directories which are monitored for changes. 
+	 * Empty if {@value #PROP_RELOAD_ON_CHANGE} is not enabled.
+	 */
+	@Override
+	public List<File> getWatchedFiles()
+	{
+		if (crlFiles == null)
+			return super.getWatchedFiles();
+		List<File> ret = new ArrayList<>(super.getWatchedFiles());
+		ret.addAll(crlFiles);
+		return Collections.unmodifiableList(ret);
+	}
+
+	/**
+	 * Reloads the CRLs of the directory and keystore truststores. With the CRL index only the 
+	 * modified CRLs are parsed again.
+	 */
+	public void reloadCRLs()
+	{
+		log.info("Reloading CRLs of the truststore");
+		if (crlIndex != null)
+			crlIndex.refresh();
+		else if (getCRLValidator() != null)
+			getCRLValidator().setCrls(crlLocations);
+	}
+
+	protected CRLIndexManager createCRLIndex(X509CertChainValidatorExt validator)
+	{
+		log.info("Using CRL index of type " + crlIndexMode + " for the truststore");
+		File indexDir = null;
+		if (crlIndexMode == CrlIndexMode.offheap)
+		{
+			indexDir = getFileValue(PROP_CRL_INDEX_PATH, true);
+			if (indexDir == null && snapshotFile != null)
+			{
+				indexDir = new File(snapshotFile.getPath() + ".crl");
+				if (!indexDir.isDirectory() && !indexDir.mkdirs())
+					throw new ConfigurationException("Can not create the CRL index directory " + indexDir);
+			}
+			if (indexDir == null)
+				throw new ConfigurationException("The " + prefix + PROP_CRL_INDEX_PATH + 
+						" must be set when the off heap CRL index is used");
+		}
+		CRLIndexManager ret = new CRLIndexManager(crlLocations, getEffectiveCrlUpdateInterval(), 
+				crlConnectionTimeout*1000, crlDiskCache, validator::getTrustedIssuers, 
+				initialListeners, getIntValue(PROP_CRL_INDEX_THREADS), indexDir);
+		ret.start();
+		return ret;
+	}
+
+	protected OCSPPrefetchingValidator createOCSPPrefetcher(X509CertChainValidatorExt validator)
+	{
+		OCSPParametes ocspParameters = createOCSPParameters();
+		if (ocspParameters.getCheckingMode() == OCSPCheckingMode.IGNORE)
+			return null;
+		if (ocspParameters.getCacheTtl() <= 0)
+			throw new ConfigurationException("OCSP prefetching requires a positive " + 
+					prefix + PROP_OCSP_CACHE_TTL);
+		log.info("Enabling background OCSP prefetching for the truststore");
+		return new OCSPPrefetchingValidator(validator, ocspParameters, initialListeners, 
+				getIntValue(PROP_OCSP_PREFETCH_THREADS), getIntValue(PROP_OCSP_PREFETCH_MAX_ENTRIES));
 	}
 
 	protected DirectoryCertChainValidator getDirectoryValidator() 
@@ -249,11 +470,20 @@ public class TruststoreProperties extends TrustedIssuersProperties
 		return super.getDirectoryValidator();
 	}
 
+	@Override
+	protected InMemoryKeystoreCertChainValidator getSnapshotValidator() 
+			throws ConfigurationException, GeneralSecurityException, IOException
+	{
+		setCrlSettings();
+		return super.getSnapshotValidator();
+	}
+
 	protected OpensslCertChainValidator getOpensslValidator() throws ConfigurationException
 	{
 		nsMode = getEnumValue(PROP_OPENSSL_NS_MODE, NamespaceCheckingMode.class);
 		opensslDir = getFileValueAsString(PROP_OPENSSL_DIR, true);
 		opensslNewStoreFormat = getBooleanValue(PROP_OPENSSL_NEW_STORE_FORMAT);
+		opensslLazyMode = getBooleanValue(PROP_OPENSSL_LAZY_MODE);
 		
 		RevocationCheckingOrder order = getEnumValue(PROP_REVOCATION_ORDER, RevocationCheckingOrder.class);
 		boolean useAll = getBooleanValue(PROP_REVOCATION_USE_ALL);
@@ -263,7 +493,7 @@ public class TruststoreProperties extends TrustedIssuersProperties
 		ValidatorParams params = new ValidatorParams(revocationSettings, 
 			proxySupport, initialListeners);
 		return new OpensslCertChainValidator(opensslDir, opensslNewStoreFormat, nsMode, 
-				storeUpdateInterval*1000, params);
+				getEffectiveUpdateInterval(), params, opensslLazyMode);
 	}
 
 	protected KeystoreCertChainValidator getKeystoreValidator() 
@@ -273,26 +503,53 @@ public class TruststoreProperties extends TrustedIssuersProperties
 		return super.getKeystoreValidator();
 	}
 
+	@Override
+	protected InMemoryKeystoreCertChainValidator getReloadableKeystoreValidator() 
+			throws ConfigurationException, GeneralSecurityException, IOException
+	{
+		setCrlSettings();
+		return super.getReloadableKeystoreValidator();
+	}
+
 	protected void setCrlSettings() throws ConfigurationException
 	{
 		crlUpdateInterval = getLongValue(PROP_CRL_UPDATE);
 		crlConnectionTimeout = getIntValue(PROP_CRL_CONNECTION_TIMEOUT);
 		crlDiskCache = getFileValueAsString(PROP_CRL_CACHE_PATH, true);
 		crlLocations = getListOfValues(PROP_CRL_LOCATIONS);
+		crlFiles = reloadOnChange ? getLocalFiles(crlLocations) : null;
 	}
 
+	/**
+	 * @return parameters of the underlying canl validator. When the CRL index is used, 
+	 * CRLs are checked by the {@link RevocationIndexValidator} and so CRL checking is turned off here.
+	 */
 	protected ValidatorParamsExt getValidatorParamsExt()
 	{
-		CRLParameters crlParameters = new CRLParameters(crlLocations, crlUpdateInterval*1000, 
-			crlConnectionTimeout, crlDiskCache);
+		boolean indexed = crlIndexMode != CrlIndexMode.canl;
+		CRLParameters crlParameters = indexed ? new CRLParameters() : 
+			new CRLParameters(crlLocations, getEffectiveCrlUpdateInterval(), crlConnectionTimeout, crlDiskCache);
 		RevocationCheckingOrder order = getEnumValue(PROP_REVOCATION_ORDER, RevocationCheckingOrder.class);
 		boolean useAll = getBooleanValue(PROP_REVOCATION_USE_ALL);
-		RevocationParametersExt revParams = new RevocationParametersExt(crlMode, 
+		RevocationParametersExt revParams = new RevocationParametersExt(
+			indexed ? CrlCheckingMode.IGNORE : crlMode, 
 			crlParameters, getOCSPParameters(), useAll, order);
 		return new ValidatorParamsExt(revParams, proxySupport, initialListeners);
 	}
 
+	/**
+	 * @return OCSP parameters for the underlying canl validator. When OCSP prefetching 
+	 * is enabled, OCSP is checked by the {@link OCSPPrefetchingValidator} and so it is turned off here.
+	 */
 	protected OCSPParametes getOCSPParameters()
+	{
+		OCSPParametes ret = createOCSPParameters();
+		if (ocspPrefetch)
+			ret.setCheckingMode(OCSPCheckingMode.IGNORE);
+		return ret;
+	}
+
+	protected OCSPParametes createOCSPParameters()
 	{
 		OCSPCheckingMode checkingMode = getEnumValue(PROP_OCSP_MODE, OCSPCheckingMode.class);
 		int connectTimeout = getIntValue(PROP_OCSP_TIMEOUT);
@@ -331,10 +588,32 @@ public class TruststoreProperties extends TrustedIssuersProperties
 				cacheTtl, diskCachePath);
 	}
 	
+	/**
+	 * The returned object shares the validator with this one, until its properties are changed.
+	 */
 	public TruststoreProperties clone()
 	{
-		TruststoreProperties ret = new TruststoreProperties(properties, initialListeners, passwordCallback, prefix);
-		super.cloneTo(ret);
+		TruststoreProperties ret = new TruststoreProperties(this);
+		cloneTo(ret);
+		if (wrappingValidator instanceof DelegatingCertChainValidator shared)
+			shared.retain();
 		return ret;
 	}
+
+	/**
+	 * Releases the reference to the shared wrapping validator, which is disposed once no 
+	 * other truststore uses it.
+	 */
+	@Override
+	protected void releaseSharedValidator()
+	{
+		if (wrappingValidator != null)
+			wrappingValidator.dispose();
+	}
+
+	@Override
+	protected TruststoreProperties copy()
+	{
+		return new TruststoreProperties(this);
+	}
 }
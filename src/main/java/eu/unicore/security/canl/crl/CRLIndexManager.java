@@ -0,0 +1,402 @@
+package eu.unicore.security.canl.crl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRLException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.logging.log4j.Logger;
+
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.StoreUpdateListener.Severity;
+import eu.emi.security.authn.x509.helpers.ObserversHandler;
+import eu.emi.security.authn.x509.helpers.pkipath.PlainStoreUtils;
+import eu.unicore.util.Log;
+
+/**
+ * Maintains a {@link RevocationIndex} built from CRLs available under the configured locations
+ * (local files, wildcard expressions and URLs, as in canl).
+ * <p>
+ * CRLs are fetched and parsed in parallel, with the {@link StreamingCRLParser}. On each refresh
+ * CRLs which were not changed since the previous one are not parsed again: for local files
+ * modification time and size are compared, remote ones are requested conditionally (ETag and
+ * Last-Modified) and if the server doesn't support it, the SHA-256 digest of the downloaded
+ * data is compared. When a refresh is complete, the whole index is replaced atomically, so
+ * lookups never see a partially updated state. If a CRL can not be reloaded,
+ * its previous version is kept.
+ * <p>
+ * The index can be kept on heap or off heap, in memory mapped files. In the latter case
+ * the files are reused after restart, if the corresponding CRLs were not modified.
+ */
+public class CRLIndexManager implements RevocationIndex
+{
+	private static final Logger log = Log.getLogger(Log.SECURITY, CRLIndexManager.class);
+
+	private final Supplier<X509Certificate[]> trustedIssuers;
+	private final ObserversHandler observers;
+	private final int connectTimeout;
+	private final String diskCache;
+	private final CRLIndexStorage storage;
+	private final ExecutorService loaders;
+	private final ScheduledExecutorService scheduler;
+	private volatile List<String> locations;
+	private long updateInterval;
+	private ScheduledFuture<?> refreshTask;
+	private Map<String, CRLSourceState> sources = Collections.emptyMap();
+	private volatile Map<X500Principal, IndexedCRL> index = Collections.emptyMap();
+	private volatile int lastParsedCount;
+
+	/**
+	 * Creates the manager keeping the index on heap. CRLs are loaded for the first time with {@link #start()}.
+	 * See {@link #CRLIndexManager(List, long, int, String, Supplier, Collection, int, File)} for parameters.
+	 */
+	public CRLIndexManager(List<String> locations, long updateInterval, int connectTimeout,
+			String diskCache, Supplier<X509Certificate[]> trustedIssuers,
+			Collection<? extends StoreUpdateListener> listeners, int threads)
+	{
+		this(locations, updateInterval, connectTimeout, diskCache, trustedIssuers, listeners, threads, null);
+	}
+
+	/**
+	 * Creates the manager. CRLs are loaded for the first time with {@link #start()}.
+	 * @param locations CRL locations, can contain URLs, local paths and wildcard expressions
+	 * @param updateInterval how often (in ms) CRLs are refreshed. Non positive value turns refreshing off.
+	 * @param connectTimeout connection (and read) timeout for remote CRLs in ms
+	 * @param diskCache directory where downloaded CRLs are cached or null
+	 * @param trustedIssuers provides certificates which are trusted to issue CRLs
+	 * @param listeners notified about CRL loading problems
+	 * @param threads number of threads used to load CRLs in parallel
+	 * @param indexDirectory if not null, the index is kept off heap, in memory mapped files
+	 * stored in this directory (see {@link MappedIndexStorage}). Otherwise the index is kept on heap.
+	 */
+	public CRLIndexManager(List<String> locations, long updateInterval, int connectTimeout,
+			String diskCache, Supplier<X509Certificate[]> trustedIssuers,
+			Collection<? extends StoreUpdateListener> listeners, int threads, File indexDirectory)
+	{
+		this.storage = indexDirectory == null ? new HeapIndexStorage() : new MappedIndexStorage(indexDirectory);
+		this.locations = new ArrayList<>(locations);
+		this.updateInterval = updateInterval;
+		this.connectTimeout = connectTimeout;
+		this.diskCache = diskCache;
+		this.trustedIssuers = trustedIssuers;
+		this.observers = new ObserversHandler(listeners);
+		this.loaders = Executors.newFixedThreadPool(threads, r -> newThread(r, "crl-index-loader"));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> newThread(r, "crl-index-refresh"));
+	}
+
+	private static Thread newThread(Runnable r, String name)
+	{
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+	/**
+	 * Loads all CRLs synchronously and schedules the periodic refresh.
+	 */
+	public synchronized void start()
+	{
+		refresh();
+		schedule();
+	}
+
+	@Override
+	public IndexedCRL getCRL(X500Principal issuer)
+	{
+		return index.get(issuer);
+	}
+
+	/**
+	 * @return number of CRLs currently in the index
+	 */
+	public int size()
+	{
+		return index.size();
+	}
+
+	/**
+	 * @return how many CRLs were parsed during the last refresh, i.e. were new or modified
+	 */
+	public int getLastParsedCount()
+	{
+		return lastParsedCount;
+	}
+
+	public synchronized void setUpdateInterval(long updateInterval)
+	{
+		this.updateInterval = updateInterval;
+		schedule();
+	}
+
+	/**
+	 * Sets new CRL locations and triggers an asynchronous refresh.
+	 */
+	public void setLocations(List<String> locations)
+	{
+		this.locations = new ArrayList<>(locations);
+		scheduler.execute(this::refresh);
+	}
+
+	@Override
+	public void dispose()
+	{
+		scheduler.shutdownNow();
+		loaders.shutdownNow();
+	}
+
+	private synchronized void schedule()
+	{
+		if (refreshTask != null)
+			refreshTask.cancel(false);
+		refreshTask = null;
+		if (updateInterval > 0)
+			refreshTask = scheduler.scheduleWithFixedDelay(this::refresh, updateInterval,
+					updateInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Reloads all CRLs and replaces the index.
+	 */
+	public synchronized void refresh()
+	{
+		long start = System.currentTimeMillis();
+		Collection<URL> urls = resolveLocations(locations);
+		Map<String, Future<CRLSourceState>> pending = new HashMap<>();
+		for (URL url: urls)
+		{
+			String key = url.toExternalForm();
+			CRLSourceState previous = sources.get(key);
+			Callable<CRLSourceState> loader = () -> load(url, previous);
+			pending.put(key, loaders.submit(loader));
+		}
+
+		Map<String, CRLSourceState> newSources = new HashMap<>();
+		Map<X500Principal, IndexedCRL> newIndex = new HashMap<>();
+		int parsed = 0;
+		for (Map.Entry<String, Future<CRLSourceState>> entry: pending.entrySet())
+		{
+			CRLSourceState source;
+			try
+			{
+				source = entry.getValue().get();
+			} catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e)
+			{
+				log.error("BUG: unexpected failure loading CRL from " + entry.getKey(), e);
+				continue;
+			}
+			newSources.put(entry.getKey(), source);
+			if (source.parsed)
+				parsed++;
+			IndexedCRL crl = source.crl;
+			if (crl == null)
+				continue;
+			IndexedCRL existing = newIndex.get(crl.getIssuer());
+			if (existing == null || existing.getThisUpdate().before(crl.getThisUpdate()))
+				newIndex.put(crl.getIssuer(), crl);
+		}
+		sources = newSources;
+		index = Collections.unmodifiableMap(newIndex);
+		lastParsedCount = parsed;
+		log.debug("CRL index refreshed in {}ms: {} CRL source(s), {} parsed, {} CRL issuer(s) indexed",
+				System.currentTimeMillis() - start, urls.size(), parsed, newIndex.size());
+	}
+
+	/**
+	 * @return unique CRL URLs. Note that URLs are deduplicated by their string form to avoid 
+	 * name resolution performed by {@link URL#equals(Object)}.
+	 */
+	private Collection<URL> resolveLocations(List<String> locations)
+	{
+		PlainStoreUtils utils = new PlainStoreUtils(diskCache, "-crl", locations);
+		utils.establishWildcardsLocations();
+		Map<String, URL> ret = new LinkedHashMap<>();
+		for (URL url: utils.getResolvedWildcards())
+			ret.put(url.toExternalForm(), url);
+		for (URL url: utils.getURLLocations())
+			ret.put(url.toExternalForm(), url);
+		return ret.values();
+	}
+
+	private CRLSourceState load(URL url, CRLSourceState previous)
+	{
+		if (previous == null)
+			previous = restore(url);
+		try
+		{
+			if ("file".equalsIgnoreCase(url.getProtocol()))
+				return loadFile(url, previous);
+			return loadRemote(url, previous);
+		} catch (IOException | CRLException | URISyntaxException e)
+		{
+			observers.notifyObservers(url.toExternalForm(), StoreUpdateListener.CRL,
+					Severity.ERROR, e);
+			if (previous != null && previous.crl != null)
+			{
+				log.debug("Keeping the previously loaded CRL from {}", url);
+				return previous.unchanged();
+			}
+			return new CRLSourceState(null, false);
+		}
+	}
+
+	/**
+	 * @return CRL indexed by a previous run, if its issuer is still trusted
+	 */
+	private CRLSourceState restore(URL url)
+	{
+		CRLSourceState restored = storage.restore(url);
+		if (restored == null)
+			return null;
+		for (X509Certificate trusted: trustedIssuers.get())
+			if (trusted.getSubjectX500Principal().equals(restored.crl.getIssuer()))
+			{
+				log.debug("Reusing CRL index of {} created previously", url);
+				return restored;
+			}
+		return null;
+	}
+
+	private CRLSourceState loadFile(URL url, CRLSourceState previous) throws IOException, CRLException, URISyntaxException
+	{
+		File file = new File(url.toURI());
+		CRLSourceState ret = new CRLSourceState(null, false);
+		ret.lastModified = file.lastModified();
+		ret.length = file.length();
+		if (previous != null && previous.crl != null && previous.lastModified == ret.lastModified
+				&& previous.length == ret.length)
+			return previous.unchanged();
+
+		ret.digest = digest(file);
+		if (previous != null && previous.crl != null && Arrays.equals(ret.digest, previous.digest))
+			return ret.withCRL(previous.crl, false);
+		return ret.withCRL(parse(file, url, ret), true);
+	}
+
+	private CRLSourceState loadRemote(URL url, CRLSourceState previous) throws IOException, CRLException, URISyntaxException
+	{
+		File cacheFile = diskCache == null ? null :
+			new PlainStoreUtils(diskCache, "-crl", Collections.emptyList()).getCacheFile(url);
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(connectTimeout);
+		HttpURLConnection http = connection instanceof HttpURLConnection ?
+				(HttpURLConnection) connection : null;
+		if (http != null && previous != null && previous.crl != null)
+		{
+			if (previous.etag != null)
+				http.setRequestProperty("If-None-Match", previous.etag);
+			if (previous.lastModifiedHeader != null)
+				http.setRequestProperty("If-Modified-Since", previous.lastModifiedHeader);
+		}
+		File downloaded;
+		try
+		{
+			connection.connect();
+			if (http != null && http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+				return previous.unchanged();
+			if (http != null && http.getResponseCode() != HttpURLConnection.HTTP_OK)
+				throw new IOException("Server returned HTTP status " + http.getResponseCode());
+			downloaded = File.createTempFile("crl", ".download",
+					cacheFile == null ? null : cacheFile.getParentFile());
+			try (InputStream is = connection.getInputStream();
+					OutputStream os = Files.newOutputStream(downloaded.toPath()))
+			{
+				is.transferTo(os);
+			}
+		} catch (IOException e)
+		{
+			if ((previous == null || previous.crl == null) && cacheFile != null && cacheFile.exists())
+			{
+				observers.notifyObservers(url.toExternalForm(), StoreUpdateListener.CRL,
+						Severity.WARNING, e);
+				log.debug("Using cached copy of the CRL from {}", url);
+				CRLSourceState ret = new CRLSourceState(null, false);
+				ret.digest = digest(cacheFile);
+				return ret.withCRL(parse(cacheFile, url, ret), true);
+			}
+			throw e;
+		}
+
+		try
+		{
+			CRLSourceState ret = new CRLSourceState(null, false);
+			ret.digest = digest(downloaded);
+			if (http != null)
+			{
+				ret.etag = http.getHeaderField("ETag");
+				ret.lastModifiedHeader = http.getHeaderField("Last-Modified");
+			}
+			if (previous != null && previous.crl != null && Arrays.equals(ret.digest, previous.digest))
+				return ret.withCRL(previous.crl, false);
+			ret = ret.withCRL(parse(downloaded, url, ret), true);
+			if (cacheFile != null)
+				Files.move(downloaded.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			return ret;
+		} finally
+		{
+			Files.deleteIfExists(downloaded.toPath());
+		}
+	}
+
+	private IndexedCRL parse(File file, URL url, CRLSourceState state) throws IOException, CRLException
+	{
+		IndexedCRL ret = storage.create(url, file, state, Arrays.asList(trustedIssuers.get()));
+		observers.notifyObservers(url.toExternalForm(), StoreUpdateListener.CRL,
+				Severity.NOTIFICATION, null);
+		log.debug("Indexed CRL of {} from {}, {} revoked serial(s)", ret.getIssuer(), url, ret.size());
+		return ret;
+	}
+
+	private static byte[] digest(File file) throws IOException
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			try (InputStream is = new DigestInputStream(new FileInputStream(file), md))
+			{
+				byte[] buf = new byte[65536];
+				while (is.read(buf) != -1);
+			}
+			return md.digest();
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 is not supported by the JDK", e);
+		}
+	}
+}
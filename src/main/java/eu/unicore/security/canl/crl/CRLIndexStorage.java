@@ -0,0 +1,28 @@
+package eu.unicore.security.canl.crl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.security.cert.CRLException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+
+/**
+ * Creates {@link IndexedCRL}s from CRL files.
+ */
+interface CRLIndexStorage
+{
+	/**
+	 * Parses and verifies the CRL.
+	 * @param url CRL location
+	 * @param crlData local file with the CRL contents
+	 * @param state state of the source, which will be associated with the CRL
+	 */
+	IndexedCRL create(URL url, File crlData, CRLSourceState state, 
+			Collection<X509Certificate> trustedIssuers) throws IOException, CRLException;
+
+	/**
+	 * @return state with CRL indexed by a previous run, or null if not available
+	 */
+	CRLSourceState restore(URL url);
+}
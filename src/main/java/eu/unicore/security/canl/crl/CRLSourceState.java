@@ -0,0 +1,41 @@
+package eu.unicore.security.canl.crl;
+
+/**
+ * State of a single CRL location: the indexed CRL (if available) and data used to detect
+ * whether the source was modified.
+ */
+class CRLSourceState
+{
+	final IndexedCRL crl;
+	final boolean parsed;
+	long lastModified;
+	long length;
+	byte[] digest;
+	String etag;
+	String lastModifiedHeader;
+
+	CRLSourceState(IndexedCRL crl, boolean parsed)
+	{
+		this.crl = crl;
+		this.parsed = parsed;
+	}
+
+	/**
+	 * @return copy of this state with a different CRL
+	 */
+	CRLSourceState withCRL(IndexedCRL crl, boolean parsed)
+	{
+		CRLSourceState ret = new CRLSourceState(crl, parsed);
+		ret.lastModified = lastModified;
+		ret.length = length;
+		ret.digest = digest;
+		ret.etag = etag;
+		ret.lastModifiedHeader = lastModifiedHeader;
+		return ret;
+	}
+
+	CRLSourceState unchanged()
+	{
+		return withCRL(crl, false);
+	}
+}
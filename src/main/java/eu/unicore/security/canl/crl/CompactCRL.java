@@ -0,0 +1,67 @@
+package eu.unicore.security.canl.crl;
+
+import java.math.BigInteger;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Heap based {@link IndexedCRL}, storing the revoked serials in {@link RevokedSerials}.
+ */
+public class CompactCRL implements IndexedCRL
+{
+	private final X500Principal issuer;
+	private final Date thisUpdate;
+	private final Date nextUpdate;
+	private final RevokedSerials revoked;
+
+	public CompactCRL(X500Principal issuer, Date thisUpdate, Date nextUpdate, RevokedSerials revoked)
+	{
+		this.issuer = issuer;
+		this.thisUpdate = thisUpdate;
+		this.nextUpdate = nextUpdate;
+		this.revoked = revoked;
+	}
+
+	@Override
+	public X500Principal getIssuer()
+	{
+		return issuer;
+	}
+
+	@Override
+	public Date getThisUpdate()
+	{
+		return thisUpdate;
+	}
+
+	@Override
+	public Date getNextUpdate()
+	{
+		return nextUpdate;
+	}
+
+	@Override
+	public int size()
+	{
+		return revoked.size();
+	}
+
+	@Override
+	public int find(BigInteger serial)
+	{
+		return revoked.find(serial);
+	}
+
+	@Override
+	public Date getRevocationTime(int index)
+	{
+		return revoked.getRevocationTime(index);
+	}
+
+	@Override
+	public int getReason(int index)
+	{
+		return revoked.getReason(index);
+	}
+}
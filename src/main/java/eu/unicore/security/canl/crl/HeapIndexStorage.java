@@ -0,0 +1,33 @@
+package eu.unicore.security.canl.crl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.cert.CRLException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+
+/**
+ * Keeps indexed CRLs on heap, as {@link CompactCRL}s.
+ */
+class HeapIndexStorage implements CRLIndexStorage
+{
+	@Override
+	public IndexedCRL create(URL url, File crlData, CRLSourceState state,
+			Collection<X509Certificate> trustedIssuers) throws IOException, CRLException
+	{
+		try (InputStream is = new BufferedInputStream(new FileInputStream(crlData), 65536))
+		{
+			return StreamingCRLParser.parse(is, trustedIssuers);
+		}
+	}
+
+	@Override
+	public CRLSourceState restore(URL url)
+	{
+		return null;
+	}
+}
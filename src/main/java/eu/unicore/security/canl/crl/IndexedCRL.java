@@ -0,0 +1,48 @@
+package eu.unicore.security.canl.crl;
+
+import java.math.BigInteger;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Revocation data of a single, already verified CRL, in a form suitable for fast lookups.
+ */
+public interface IndexedCRL
+{
+	X500Principal getIssuer();
+
+	Date getThisUpdate();
+
+	/**
+	 * @return next update time or null if the CRL doesn't define it
+	 */
+	Date getNextUpdate();
+
+	/**
+	 * @return number of revoked serials
+	 */
+	int size();
+
+	/**
+	 * @return non-negative index of the revoked serial, to be used with {@link #getRevocationTime(int)}
+	 * and {@link #getReason(int)}, or a negative number if the serial is not revoked.
+	 */
+	int find(BigInteger serial);
+
+	Date getRevocationTime(int index);
+
+	/**
+	 * @return CRL reason code as defined in RFC 5280
+	 */
+	int getReason(int index);
+
+	/**
+	 * @return true if the CRL is not outdated at the given time
+	 */
+	default boolean isValidAt(Date time)
+	{
+		return !getThisUpdate().after(time) && 
+				(getNextUpdate() == null || getNextUpdate().after(time));
+	}
+}
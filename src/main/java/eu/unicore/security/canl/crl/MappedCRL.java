@@ -0,0 +1,339 @@
+package eu.unicore.security.canl.crl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * {@link IndexedCRL} backed by a memory mapped file, so the revoked serials are not kept on heap.
+ * <p>
+ * The file contains fixed size records sorted by the lowest 64 bits of the serial number, followed
+ * by a trailer with the CRL metadata and the state of the CRL source. Each record holds the lowest 64 bits
+ * of the serial (used for binary search), revocation time in seconds, reason code and the complete
+ * serial number, which is compared only when the lowest 64 bits match. Therefore lookups of
+ * serials which are not revoked never allocate memory.
+ */
+public class MappedCRL implements IndexedCRL
+{
+	static final int RECORD_SIZE = 40;
+	private static final int TIME_OFFSET = 8;
+	private static final int REASON_OFFSET = 12;
+	private static final int LENGTH_OFFSET = 13;
+	private static final int SERIAL_OFFSET = 16;
+	private static final int MAX_SERIAL_LENGTH = RECORD_SIZE - SERIAL_OFFSET;
+	private static final long MAGIC = 0x554E4943524C4958L;
+	private static final int VERSION = 1;
+
+	private final ByteBuffer records;
+	private final int count;
+	private final X500Principal issuer;
+	private final Date thisUpdate;
+	private final Date nextUpdate;
+
+	private MappedCRL(ByteBuffer records, int count, X500Principal issuer, Date thisUpdate, Date nextUpdate)
+	{
+		this.records = records;
+		this.count = count;
+		this.issuer = issuer;
+		this.thisUpdate = thisUpdate;
+		this.nextUpdate = nextUpdate;
+	}
+
+	@Override
+	public X500Principal getIssuer()
+	{
+		return issuer;
+	}
+
+	@Override
+	public Date getThisUpdate()
+	{
+		return thisUpdate;
+	}
+
+	@Override
+	public Date getNextUpdate()
+	{
+		return nextUpdate;
+	}
+
+	@Override
+	public int size()
+	{
+		return count;
+	}
+
+	@Override
+	public int find(BigInteger serial)
+	{
+		long key = serial.longValue();
+		int low = 0;
+		int high = count - 1;
+		int found = -1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			long midKey = records.getLong(mid * RECORD_SIZE);
+			if (midKey < key)
+				low = mid + 1;
+			else if (midKey > key)
+				high = mid - 1;
+			else
+			{
+				found = mid;
+				break;
+			}
+		}
+		if (found < 0)
+			return -1;
+		while (found > 0 && records.getLong((found - 1) * RECORD_SIZE) == key)
+			found--;
+		boolean small = serial.bitLength() < 64;
+		for (int i = found; i < count && records.getLong(i * RECORD_SIZE) == key; i++)
+		{
+			int length = records.get(i * RECORD_SIZE + LENGTH_OFFSET);
+			if (small ? length <= 8 : serialEquals(i, length, serial))
+				return i;
+		}
+		return -1;
+	}
+
+	private boolean serialEquals(int index, int length, BigInteger serial)
+	{
+		byte[] encoded = serial.toByteArray();
+		if (encoded.length != length)
+			return false;
+		int base = index * RECORD_SIZE + SERIAL_OFFSET;
+		for (int i = 0; i < length; i++)
+			if (records.get(base + i) != encoded[i])
+				return false;
+		return true;
+	}
+
+	@Override
+	public Date getRevocationTime(int index)
+	{
+		return new Date(Integer.toUnsignedLong(records.getInt(index * RECORD_SIZE + TIME_OFFSET)) * 1000L);
+	}
+
+	@Override
+	public int getReason(int index)
+	{
+		return records.get(index * RECORD_SIZE + REASON_OFFSET);
+	}
+
+	/**
+	 * Writes records in the format used by {@link MappedCRL}, in arbitrary order.
+	 */
+	static class RecordWriter implements StreamingCRLParser.EntryHandler
+	{
+		private final DataOutputStream out;
+		private final byte[] padding = new byte[MAX_SERIAL_LENGTH];
+		private int count;
+
+		RecordWriter(OutputStream out)
+		{
+			this.out = new DataOutputStream(out);
+		}
+
+		@Override
+		public void revoked(BigInteger serial, Date revocationTime, int reason) throws IOException
+		{
+			byte[] encoded = serial.toByteArray();
+			if (encoded.length > MAX_SERIAL_LENGTH)
+				throw new IOException("Serial number " + serial + " is too long to be indexed");
+			out.writeLong(serial.longValue());
+			out.writeInt((int) (revocationTime.getTime() / 1000L));
+			out.writeByte(reason);
+			out.writeByte(encoded.length);
+			out.writeShort(0);
+			out.write(encoded);
+			out.write(padding, 0, MAX_SERIAL_LENGTH - encoded.length);
+			count++;
+		}
+
+		int getCount()
+		{
+			return count;
+		}
+
+		void flush() throws IOException
+		{
+			out.flush();
+		}
+	}
+
+	/**
+	 * Sorts records of the file in place and appends the trailer.
+	 */
+	static void finish(FileChannel channel, int count, StreamingCRLParser.CRLInfo info,
+			CRLSourceState state) throws IOException
+	{
+		if (count > 0)
+		{
+			MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, (long) count * RECORD_SIZE);
+			new RecordSorter(buffer).sort(0, count - 1);
+			buffer.force();
+		}
+		channel.position((long) count * RECORD_SIZE);
+		ByteArrayOutputStream trailerBytes = new ByteArrayOutputStream();
+		DataOutputStream trailer = new DataOutputStream(trailerBytes);
+		trailer.writeInt(VERSION);
+		trailer.writeInt(count);
+		trailer.writeLong(info.getThisUpdate().getTime());
+		trailer.writeLong(info.getNextUpdate() == null ? -1 : info.getNextUpdate().getTime());
+		writeBytes(trailer, info.getIssuer().getEncoded());
+		trailer.writeLong(state.lastModified);
+		trailer.writeLong(state.length);
+		writeBytes(trailer, state.digest);
+		writeString(trailer, state.etag);
+		writeString(trailer, state.lastModifiedHeader);
+		trailer.flush();
+		trailer.writeInt(trailerBytes.size());
+		trailer.writeLong(MAGIC);
+		trailer.flush();
+		channel.write(ByteBuffer.wrap(trailerBytes.toByteArray()));
+		channel.force(true);
+	}
+
+	/**
+	 * Maps an index file.
+	 * @return state of the CRL source, with the mapped CRL
+	 */
+	static CRLSourceState open(File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size < 12)
+				throw new IOException("CRL index file " + file + " is truncated");
+			ByteBuffer tail = ByteBuffer.allocate(12);
+			channel.read(tail, size - 12);
+			tail.flip();
+			int trailerLength = tail.getInt();
+			if (tail.getLong() != MAGIC || trailerLength <= 0 || trailerLength > size - 12)
+				throw new IOException("File " + file + " is not a valid CRL index");
+			ByteBuffer trailerBuffer = ByteBuffer.allocate(trailerLength);
+			channel.read(trailerBuffer, size - 12 - trailerLength);
+			DataInputStream trailer = new DataInputStream(
+					new ByteArrayInputStream(trailerBuffer.array()));
+			if (trailer.readInt() != VERSION)
+				throw new IOException("CRL index file " + file + " has unsupported version");
+			int count = trailer.readInt();
+			if ((long) count * RECORD_SIZE != size - 12 - trailerLength)
+				throw new IOException("CRL index file " + file + " is corrupted");
+			Date thisUpdate = new Date(trailer.readLong());
+			long next = trailer.readLong();
+			X500Principal issuer = new X500Principal(readBytes(trailer));
+			MappedByteBuffer records = channel.map(MapMode.READ_ONLY, 0, (long) count * RECORD_SIZE);
+			MappedCRL crl = new MappedCRL(records, count, issuer, thisUpdate, next < 0 ? null : new Date(next));
+			CRLSourceState state = new CRLSourceState(crl, false);
+			state.lastModified = trailer.readLong();
+			state.length = trailer.readLong();
+			state.digest = readBytes(trailer);
+			state.etag = readString(trailer);
+			state.lastModifiedHeader = readString(trailer);
+			return state;
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] data) throws IOException
+	{
+		out.writeInt(data == null ? -1 : data.length);
+		if (data != null)
+			out.write(data);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] ret = new byte[length];
+		in.readFully(ret);
+		return ret;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * In place quicksort of fixed size records, by their first long.
+	 */
+	private static class RecordSorter
+	{
+		private final ByteBuffer buffer;
+		private final byte[] tmpA = new byte[RECORD_SIZE];
+		private final byte[] tmpB = new byte[RECORD_SIZE];
+
+		private RecordSorter(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		private long key(int index)
+		{
+			return buffer.getLong(index * RECORD_SIZE);
+		}
+
+		private void sort(int low, int high)
+		{
+			while (low < high)
+			{
+				long pivot = key((low + high) >>> 1);
+				int i = low, j = high;
+				while (i <= j)
+				{
+					while (key(i) < pivot)
+						i++;
+					while (key(j) > pivot)
+						j--;
+					if (i <= j)
+						swap(i++, j--);
+				}
+				if (j - low < high - i)
+				{
+					sort(low, j);
+					low = i;
+				} else
+				{
+					sort(i, high);
+					high = j;
+				}
+			}
+		}
+
+		private void swap(int a, int b)
+		{
+			if (a == b)
+				return;
+			buffer.get(a * RECORD_SIZE, tmpA);
+			buffer.get(b * RECORD_SIZE, tmpB);
+			buffer.put(a * RECORD_SIZE, tmpB);
+			buffer.put(b * RECORD_SIZE, tmpA);
+		}
+	}
+
+}
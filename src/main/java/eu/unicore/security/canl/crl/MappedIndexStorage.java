@@ -0,0 +1,103 @@
+package eu.unicore.security.canl.crl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRLException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HexFormat;
+
+import org.apache.logging.log4j.Logger;
+
+import eu.unicore.util.Log;
+
+/**
+ * Keeps indexed CRLs off heap, in {@link MappedCRL} files stored in a directory. There is one
+ * file per CRL location, which is replaced atomically when the CRL is updated, so the
+ * previously mapped version stays valid for concurrent readers. Files created by a previous run
+ * are reused if the CRL location was not modified in the meantime.
+ * <p>
+ * The directory must be protected, in the same way as the CRL disk cache: index files are
+ * trusted and the CRL signatures are not verified again when they are loaded.
+ */
+class MappedIndexStorage implements CRLIndexStorage
+{
+	private static final Logger log = Log.getLogger(Log.SECURITY, MappedIndexStorage.class);
+	private static final String SUFFIX = ".crlidx";
+
+	private final File directory;
+
+	MappedIndexStorage(File directory)
+	{
+		this.directory = directory;
+	}
+
+	@Override
+	public IndexedCRL create(URL url, File crlData, CRLSourceState state,
+			Collection<X509Certificate> trustedIssuers) throws IOException, CRLException
+	{
+		File target = getIndexFile(url);
+		File tmp = File.createTempFile("crl", ".tmp", directory);
+		try
+		{
+			try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+					InputStream is = new BufferedInputStream(new FileInputStream(crlData), 65536))
+			{
+				MappedCRL.RecordWriter writer = new MappedCRL.RecordWriter(
+						new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+				StreamingCRLParser.CRLInfo info = StreamingCRLParser.parse(is, trustedIssuers, writer);
+				writer.flush();
+				MappedCRL.finish(channel, writer.getCount(), info, state);
+			}
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return MappedCRL.open(target).crl;
+		} finally
+		{
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	@Override
+	public CRLSourceState restore(URL url)
+	{
+		File file = getIndexFile(url);
+		if (!file.exists())
+			return null;
+		try
+		{
+			return MappedCRL.open(file);
+		} catch (IOException e)
+		{
+			log.warn("Can not reuse CRL index file " + file + ", it will be recreated: " + e.toString());
+			return null;
+		}
+	}
+
+	private File getIndexFile(URL url)
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] hash = md.digest(url.toExternalForm().getBytes(StandardCharsets.UTF_8));
+			return new File(directory, HexFormat.of().formatHex(hash, 0, 20) + SUFFIX);
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 is not supported by the JDK", e);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package eu.unicore.security.canl.crl;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Provides revocation information indexed by CRL issuer.
+ */
+public interface RevocationIndex
+{
+	/**
+	 * @return the most recent CRL of the issuer or null if there is none
+	 */
+	IndexedCRL getCRL(X500Principal issuer);
+
+	/**
+	 * Releases resources used by the index.
+	 */
+	default void dispose()
+	{
+	}
+}
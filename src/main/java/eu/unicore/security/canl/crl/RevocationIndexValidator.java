@@ -0,0 +1,101 @@
+package eu.unicore.security.canl.crl;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import eu.emi.security.authn.x509.CrlCheckingMode;
+import eu.emi.security.authn.x509.RevocationParameters;
+import eu.emi.security.authn.x509.ValidationError;
+import eu.emi.security.authn.x509.ValidationErrorCode;
+import eu.emi.security.authn.x509.ValidationResult;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.proxy.ProxyUtils;
+import eu.unicore.security.canl.DelegatingCertChainValidator;
+
+/**
+ * Performs CRL checking on behalf of the wrapped validator, using a {@link RevocationIndex}.
+ * The wrapped validator should be configured with CRL checking turned off.
+ * <p>
+ * After a successful validation by the wrapped validator, each (non-proxy, not self issued)
+ * certificate of the chain is checked against the CRL of its issuer. With the
+ * {@link CrlCheckingMode#IF_VALID} mode certificates are checked only if a CRL, which is not
+ * outdated, is available. With {@link CrlCheckingMode#REQUIRE} lack of such CRL is an error.
+ */
+public class RevocationIndexValidator extends DelegatingCertChainValidator
+{
+	private static final String[] REASONS = {"unspecified", "keyCompromise", "cACompromise",
+			"affiliationChanged", "superseded", "cessationOfOperation", "certificateHold", "unknown",
+			"removeFromCRL", "privilegeWithdrawn", "aACompromise"};
+
+	private final RevocationIndex index;
+	private final CrlCheckingMode mode;
+
+	public RevocationIndexValidator(X509CertChainValidatorExt delegate, RevocationIndex index,
+			CrlCheckingMode mode)
+	{
+		super(delegate);
+		this.index = index;
+		this.mode = mode;
+	}
+
+	@Override
+	public ValidationResult validate(X509Certificate[] certChain)
+	{
+		ValidationResult result = super.validate(certChain);
+		if (!result.isValid() || mode == CrlCheckingMode.IGNORE)
+			return result;
+		Date now = new Date();
+		List<ValidationError> errors = null;
+		for (int i=0; i<certChain.length; i++)
+		{
+			X509Certificate cert = certChain[i];
+			if (cert.getSubjectX500Principal().equals(cert.getIssuerX500Principal()) ||
+					ProxyUtils.isProxy(cert))
+				continue;
+			ValidationError error = check(certChain, i, now);
+			if (error != null)
+			{
+				if (errors == null)
+					errors = new ArrayList<>();
+				errors.add(error);
+			}
+		}
+		return errors == null ? result : addErrors(result, errors);
+	}
+
+	private ValidationError check(X509Certificate[] chain, int position, Date now)
+	{
+		X509Certificate cert = chain[position];
+		IndexedCRL crl = index.getCRL(cert.getIssuerX500Principal());
+		if (crl == null || !crl.isValidAt(now))
+			return mode == CrlCheckingMode.REQUIRE ?
+					new ValidationError(chain, position, ValidationErrorCode.noValidCrlFound) : null;
+		int idx = crl.find(cert.getSerialNumber());
+		if (idx < 0)
+			return null;
+		int reason = crl.getReason(idx);
+		return new ValidationError(chain, position, ValidationErrorCode.certRevoked,
+				crl.getRevocationTime(idx),
+				reason >= 0 && reason < REASONS.length ? REASONS[reason] : REASONS[0]);
+	}
+
+	/**
+	 * @return revocation settings of the wrapped validator, with the CRL mode used by this validator
+	 */
+	@Override
+	public RevocationParameters getRevocationCheckingMode()
+	{
+		RevocationParameters wrapped = super.getRevocationCheckingMode();
+		return new RevocationParameters(mode, wrapped.getOcspParameters(), wrapped.isUseAllEnabled(),
+				wrapped.getOrder());
+	}
+
+	@Override
+	protected void disposeValidator()
+	{
+		index.dispose();
+		super.disposeValidator();
+	}
+}
@@ -0,0 +1,213 @@
+package eu.unicore.security.canl.crl;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compact, immutable set of revoked serial numbers of a single CRL. Serial numbers fitting
+ * in a positive long are kept in a sorted <code>long[]</code>, the (rare) larger ones in a sorted
+ * array of {@link BigInteger}s. Revocation time (with seconds precision) and reason code are
+ * stored in parallel primitive arrays.
+ * <p>
+ * Instances are created with {@link Builder}.
+ */
+public class RevokedSerials
+{
+	private static final long[] NO_LONGS = new long[0];
+	private static final BigInteger[] NO_BIG = new BigInteger[0];
+	private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+	private final long[] serials;
+	private final int[] times;
+	private final byte[] reasons;
+	private final BigInteger[] bigSerials;
+	private final int[] bigTimes;
+	private final byte[] bigReasons;
+
+	private RevokedSerials(long[] serials, int[] times, byte[] reasons,
+			BigInteger[] bigSerials, int[] bigTimes, byte[] bigReasons)
+	{
+		this.serials = serials;
+		this.times = times;
+		this.reasons = reasons;
+		this.bigSerials = bigSerials;
+		this.bigTimes = bigTimes;
+		this.bigReasons = bigReasons;
+	}
+
+	/**
+	 * @return index of the serial, or a negative number if it is not revoked.
+	 * Non-negative indexes refer to {@link #getRevocationTime(int)} and {@link #getReason(int)}.
+	 */
+	public int find(BigInteger serial)
+	{
+		if (serial.signum() >= 0 && serial.bitLength() < 64)
+		{
+			int idx = Arrays.binarySearch(serials, serial.longValue());
+			return idx < 0 ? -1 : idx;
+		}
+		int idx = Arrays.binarySearch(bigSerials, serial);
+		return idx < 0 ? -1 : serials.length + idx;
+	}
+
+	public boolean isRevoked(BigInteger serial)
+	{
+		return find(serial) >= 0;
+	}
+
+	/**
+	 * @param index value returned by {@link #find(BigInteger)}
+	 */
+	public Date getRevocationTime(int index)
+	{
+		int time = index < serials.length ? times[index] : bigTimes[index - serials.length];
+		return new Date(Integer.toUnsignedLong(time) * 1000L);
+	}
+
+	/**
+	 * @param index value returned by {@link #find(BigInteger)}
+	 * @return CRL reason code as defined in RFC 5280
+	 */
+	public int getReason(int index)
+	{
+		return index < serials.length ? reasons[index] : bigReasons[index - serials.length];
+	}
+
+	public int size()
+	{
+		return serials.length + bigSerials.length;
+	}
+
+	/**
+	 * Collects revoked entries in arbitrary order. Not thread safe.
+	 */
+	public static class Builder
+	{
+		private long[] serials = new long[256];
+		private int[] times = new int[256];
+		private byte[] reasons = new byte[256];
+		private int count;
+		private final List<BigEntry> big = new ArrayList<>();
+
+		public Builder add(BigInteger serial, Date revocationTime, int reason)
+		{
+			int time = (int) (revocationTime.getTime() / 1000L);
+			if (serial.signum() >= 0 && serial.compareTo(MAX_LONG) <= 0)
+			{
+				if (count == serials.length)
+				{
+					int newSize = count * 2;
+					serials = Arrays.copyOf(serials, newSize);
+					times = Arrays.copyOf(times, newSize);
+					reasons = Arrays.copyOf(reasons, newSize);
+				}
+				serials[count] = serial.longValue();
+				times[count] = time;
+				reasons[count] = (byte) reason;
+				count++;
+			} else
+			{
+				big.add(new BigEntry(serial, time, (byte) reason));
+			}
+			return this;
+		}
+
+		public RevokedSerials build()
+		{
+			if (count == 0 && big.isEmpty())
+				return new RevokedSerials(NO_LONGS, new int[0], new byte[0], NO_BIG, new int[0], new byte[0]);
+			boolean sorted = true;
+			for (int i=1; i<count && sorted; i++)
+				sorted = serials[i-1] < serials[i];
+			if (!sorted)
+				sort(0, count - 1);
+			int n = 0;
+			for (int i=0; i<count; i++)
+			{
+				if (n > 0 && serials[n-1] == serials[i])
+					continue;
+				serials[n] = serials[i];
+				times[n] = times[i];
+				reasons[n] = reasons[i];
+				n++;
+			}
+			big.sort((a, b) -> a.serial.compareTo(b.serial));
+			BigInteger[] bSerials = new BigInteger[big.size()];
+			int[] bTimes = new int[big.size()];
+			byte[] bReasons = new byte[big.size()];
+			int m = 0;
+			for (BigEntry entry: big)
+			{
+				if (m > 0 && bSerials[m-1].equals(entry.serial))
+					continue;
+				bSerials[m] = entry.serial;
+				bTimes[m] = entry.time;
+				bReasons[m] = entry.reason;
+				m++;
+			}
+			return new RevokedSerials(Arrays.copyOf(serials, n), Arrays.copyOf(times, n),
+					Arrays.copyOf(reasons, n), Arrays.copyOf(bSerials, m),
+					Arrays.copyOf(bTimes, m), Arrays.copyOf(bReasons, m));
+		}
+
+		/**
+		 * In place quicksort of the parallel arrays, avoiding boxing of huge CRLs.
+		 */
+		private void sort(int low, int high)
+		{
+			while (low < high)
+			{
+				long pivot = serials[(low + high) >>> 1];
+				int i = low, j = high;
+				while (i <= j)
+				{
+					while (serials[i] < pivot)
+						i++;
+					while (serials[j] > pivot)
+						j--;
+					if (i <= j)
+						swap(i++, j--);
+				}
+				if (j - low < high - i)
+				{
+					sort(low, j);
+					low = i;
+				} else
+				{
+					sort(i, high);
+					high = j;
+				}
+			}
+		}
+
+		private void swap(int a, int b)
+		{
+			long s = serials[a];
+			serials[a] = serials[b];
+			serials[b] = s;
+			int t = times[a];
+			times[a] = times[b];
+			times[b] = t;
+			byte r = reasons[a];
+			reasons[a] = reasons[b];
+			reasons[b] = r;
+		}
+	}
+
+	private static class BigEntry
+	{
+		private final BigInteger serial;
+		private final int time;
+		private final byte reason;
+
+		private BigEntry(BigInteger serial, int time, byte reason)
+		{
+			this.serial = serial;
+			this.time = time;
+			this.reason = reason;
+		}
+	}
+}
@@ -0,0 +1,476 @@
+package eu.unicore.security.canl.crl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.TBSCertList;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+
+/**
+ * Parses X.509 CRLs (DER or PEM encoded) in a streaming fashion: revoked entries are passed
+ * to a handler one by one and never kept in memory all together, as it happens when
+ * {@link java.security.cert.X509CRL} is used. The CRL signature is verified on the fly,
+ * with the public key of one of the trusted issuers.
+ * <p>
+ * Only complete CRLs, covering all certificates of their issuer, are supported. Delta CRLs, 
+ * partitioned and indirect CRLs (with the issuing distribution point extension or with
+ * the certificate issuer entry extension), CRLs with other unrecognized critical extensions
+ * (RFC 5280, 5.2 and 5.3) and BER encoded CRLs are rejected.
+ */
+public class StreamingCRLParser
+{
+	private static final int MAX_ELEMENT_SIZE = 1024*1024;
+	private static final int TAG_INTEGER = 0x02;
+	private static final int TAG_SEQUENCE = 0x30;
+	private static final int TAG_UTC_TIME = 0x17;
+	private static final int TAG_GENERALIZED_TIME = 0x18;
+	private static final int TAG_EXTENSIONS = 0xA0;
+	private static final int TAG_BIT_STRING = 0x03;
+
+	private static final Set<ASN1ObjectIdentifier> CRL_EXTENSIONS = Set.of(Extension.authorityKeyIdentifier,
+			Extension.issuerAlternativeName, Extension.cRLNumber, Extension.authorityInfoAccess,
+			Extension.freshestCRL);
+	private static final Set<ASN1ObjectIdentifier> ENTRY_EXTENSIONS = Set.of(Extension.reasonCode,
+			Extension.invalidityDate, Extension.instructionCode);
+
+	/**
+	 * Receives revoked entries of a CRL.
+	 */
+	public interface EntryHandler
+	{
+		void revoked(BigInteger serial, Date revocationTime, int reason) throws IOException;
+	}
+
+	/**
+	 * Basic information about a parsed CRL.
+	 */
+	public static class CRLInfo
+	{
+		private final X500Principal issuer;
+		private final Date thisUpdate;
+		private final Date nextUpdate;
+		private final int entries;
+
+		public CRLInfo(X500Principal issuer, Date thisUpdate, Date nextUpdate, int entries)
+		{
+			this.issuer = issuer;
+			this.thisUpdate = thisUpdate;
+			this.nextUpdate = nextUpdate;
+			this.entries = entries;
+		}
+
+		public X500Principal getIssuer()
+		{
+			return issuer;
+		}
+
+		public Date getThisUpdate()
+		{
+			return thisUpdate;
+		}
+
+		public Date getNextUpdate()
+		{
+			return nextUpdate;
+		}
+
+		public int getEntries()
+		{
+			return entries;
+		}
+	}
+
+	/**
+	 * Parses the CRL into a {@link CompactCRL}.
+	 */
+	public static CompactCRL parse(InputStream is, Collection<X509Certificate> trustedIssuers)
+			throws IOException, CRLException
+	{
+		RevokedSerials.Builder builder = new RevokedSerials.Builder();
+		CRLInfo info = parse(is, trustedIssuers, builder::add);
+		return new CompactCRL(info.getIssuer(), info.getThisUpdate(), info.getNextUpdate(), builder.build());
+	}
+
+	/**
+	 * Parses the CRL, passing each revoked entry to the handler. Note that the CRL signature
+	 * is verified at the end, so the caller must discard the collected data if an exception is thrown.
+	 * @param is stream with PEM or DER encoded CRL. It is not closed.
+	 * @param trustedIssuers certificates which may have issued the CRL
+	 * @throws IOException if the CRL can not be read or is malformed
+	 * @throws CRLException if the CRL issuer is not trusted, its signature is invalid or the CRL is
+	 * not supported
+	 */
+	public static CRLInfo parse(InputStream is, Collection<X509Certificate> trustedIssuers,
+			EntryHandler handler) throws IOException, CRLException
+	{
+		DERReader reader = new DERReader(decode(is));
+		reader.expect(TAG_SEQUENCE);
+		reader.readLength();
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		reader.tee = header;
+		reader.expect(TAG_SEQUENCE);
+		long tbsEnd = reader.readLength();
+		tbsEnd += reader.position;
+
+		int tag = reader.readTag();
+		if (tag == TAG_INTEGER)
+		{
+			reader.readElement(tag);
+			tag = reader.readTag();
+		}
+		AlgorithmIdentifier algorithm = AlgorithmIdentifier.getInstance(reader.readElement(tag, TAG_SEQUENCE));
+		X500Principal issuer = new X500Principal(reader.readElement(reader.readTag(), TAG_SEQUENCE));
+
+		List<ContentVerifier> verifiers = getVerifiers(issuer, algorithm, trustedIssuers);
+		List<OutputStream> verifierStreams = new ArrayList<>(verifiers.size());
+		for (ContentVerifier verifier: verifiers)
+		{
+			OutputStream os = verifier.getOutputStream();
+			header.writeTo(os);
+			verifierStreams.add(os);
+		}
+		reader.tee = verifierStreams.size() == 1 ? verifierStreams.get(0) : new TeeOutputStream(verifierStreams);
+
+		Date thisUpdate = readTime(reader.readTag(), reader);
+		Date nextUpdate = null;
+		int entries = 0;
+		tag = reader.position < tbsEnd ? reader.readTag() : -1;
+		if (tag == TAG_UTC_TIME || tag == TAG_GENERALIZED_TIME)
+		{
+			nextUpdate = readTime(tag, reader);
+			tag = reader.position < tbsEnd ? reader.readTag() : -1;
+		}
+		if (tag == TAG_SEQUENCE)
+		{
+			long entriesEnd = reader.readLength();
+			entriesEnd += reader.position;
+			while (reader.position < entriesEnd)
+			{
+				TBSCertList.CRLEntry entry = TBSCertList.CRLEntry.getInstance(
+						reader.readElement(reader.readTag(), TAG_SEQUENCE));
+				checkEntryExtensions(entry.getExtensions());
+				handler.revoked(entry.getUserCertificate().getValue(),
+						entry.getRevocationDate().getDate(), getReason(entry));
+				entries++;
+			}
+			tag = reader.position < tbsEnd ? reader.readTag() : -1;
+		}
+		if (tag == TAG_EXTENSIONS)
+		{
+			ASN1Primitive wrapped = ASN1Primitive.fromByteArray(reader.readElement(tag));
+			Extensions extensions = Extensions.getInstance(
+					ASN1TaggedObject.getInstance(wrapped).getExplicitBaseObject());
+			checkCRLExtensions(extensions);
+		} else if (tag != -1)
+		{
+			throw new IOException("Unexpected element in CRL, tag " + tag);
+		}
+		if (reader.position != tbsEnd)
+			throw new IOException("Malformed CRL, wrong length of the signed content");
+		reader.tee = null;
+
+		AlgorithmIdentifier outerAlgorithm = AlgorithmIdentifier.getInstance(
+				reader.readElement(reader.readTag(), TAG_SEQUENCE));
+		if (!outerAlgorithm.equals(algorithm))
+			throw new CRLException("Signature algorithm of the CRL is inconsistent");
+		byte[] signature = DERBitString.getInstance(reader.readElement(reader.readTag(), TAG_BIT_STRING)).getOctets();
+		for (ContentVerifier verifier: verifiers)
+			if (verifier.verify(signature))
+				return new CRLInfo(issuer, thisUpdate, nextUpdate, entries);
+		throw new CRLException("Signature of the CRL issued by " + issuer + " is invalid");
+	}
+
+	private static void checkCRLExtensions(Extensions extensions) throws CRLException
+	{
+		if (extensions.getExtension(Extension.deltaCRLIndicator) != null)
+			throw new CRLException("Delta CRLs are not supported");
+		//regardless of its criticality, the CRL might not cover all certificates of the issuer
+		if (extensions.getExtension(Extension.issuingDistributionPoint) != null)
+			throw new CRLException("CRLs with the issuing distribution point extension " +
+					"(partitioned or indirect CRLs) are not supported");
+		for (ASN1ObjectIdentifier oid: extensions.getCriticalExtensionOIDs())
+			if (!CRL_EXTENSIONS.contains(oid))
+				throw new CRLException("Unsupported critical CRL extension " + oid);
+	}
+
+	private static void checkEntryExtensions(Extensions extensions) throws CRLException
+	{
+		if (extensions == null)
+			return;
+		if (extensions.getExtension(Extension.certificateIssuer) != null)
+			throw new CRLException("Indirect CRLs are not supported");
+		for (ASN1ObjectIdentifier oid: extensions.getCriticalExtensionOIDs())
+			if (!ENTRY_EXTENSIONS.contains(oid))
+				throw new CRLException("Unsupported critical CRL entry extension " + oid);
+	}
+
+	private static List<ContentVerifier> getVerifiers(X500Principal issuer, AlgorithmIdentifier algorithm,
+			Collection<X509Certificate> trustedIssuers) throws CRLException
+	{
+		List<ContentVerifier> ret = new ArrayList<>();
+		for (X509Certificate candidate: trustedIssuers)
+		{
+			if (!candidate.getSubjectX500Principal().equals(issuer))
+				continue;
+			try
+			{
+				ret.add(new JcaContentVerifierProviderBuilder().build(candidate).get(algorithm));
+			} catch (OperatorCreationException e)
+			{
+				throw new CRLException("Can not verify signature of the CRL issued by " + issuer +
+						": " + e.getMessage(), e);
+			}
+		}
+		if (ret.isEmpty())
+			throw new CRLException("The CRL issuer " + issuer + " is not trusted");
+		return ret;
+	}
+
+	private static Date readTime(int tag, DERReader reader) throws IOException
+	{
+		if (tag != TAG_UTC_TIME && tag != TAG_GENERALIZED_TIME)
+			throw new IOException("Malformed CRL, expected time, got tag " + tag);
+		return Time.getInstance(ASN1Primitive.fromByteArray(reader.readElement(tag))).getDate();
+	}
+
+	private static int getReason(TBSCertList.CRLEntry entry)
+	{
+		Extensions extensions = entry.getExtensions();
+		if (extensions == null)
+			return CRLReason.unspecified;
+		Extension reason = extensions.getExtension(Extension.reasonCode);
+		if (reason == null)
+			return CRLReason.unspecified;
+		return CRLReason.getInstance(reason.getParsedValue()).getValue().intValue();
+	}
+
+	/**
+	 * @return stream with DER encoded CRL, decoding PEM if needed
+	 */
+	private static InputStream decode(InputStream is) throws IOException
+	{
+		InputStream bis = is.markSupported() ? is : new BufferedInputStream(is);
+		bis.mark(1);
+		int first = bis.read();
+		bis.reset();
+		if (first == TAG_SEQUENCE)
+			return bis;
+		StringBuilder line = new StringBuilder();
+		while (true)
+		{
+			int c = bis.read();
+			if (c == -1)
+				throw new IOException("Neither DER nor PEM encoded CRL was found");
+			if (c == '\n')
+			{
+				if (line.toString().trim().startsWith("-----BEGIN"))
+					break;
+				line.setLength(0);
+			} else
+			{
+				line.append((char) c);
+			}
+		}
+		return Base64.getMimeDecoder().wrap(new PEMBodyInputStream(bis));
+	}
+
+	/**
+	 * Returns the base64 body of a PEM object, ending at the END line.
+	 */
+	private static class PEMBodyInputStream extends InputStream
+	{
+		private final InputStream is;
+		private boolean finished;
+
+		private PEMBodyInputStream(InputStream is)
+		{
+			this.is = is;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (finished)
+				return -1;
+			int c = is.read();
+			if (c == '-' || c == -1)
+			{
+				finished = true;
+				return -1;
+			}
+			return c;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+			int i = 0;
+			for (; i < len; i++)
+			{
+				int c = read();
+				if (c == -1)
+					break;
+				b[off + i] = (byte) c;
+			}
+			return i == 0 ? -1 : i;
+		}
+	}
+
+	private static class TeeOutputStream extends OutputStream
+	{
+		private final List<OutputStream> targets;
+
+		private TeeOutputStream(List<OutputStream> targets)
+		{
+			this.targets = targets;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			for (OutputStream os: targets)
+				os.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			for (OutputStream os: targets)
+				os.write(b, off, len);
+		}
+	}
+
+	/**
+	 * Minimal DER reader, copying all consumed bytes to an optional output stream.
+	 */
+	private static class DERReader
+	{
+		private final InputStream is;
+		private OutputStream tee;
+		private long position;
+		private final byte[] lengthBytes = new byte[9];
+		private int lengthBytesCount;
+
+		private DERReader(InputStream is)
+		{
+			this.is = is;
+		}
+
+		private int readByte() throws IOException
+		{
+			int b = is.read();
+			if (b == -1)
+				throw new EOFException("Premature end of CRL data");
+			position++;
+			if (tee != null)
+				tee.write(b);
+			return b;
+		}
+
+		private void readFully(byte[] buf, int off, int len) throws IOException
+		{
+			int read = 0;
+			while (read < len)
+			{
+				int r = is.read(buf, off + read, len - read);
+				if (r == -1)
+					throw new EOFException("Premature end of CRL data");
+				read += r;
+			}
+			position += len;
+			if (tee != null)
+				tee.write(buf, off, len);
+		}
+
+		private int readTag() throws IOException
+		{
+			int tag = readByte();
+			if ((tag & 0x1F) == 0x1F)
+				throw new IOException("Unsupported high tag number in CRL");
+			return tag;
+		}
+
+		private void expect(int tag) throws IOException
+		{
+			int read = readTag();
+			if (read != tag)
+				throw new IOException("Malformed CRL, expected tag " + tag + " got " + read);
+		}
+
+		private long readLength() throws IOException
+		{
+			int first = readByte();
+			lengthBytes[0] = (byte) first;
+			lengthBytesCount = 1;
+			if (first < 0x80)
+				return first;
+			int count = first & 0x7F;
+			if (count == 0)
+				throw new IOException("Indefinite length encoding is not supported, CRL must be DER encoded");
+			if (count > 8)
+				throw new IOException("Malformed CRL, invalid length");
+			long length = 0;
+			for (int i=0; i<count; i++)
+			{
+				int b = readByte();
+				lengthBytes[lengthBytesCount++] = (byte) b;
+				length = (length << 8) | b;
+			}
+			if (length < 0)
+				throw new IOException("Malformed CRL, invalid length");
+			return length;
+		}
+
+		private byte[] readElement(int tag, int expectedTag) throws IOException
+		{
+			if (tag != expectedTag)
+				throw new IOException("Malformed CRL, expected tag " + expectedTag + " got " + tag);
+			return readElement(tag);
+		}
+
+		/**
+		 * @return complete encoding of the element whose tag was just read
+		 */
+		private byte[] readElement(int tag) throws IOException
+		{
+			long length = readLength();
+			if (length > MAX_ELEMENT_SIZE)
+				throw new IOException("CRL element is too large: " + length);
+			byte[] ret = new byte[1 + lengthBytesCount + (int)length];
+			ret[0] = (byte) tag;
+			System.arraycopy(lengthBytes, 0, ret, 1, lengthBytesCount);
+			readFully(ret, 1 + lengthBytesCount, (int)length);
+			return ret;
+		}
+	}
+
+}
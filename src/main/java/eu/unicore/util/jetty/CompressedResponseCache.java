@@ -0,0 +1,243 @@
+package eu.unicore.util.jetty;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * Caches compressed representations of GET responses, so that they are not compressed again 
+ * on each request. The handler must wrap the compression handler.
+ * <p>
+ * Only compressed responses with an ETag, which are explicitly cacheable (with the public or max-age 
+ * cache control directive) and not marked as private or not to be stored, are cached, keyed by the request 
+ * path and query and the accepted encodings. As other request headers are not part of the key, responses 
+ * which vary on anything besides Accept-Encoding are not cached. When a cached 
+ * representation exists, the request is passed on with the If-None-Match header set to the cached ETag. 
+ * If the application confirms that the representation is current with the 304 status, 
+ * the cached compressed body is sent. Otherwise the new response is sent and cached.
+ * Requests which are conditional on their own are passed on unchanged.
+ */
+public class CompressedResponseCache extends Handler.Wrapper
+{
+	private static final EnumSet<HttpHeader> CACHED_HEADERS = EnumSet.of(HttpHeader.CONTENT_TYPE, 
+			HttpHeader.CONTENT_ENCODING, HttpHeader.CONTENT_LANGUAGE, HttpHeader.ETAG, HttpHeader.VARY, 
+			HttpHeader.CACHE_CONTROL, HttpHeader.LAST_MODIFIED);
+	private static final EnumSet<HttpHeader> CONDITIONAL_HEADERS = EnumSet.of(HttpHeader.IF_NONE_MATCH, 
+			HttpHeader.IF_MATCH, HttpHeader.IF_MODIFIED_SINCE, HttpHeader.IF_UNMODIFIED_SINCE, 
+			HttpHeader.IF_RANGE, HttpHeader.RANGE);
+
+	private final Map<String, CachedResponse> cache;
+	private final int maxEntrySize;
+
+	/**
+	 * @param maxEntries maximum number of cached responses, the least recently used are evicted
+	 * @param maxEntrySize maximum size of a cached compressed body
+	 */
+	public CompressedResponseCache(Handler handler, int maxEntries, int maxEntrySize)
+	{
+		super(handler);
+		this.maxEntrySize = maxEntrySize;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest)
+			{
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	@Override
+	public boolean handle(Request request, Response response, Callback callback) throws Exception
+	{
+		HttpFields headers = request.getHeaders();
+		String acceptEncoding = headers.get(HttpHeader.ACCEPT_ENCODING);
+		if (!HttpMethod.GET.is(request.getMethod()) || acceptEncoding == null || 
+				headers.contains(CONDITIONAL_HEADERS))
+			return super.handle(request, response, callback);
+
+		String key = request.getHttpURI().getPathQuery() + "|" + acceptEncoding;
+		CachedResponse cached = get(key);
+		Request effective = cached == null ? request : new RevalidatingRequest(request, cached.etag);
+		CachingResponse cachingResponse = new CachingResponse(effective, response, key, cached);
+		return super.handle(effective, cachingResponse, 
+				Callback.from(() -> cachingResponse.complete(callback), callback::failed));
+	}
+
+	/**
+	 * @return number of cached responses
+	 */
+	public int getSize()
+	{
+		synchronized (cache)
+		{
+			return cache.size();
+		}
+	}
+
+	private CachedResponse get(String key)
+	{
+		synchronized (cache)
+		{
+			return cache.get(key);
+		}
+	}
+
+	private void put(String key, CachedResponse response)
+	{
+		synchronized (cache)
+		{
+			if (response == null)
+				cache.remove(key);
+			else
+				cache.put(key, response);
+		}
+	}
+
+	private static boolean isCacheable(HttpFields headers)
+	{
+		if (!headers.contains(HttpHeader.ETAG) || !headers.contains(HttpHeader.CONTENT_ENCODING) || 
+				headers.contains(HttpHeader.SET_COOKIE))
+			return false;
+		for (String varied: headers.getCSV(HttpHeader.VARY, false))
+			if (!HttpHeader.ACCEPT_ENCODING.is(varied))
+				return false;
+		boolean explicit = false;
+		for (String directive: headers.getCSV(HttpHeader.CACHE_CONTROL, false))
+		{
+			int eq = directive.indexOf('=');
+			String name = (eq < 0 ? directive : directive.substring(0, eq)).trim().toLowerCase();
+			if (name.equals("no-store") || name.equals("private"))
+				return false;
+			if (name.equals("public") || name.equals("max-age") || name.equals("s-maxage"))
+				explicit = true;
+		}
+		return explicit;
+	}
+
+	private record CachedResponse(String etag, HttpFields headers, byte[] body)
+	{
+	}
+
+	private static class RevalidatingRequest extends Request.Wrapper
+	{
+		private final HttpFields headers;
+
+		private RevalidatingRequest(Request wrapped, String etag)
+		{
+			super(wrapped);
+			headers = HttpFields.build(wrapped.getHeaders()).put(HttpHeader.IF_NONE_MATCH, etag).asImmutable();
+		}
+
+		@Override
+		public HttpFields getHeaders()
+		{
+			return headers;
+		}
+	}
+
+	private class CachingResponse extends Response.Wrapper
+	{
+		private final String key;
+		private final CachedResponse cached;
+		private boolean decided;
+		private boolean fromCache;
+		private boolean sent;
+		private ByteArrayOutputStream capture;
+
+		private CachingResponse(Request request, Response wrapped, String key, CachedResponse cached)
+		{
+			super(request, wrapped);
+			this.key = key;
+			this.cached = cached;
+		}
+
+		@Override
+		public void write(boolean last, ByteBuffer content, Callback callback)
+		{
+			decide();
+			if (fromCache)
+			{
+				if (last)
+					sendCached(callback);
+				else
+					callback.succeeded();
+				return;
+			}
+			if (capture != null && content != null)
+			{
+				if (capture.size() + content.remaining() > maxEntrySize)
+					capture = null;
+				else
+					capture.writeBytes(BufferUtil.toArray(content.duplicate()));
+			}
+			super.write(last, content, callback);
+		}
+
+		private void decide()
+		{
+			if (decided)
+				return;
+			decided = true;
+			//status is not set until the response is committed, if the application did not set it explicitly
+			int status = getStatus() == 0 ? HttpStatus.OK_200 : getStatus();
+			if (cached != null && status == HttpStatus.NOT_MODIFIED_304)
+			{
+				fromCache = true;
+				setStatus(HttpStatus.OK_200);
+				HttpFields.Mutable headers = getHeaders();
+				for (HttpField field: cached.headers)
+					headers.put(field);
+				headers.put(HttpHeader.CONTENT_LENGTH, String.valueOf(cached.body.length));
+			} else if (status == HttpStatus.OK_200 && isCacheable(getHeaders()))
+			{
+				capture = new ByteArrayOutputStream();
+			} else if (cached != null)
+			{
+				put(key, null);
+			}
+		}
+
+		private void sendCached(Callback callback)
+		{
+			sent = true;
+			super.write(true, ByteBuffer.wrap(cached.body), callback);
+		}
+
+		private void complete(Callback callback)
+		{
+			decide();
+			if (fromCache)
+			{
+				if (sent)
+					callback.succeeded();
+				else
+					sendCached(callback);
+				return;
+			}
+			if (capture != null)
+			{
+				HttpFields.Mutable headers = HttpFields.build();
+				for (HttpField field: getHeaders())
+					if (CACHED_HEADERS.contains(field.getHeader()))
+						headers.add(field);
+				put(key, new CachedResponse(headers.get(HttpHeader.ETAG), headers.asImmutable(), 
+						capture.toByteArray()));
+			}
+			callback.succeeded();
+		}
+	}
+}
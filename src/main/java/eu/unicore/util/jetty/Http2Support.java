@@ -0,0 +1,95 @@
+package eu.unicore.util.jetty;
+
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * Creates HTTP/2 connection factories: h2 negotiated with ALPN on secured connectors and h2c on plain ones.
+ * The Jetty HTTP/2 server and ALPN modules are optional dependencies, so HTTP/2 is available only when
+ * they are present at runtime. Their classes are referenced only from {@link Factories}, which is not
+ * loaded unless {@link #isAvailable(boolean)} returns true.
+ */
+class Http2Support
+{
+	private static final String H2_FACTORY = "org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory";
+	private static final String ALPN_FACTORY = "org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory";
+	private static final String ALPN_PROCESSOR = "org.eclipse.jetty.alpn.java.server.JDK9ServerALPNProcessor";
+
+	private Http2Support()
+	{
+	}
+
+	/**
+	 * @return whether the modules required for HTTP/2 on a secured (ALPN) or plain connector are available
+	 */
+	static boolean isAvailable(boolean secure)
+	{
+		return isPresent(H2_FACTORY) && (!secure || (isPresent(ALPN_FACTORY) && isPresent(ALPN_PROCESSOR)));
+	}
+
+	/**
+	 * @return factories to be used after the SSL connection factory: ALPN, h2 and the given HTTP/1.1 factory,
+	 * which is used by clients not supporting ALPN
+	 */
+	static ConnectionFactory[] getSecureFactories(HttpConnectionFactory http1, HttpServerProperties settings,
+			SslContextFactory.Server sslContextFactory)
+	{
+		return Factories.getSecureFactories(http1, settings, sslContextFactory);
+	}
+
+	/**
+	 * @return the given HTTP/1.1 factory and h2c, so that both upgrade and prior knowledge h2c is supported
+	 */
+	static ConnectionFactory[] getPlainFactories(HttpConnectionFactory http1, HttpServerProperties settings)
+	{
+		return Factories.getPlainFactories(http1, settings);
+	}
+
+	private static boolean isPresent(String className)
+	{
+		try
+		{
+			Class.forName(className, false, Http2Support.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException e)
+		{
+			return false;
+		}
+	}
+
+	private static class Factories
+	{
+		private static ConnectionFactory[] getSecureFactories(HttpConnectionFactory http1,
+				HttpServerProperties settings, SslContextFactory.Server sslContextFactory)
+		{
+			HTTP2ServerConnectionFactory h2 = new HTTP2ServerConnectionFactory(http1.getHttpConfiguration());
+			configure(h2, settings);
+			ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory(h2.getProtocol(), http1.getProtocol());
+			alpn.setDefaultProtocol(http1.getProtocol());
+			sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+			sslContextFactory.setUseCipherSuitesOrder(true);
+			return new ConnectionFactory[] {alpn, h2, http1};
+		}
+
+		private static ConnectionFactory[] getPlainFactories(HttpConnectionFactory http1,
+				HttpServerProperties settings)
+		{
+			HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(http1.getHttpConfiguration());
+			configure(h2c, settings);
+			return new ConnectionFactory[] {http1, h2c};
+		}
+
+		private static void configure(AbstractHTTP2ServerConnectionFactory factory, HttpServerProperties settings)
+		{
+			factory.setMaxConcurrentStreams(settings.getIntValue(HttpServerProperties.HTTP2_MAX_CONCURRENT_STREAMS));
+			factory.setInitialSessionRecvWindow(settings.getIntValue(HttpServerProperties.HTTP2_SESSION_RECV_WINDOW));
+			factory.setInitialStreamRecvWindow(settings.getIntValue(HttpServerProperties.HTTP2_STREAM_RECV_WINDOW));
+		}
+	}
+}
@@ -60,16 +60,166 @@ public class HttpServerProperties extends PropertiesHelper
 	 */
 	public static final String MAX_THREADS = "maxThreads";
 
+	/**
+	 * whether requests should be processed by virtual threads
+	 */
+	public static final String USE_VIRTUAL_THREADS = "useVirtualThreads";
+
 	/**
 	 * maximum number of incoming connections (0 = no limit)
 	 */
 	public static final String MAX_CONNECTIONS = "maxConnections";
 
+	/**
+	 * maximum number of concurrently processed requests (0 = no limit)
+	 */
+	public static final String MAX_CONCURRENT_REQUESTS = "maxConcurrentRequests";
+
+	/**
+	 * maximum number of requests waiting for processing when the concurrency limit is reached
+	 */
+	public static final String MAX_QUEUED_REQUESTS = "maxQueuedRequests";
+
+	/**
+	 * maximum time (in ms.) a request waits for processing when the concurrency limit is reached
+	 */
+	public static final String MAX_QUEUE_TIME = "maxQueueTime";
+
+	/**
+	 * Prefix for the below defined per client rate limiting properties
+	 */
+	public static final String RATE_LIMIT_PREFIX = "rateLimit.";
+
+	/**
+	 * maximum sustained number of requests per second of a single client (0 = no limit)
+	 */
+	public static final String RATE_LIMIT_REQUESTS = RATE_LIMIT_PREFIX + "requestsPerSecond";
+
+	/**
+	 * number of requests a client may send in a burst above the sustained rate
+	 */
+	public static final String RATE_LIMIT_BURST = RATE_LIMIT_PREFIX + "burst";
+
+	/**
+	 * maximum number of tracked clients
+	 */
+	public static final String RATE_LIMIT_MAX_CLIENTS = RATE_LIMIT_PREFIX + "maxClients";
+
+	/**
+	 * Prefix for the below defined low resources monitoring properties
+	 */
+	public static final String LOW_RESOURCES_PREFIX = "lowResources.";
+
+	/**
+	 * whether to monitor the server resources and close idle connections earlier when they are low
+	 */
+	public static final String ENABLE_LOW_RESOURCES = LOW_RESOURCES_PREFIX + "enable";
+
+	/**
+	 * period (in ms.) of checking the resources
+	 */
+	public static final String LOW_RESOURCES_PERIOD = LOW_RESOURCES_PREFIX + "period";
+
+	/**
+	 * number of idle threads in the thread pool, below which the server is low on resources
+	 */
+	public static final String LOW_RESOURCES_THREADS = LOW_RESOURCES_PREFIX + "idleThreadsThreshold";
+
+	/**
+	 * heap usage (in bytes), above which the server is low on resources (0 = not monitored)
+	 */
+	public static final String LOW_RESOURCES_MAX_MEMORY = LOW_RESOURCES_PREFIX + "maxMemory";
+
+	/**
+	 * time (in ms.) before an idle connection will time out, when the server is low on resources
+	 */
+	public static final String LOW_RESOURCES_IDLE_TIME = LOW_RESOURCES_PREFIX + "maxIdleTime";
+
+	/**
+	 * whether new connections are accepted, when the server is low on resources
+	 */
+	public static final String LOW_RESOURCES_ACCEPT = LOW_RESOURCES_PREFIX + "acceptConnections";
+
 	/**
 	 * time (in ms.) before an idle connection will time out
 	 */
 	public static final String MAX_IDLE_TIME = "maxIdleTime";
 
+	/**
+	 * number of threads accepting connections of each listen URL (-1 = Jetty default)
+	 */
+	public static final String ACCEPTORS = "acceptors";
+
+	/**
+	 * number of selectors handling I/O of connections of each listen URL (-1 = Jetty default)
+	 */
+	public static final String SELECTORS = "selectors";
+
+	/**
+	 * size of the queue of connections waiting for being accepted (0 = OS default)
+	 */
+	public static final String ACCEPT_QUEUE_SIZE = "acceptQueueSize";
+
+	/**
+	 * whether to set SO_REUSEPORT on the listen sockets
+	 */
+	public static final String REUSE_PORT = "reusePort";
+
+	/**
+	 * whether to set TCP_NODELAY on the accepted sockets
+	 */
+	public static final String TCP_NO_DELAY = "tcpNoDelay";
+
+	/**
+	 * size of the buffer of response content
+	 */
+	public static final String OUTPUT_BUFFER_SIZE = "outputBufferSize";
+
+	/**
+	 * maximum size of response content writes which are aggregated before being sent
+	 */
+	public static final String OUTPUT_AGGREGATION_SIZE = "outputAggregationSize";
+
+	/**
+	 * maximum size of request headers
+	 */
+	public static final String REQUEST_HEADER_SIZE = "requestHeaderSize";
+
+	/**
+	 * maximum size of response headers
+	 */
+	public static final String RESPONSE_HEADER_SIZE = "responseHeaderSize";
+
+	/**
+	 * whether to use direct buffers for network I/O
+	 */
+	public static final String USE_DIRECT_BUFFERS = "useDirectBuffers";
+
+	/**
+	 * Prefix for the below defined buffer pool properties
+	 */
+	public static final String BUFFER_POOL_PREFIX = "bufferPool.";
+
+	/**
+	 * capacity of the largest pooled buffer
+	 */
+	public static final String BUFFER_POOL_MAX_CAPACITY = BUFFER_POOL_PREFIX + "maxCapacity";
+
+	/**
+	 * maximum number of pooled buffers of each size (-1 = unlimited)
+	 */
+	public static final String BUFFER_POOL_MAX_BUCKET_SIZE = BUFFER_POOL_PREFIX + "maxBucketSize";
+
+	/**
+	 * maximum heap memory retained by the pool (0 = Jetty heuristic, -1 = unlimited)
+	 */
+	public static final String BUFFER_POOL_MAX_HEAP_MEMORY = BUFFER_POOL_PREFIX + "maxHeapMemory";
+
+	/**
+	 * maximum direct memory retained by the pool (0 = Jetty heuristic, -1 = unlimited)
+	 */
+	public static final String BUFFER_POOL_MAX_DIRECT_MEMORY = BUFFER_POOL_PREFIX + "maxDirectMemory";
+
 	/**
 	 * Whether the SSL socket accept client-side authentication
 	 */
@@ -104,7 +254,87 @@ public class HttpServerProperties extends PropertiesHelper
 	 * Whether to enable compression?
 	 */
 	public static final String ENABLE_GZIP = GZIP_PREFIX + "enable";
+
+	/**
+	 * Gzip compression level
+	 */
+	public static final String GZIP_COMPRESSION_LEVEL = GZIP_PREFIX + "compressionLevel";
+
+	/**
+	 * Space separated MIME types which should be compressed
+	 */
+	public static final String COMPRESSED_MIME_TYPES = GZIP_PREFIX + "includedMimeTypes";
+
+	/**
+	 * Space separated MIME types which should not be compressed
+	 */
+	public static final String NOT_COMPRESSED_MIME_TYPES = GZIP_PREFIX + "excludedMimeTypes";
+
+	/**
+	 * Whether to offer Brotli compression, if available
+	 */
+	public static final String ENABLE_BROTLI = GZIP_PREFIX + "enableBrotli";
+
+	/**
+	 * Whether to offer Zstandard compression, if available
+	 */
+	public static final String ENABLE_ZSTD = GZIP_PREFIX + "enableZstandard";
+
+	/**
+	 * Maximum number of cached compressed responses
+	 */
+	public static final String COMPRESSION_CACHE_ENTRIES = GZIP_PREFIX + "cacheEntries";
+
+	/**
+	 * Maximum size of a cached compressed response
+	 */
+	public static final String COMPRESSION_CACHE_MAX_ENTRY_SIZE = GZIP_PREFIX + "cacheMaxEntrySize";
 	
+	/**
+	 * Prefix for the below defined HTTP/2 properties
+	 */
+	public static final String HTTP2_PREFIX = "http2.";
+
+	/**
+	 * Whether to enable HTTP/2
+	 */
+	public static final String ENABLE_HTTP2 = HTTP2_PREFIX + "enable";
+
+	/**
+	 * Maximum number of concurrent streams of a HTTP/2 connection
+	 */
+	public static final String HTTP2_MAX_CONCURRENT_STREAMS = HTTP2_PREFIX + "maxConcurrentStreams";
+
+	/**
+	 * Initial HTTP/2 flow control window of a connection
+	 */
+	public static final String HTTP2_SESSION_RECV_WINDOW = HTTP2_PREFIX + "initialSessionRecvWindow";
+
+	/**
+	 * Initial HTTP/2 flow control window of a stream
+	 */
+	public static final String HTTP2_STREAM_RECV_WINDOW = HTTP2_PREFIX + "initialStreamRecvWindow";
+
+	/**
+	 * Prefix for the below defined metrics properties
+	 */
+	public static final String METRICS_PREFIX = "metrics.";
+
+	/**
+	 * Whether to collect the server statistics
+	 */
+	public static final String ENABLE_METRICS = METRICS_PREFIX + "enable";
+
+	/**
+	 * Path of the text endpoint serving the metrics
+	 */
+	public static final String METRICS_ENDPOINT = METRICS_PREFIX + "endpoint";
+
+	/**
+	 * Maximum number of paths with separate latency histograms
+	 */
+	public static final String METRICS_MAX_PATHS = METRICS_PREFIX + "maxPaths";
+
 	public static final String ENABLE_HSTS = "enableHsts";
 	public static final String FRAME_OPTIONS = "xFrameOptions";
 	public static final String ALLOWED_TO_EMBED = "xFrameAllowed";
@@ -121,28 +351,131 @@ public class HttpServerProperties extends PropertiesHelper
 	public static final String CORS_CHAIN_PREFLIGHT = "CORS_chainPreflight";
 	
 
+	/**
+	 * number of threads running the TLS handshake tasks (0 = handshakes are processed by the connection threads)
+	 */
+	public static final String TLS_TASK_THREADS = "tlsTaskThreads";
+
+	/**
+	 * maximum number of TLS handshake tasks waiting for a thread
+	 */
+	public static final String TLS_TASK_QUEUE_SIZE = "tlsTaskQueueSize";
+
 	// enables more strict hostname checking e.g. no "localhost"
 	public static final String ENABLE_SNI = "enableSNI";
 	
 	@DocumentationReferenceMeta
 	protected final static Map<String, PropertyMD> defaults = new HashMap<>();
+	private static final String[] UPDATEABLE_PROPS = {MAX_THREADS, MIN_THREADS, MAX_CONNECTIONS, 
+			MAX_IDLE_TIME, LOW_RESOURCES_IDLE_TIME, RATE_LIMIT_REQUESTS, RATE_LIMIT_BURST};
 	
 	static{
 		DocumentationCategory _general= new DocumentationCategory("General settings", "1");
 		DocumentationCategory _cors = new DocumentationCategory("CORS settings", "7");
 		DocumentationCategory _advanced = new DocumentationCategory("Advanced settings", "9");
 
-		defaults.put(MAX_THREADS, new PropertyMD("255").setCategory(_general).
+		defaults.put(MAX_THREADS, new PropertyMD("255").setUpdateable().setCategory(_general).
 				setDescription("Maximum number of threads to have in the thread pool for processing HTTP connections."
 						+ " Note that this number will be increased with few additional threads to handle connectors."));
-		defaults.put(MIN_THREADS, new PropertyMD("1").setPositive().setCategory(_general).
+		defaults.put(MIN_THREADS, new PropertyMD("1").setPositive().setUpdateable().setCategory(_general).
 				setDescription("Minimum number of threads to have in the thread pool for processing HTTP connections. "
 						+ " Note that this number will be increased with few additional threads to handle connectors."));
-		defaults.put(MAX_CONNECTIONS, new PropertyMD("0").setNonNegative().setCategory(_general).
+		defaults.put(USE_VIRTUAL_THREADS, new PropertyMD("false").setCategory(_general).
+				setDescription("If true and the JVM supports virtual threads (Java 21 and newer), the blocking "
+						+ "processing of requests is done by virtual threads, so the number of concurrently processed "
+						+ "requests is not limited by " + MAX_THREADS + ", which then sizes only the pool used for "
+						+ "network I/O and TLS. Use " + MAX_CONNECTIONS + " to limit the load. Note that TLS handshakes "
+						+ "and some of the certificate validation code use synchronized blocks, which on older JVMs "
+						+ "pin the carrier thread while blocked. Ignored with a warning when virtual threads are not "
+						+ "supported."));
+		defaults.put(MAX_CONNECTIONS, new PropertyMD("0").setNonNegative().setUpdateable().setCategory(_general).
 				setDescription("Maximum number of incoming connections to this server. If set to a value larger than 0, "
 						+ "incoming connections will be limited to that number. Default is 0 = unlimited."));
-		defaults.put(MAX_IDLE_TIME, new PropertyMD("200000").setPositive().setCategory(_general).
+		defaults.put(MAX_CONCURRENT_REQUESTS, new PropertyMD("0").setNonNegative().setCategory(_general).
+				setDescription("Maximum number of requests processed concurrently. Further requests wait "
+						+ "for processing in a queue, limited by " + MAX_QUEUED_REQUESTS + " and " + MAX_QUEUE_TIME 
+						+ ", and are rejected with the 503 status when the queue is full or the time elapses. "
+						+ "Default is 0 = unlimited."));
+		defaults.put(MAX_QUEUED_REQUESTS, new PropertyMD("100").setNonNegative().setCategory(_general).
+				setDescription("Maximum number of requests waiting for processing, when " 
+						+ MAX_CONCURRENT_REQUESTS + " is reached."));
+		defaults.put(MAX_QUEUE_TIME, new PropertyMD("5000").setPositive().setCategory(_general).
+				setDescription("Maximum time (in ms.) a request waits for processing, when " 
+						+ MAX_CONCURRENT_REQUESTS + " is reached."));
+		defaults.put(RATE_LIMIT_REQUESTS, new PropertyMD("0").setNonNegative().setUpdateable().setCategory(_general).
+				setDescription("Maximum sustained number of requests per second accepted from a single client. "
+						+ "Clients are identified by the subject of the TLS client certificate or, if not authenticated, "
+						+ "by the IP address. Requests above the limit are rejected with the 429 status. "
+						+ "Default is 0 = unlimited. Changes at runtime are applied only if the limit was "
+						+ "enabled when the server was created."));
+		defaults.put(RATE_LIMIT_BURST, new PropertyMD("0").setNonNegative().setUpdateable().setCategory(_general).
+				setDescription("Number of requests a single client may send at once, before " 
+						+ RATE_LIMIT_REQUESTS + " is enforced. 0 means the same value as the rate."));
+		defaults.put(RATE_LIMIT_MAX_CLIENTS, new PropertyMD("10000").setPositive().setCategory(_advanced).
+				setDescription("Maximum number of clients tracked by the rate limiting. Requests of further "
+						+ "clients are not limited, until the idle clients are forgotten."));
+		defaults.put(MAX_IDLE_TIME, new PropertyMD("200000").setPositive().setUpdateable().setCategory(_general).
 				setDescription("Time (in ms.) before an idle connection will time out. It should be large enough not to expire connections with slow clients, values below 30s are getting quite risky."));
+		defaults.put(ENABLE_LOW_RESOURCES, new PropertyMD("false").setCategory(_advanced).
+				setDescription("Controls whether the server resources are monitored. When the thread pool is "
+						+ "running out of idle threads or the heap usage is too high, idle connections time out after "
+						+ LOW_RESOURCES_IDLE_TIME + ", so that keep-alive connections are shed. The state is available via JMX."));
+		defaults.put(LOW_RESOURCES_PERIOD, new PropertyMD("1000").setPositive().setCategory(_advanced).
+				setDescription("Period (in ms.) of checking whether the server is low on resources."));
+		defaults.put(LOW_RESOURCES_THREADS, new PropertyMD("1").setNonNegative().setCategory(_advanced).
+				setDescription("The server is low on resources, when the thread pool can not grow and has "
+						+ "less idle threads than this number. 0 turns the monitoring of threads off."));
+		defaults.put(LOW_RESOURCES_MAX_MEMORY, new PropertyMD("0").setNonNegative().setCategory(_advanced).
+				setDescription("The server is low on resources, when more heap memory (in bytes) is used. "
+						+ "Default is 0 = heap usage is not monitored."));
+		defaults.put(LOW_RESOURCES_IDLE_TIME, new PropertyMD("1000").setPositive().setUpdateable().setCategory(_advanced).
+				setDescription("Time (in ms.) before an idle connection will time out, when the server is low on resources."));
+		defaults.put(LOW_RESOURCES_ACCEPT, new PropertyMD("true").setCategory(_advanced).
+				setDescription("Controls whether new connections are accepted, when the server is low on resources."));
+		defaults.put(ACCEPTORS, new PropertyMD("-1").setMin(-1).setCategory(_advanced).
+				setDescription("Number of threads accepting connections of each listen URL. The default -1 selects "
+						+ "a value between 1 and 4 depending on the number of CPUs. Acceptor threads are taken from "
+						+ "the thread pool."));
+		defaults.put(SELECTORS, new PropertyMD("-1").setMin(-1).setCategory(_advanced).
+				setDescription("Number of selectors handling network I/O of connections of each listen URL. "
+						+ "The default -1 selects a value depending on the number of CPUs. Selector threads are "
+						+ "taken from the thread pool."));
+		defaults.put(ACCEPT_QUEUE_SIZE, new PropertyMD("0").setNonNegative().setCategory(_advanced).
+				setDescription("Size of the queue of incoming connections waiting for being accepted (TCP backlog). "
+						+ "The default 0 uses the operating system default."));
+		defaults.put(REUSE_PORT, new PropertyMD("false").setCategory(_advanced).
+				setDescription("Controls whether the SO_REUSEPORT option is set on the listen sockets, what "
+						+ "allows several processes to listen on the same port, if supported by the operating system."));
+		defaults.put(TCP_NO_DELAY, new PropertyMD("true").setCategory(_advanced).
+				setDescription("Controls whether the TCP_NODELAY option is set on the accepted connections, "
+						+ "what disables the Nagle's algorithm."));
+		defaults.put(OUTPUT_BUFFER_SIZE, new PropertyMD("32768").setPositive().setCategory(_advanced).
+				setDescription("Size (in bytes) of the buffer of response content. Larger buffers allow to "
+						+ "send large responses (e.g. file downloads) with fewer writes, at the cost of memory "
+						+ "used by each request."));
+		defaults.put(OUTPUT_AGGREGATION_SIZE, new PropertyMD("8192").setPositive().setCategory(_advanced).
+				setDescription("Maximum size (in bytes) of writes of response content, which are copied into "
+						+ "the response buffer and sent together. Larger writes are sent directly. Must not be larger than "
+						+ OUTPUT_BUFFER_SIZE + "."));
+		defaults.put(REQUEST_HEADER_SIZE, new PropertyMD("8192").setPositive().setCategory(_advanced).
+				setDescription("Maximum size (in bytes) of the headers of a request."));
+		defaults.put(RESPONSE_HEADER_SIZE, new PropertyMD("8192").setPositive().setCategory(_advanced).
+				setDescription("Maximum size (in bytes) of the headers of a response."));
+		defaults.put(USE_DIRECT_BUFFERS, new PropertyMD("true").setCategory(_advanced).
+				setDescription("Controls whether direct (off-heap) buffers are used for reading requests "
+						+ "and writing responses."));
+		defaults.put(BUFFER_POOL_MAX_CAPACITY, new PropertyMD("65536").setPositive().setCategory(_advanced).
+				setDescription("Capacity (in bytes) of the largest buffer kept in the buffer pool. Larger buffers "
+						+ "are allocated on each use, so this value should not be smaller than " + OUTPUT_BUFFER_SIZE + "."));
+		defaults.put(BUFFER_POOL_MAX_BUCKET_SIZE, new PropertyMD("-1").setMin(-1).setCategory(_advanced).
+				setDescription("Maximum number of buffers of each size kept in the buffer pool. "
+						+ "The default -1 means unlimited."));
+		defaults.put(BUFFER_POOL_MAX_HEAP_MEMORY, new PropertyMD("0").setMin(-1).setCategory(_advanced).
+				setDescription("Maximum heap memory (in bytes) retained by the buffer pool, buffers above the limit "
+						+ "are released. 0 selects a fraction of the maximum heap size, -1 means unlimited."));
+		defaults.put(BUFFER_POOL_MAX_DIRECT_MEMORY, new PropertyMD("0").setMin(-1).setCategory(_advanced).
+				setDescription("Maximum direct memory (in bytes) retained by the buffer pool, buffers above the limit "
+						+ "are released. 0 selects a fraction of the maximum direct memory size, -1 means unlimited."));
 		defaults.put(FAST_RANDOM, new PropertyMD("false").setCategory(_advanced).
 				setDescription("Use insecure, but fast pseudo random generator to generate SSL session ids."));
 		defaults.put(WANT_CLIENT_AUTHN, new PropertyMD("true").setCategory(_general).
@@ -162,7 +495,51 @@ public class HttpServerProperties extends PropertiesHelper
 				setDescription("Specifies the minimal size of message that should be compressed."));
 		defaults.put(ENABLE_GZIP, new PropertyMD("false").setCategory(_advanced).
 				setDescription("Controls whether to enable compression of HTTP responses."));
+		defaults.put(GZIP_COMPRESSION_LEVEL, new PropertyMD("-1").setBounds(-1, 9).setCategory(_advanced).
+				setDescription("Gzip compression level, from 1 (fastest) to 9 (best compression). "
+						+ "The default -1 is a balanced level."));
+		defaults.put(COMPRESSED_MIME_TYPES, new PropertyMD("").setCategory(_advanced).
+				setDescription("Space separated list of MIME types of responses which should be compressed. "
+						+ "If empty all types are compressed, except of those which are already compressed "
+						+ "(e.g. images or archives)."));
+		defaults.put(NOT_COMPRESSED_MIME_TYPES, new PropertyMD("").setCategory(_advanced).
+				setDescription("Space separated list of additional MIME types of responses which should not be compressed."));
+		defaults.put(ENABLE_BROTLI, new PropertyMD("false").setCategory(_advanced).
+				setDescription("Offer Brotli compression to clients supporting it. Requires the Jetty Brotli "
+						+ "compression module and its native library on the classpath, otherwise only gzip is used."));
+		defaults.put(ENABLE_ZSTD, new PropertyMD("false").setCategory(_advanced).
+				setDescription("Offer Zstandard compression to clients supporting it. Requires the Jetty Zstandard "
+						+ "compression module and its native library on the classpath, otherwise only gzip is used."));
+		defaults.put(COMPRESSION_CACHE_ENTRIES, new PropertyMD("0").setNonNegative().setCategory(_advanced).
+				setDescription("If positive, compressed GET responses having an ETag, marked as public or with max-age, "
+						+ "and not varying on request headers other than Accept-Encoding are "
+						+ "cached, up to this number of entries. Cached responses are revalidated with a conditional "
+						+ "request, and sent without compressing them again if the application confirms "
+						+ "they are current (what requires support of If-None-Match in the application)."));
+		defaults.put(COMPRESSION_CACHE_MAX_ENTRY_SIZE, new PropertyMD("1048576").setPositive().setCategory(_advanced).
+				setDescription("Maximum size in bytes of a compressed response which is cached."));
+
+		defaults.put(ENABLE_HTTP2, new PropertyMD("false").setCategory(_advanced).
+				setDescription("Controls whether HTTP/2 is enabled: negotiated with ALPN on https listen URLs "
+						+ "and as h2c on plain ones, together with HTTP/1.1. Requires the Jetty HTTP/2 server module "
+						+ "(and the ALPN module for https) on the classpath, otherwise only HTTP/1.1 is used."));
+		defaults.put(HTTP2_MAX_CONCURRENT_STREAMS, new PropertyMD("128").setPositive().setCategory(_advanced).
+				setDescription("Maximum number of concurrent streams (requests) of a single HTTP/2 connection."));
+		defaults.put(HTTP2_SESSION_RECV_WINDOW, new PropertyMD("1048576").setPositive().setCategory(_advanced).
+				setDescription("Initial HTTP/2 flow control window (in bytes) of a connection."));
+		defaults.put(HTTP2_STREAM_RECV_WINDOW, new PropertyMD("524288").setPositive().setCategory(_advanced).
+				setDescription("Initial HTTP/2 flow control window (in bytes) of a single stream."));
 		
+		defaults.put(ENABLE_METRICS, new PropertyMD("false").setCategory(_advanced).
+				setDescription("Controls whether statistics of requests, connections, TLS handshakes, the thread pool "
+						+ "and the buffer pool, and histograms of request latency per path are collected. "
+						+ "The statistics are available via JMX."));
+		defaults.put(METRICS_ENDPOINT, new PropertyMD("").setCategory(_advanced).
+				setDescription("If set, the metrics are served in the Prometheus text format for GET requests of "
+						+ "this path (e.g. /metrics), without any authorization. Used only if " + ENABLE_METRICS + " is true."));
+		defaults.put(METRICS_MAX_PATHS, new PropertyMD("100").setPositive().setCategory(_advanced).
+				setDescription("Maximum number of request paths with separate latency histograms. The path of a request is "
+						+ "reduced to its first segment, latency of requests of further paths is recorded together."));
 		defaults.put(ENABLE_HSTS, new PropertyMD("false").setCategory(_advanced).
 				setDescription("Control whether HTTP strict transport security is enabled. "
 						+ "It is a good and strongly suggested security mechanism for all production sites. "
@@ -192,6 +569,17 @@ public class HttpServerProperties extends PropertiesHelper
 				setDescription("CORS: comma separated list of HTTP headers that are allowed to be exposed to the client."));
 		defaults.put(CORS_CHAIN_PREFLIGHT, new PropertyMD("false").setCategory(_cors).
 				setDescription("CORS: whether preflight OPTION requests are chained (passed on) to the resource or handled via the CORS filter."));
+		defaults.put(TLS_TASK_THREADS, new PropertyMD("0").setNonNegative().setCategory(_advanced).
+				setDescription("If positive, the expensive parts of TLS handshakes (including the private key "
+						+ "operations) are run by a dedicated pool with this number of threads, what limits the number "
+						+ "of threads of the main pool which are busy with handshakes. A thread of the main pool waits "
+						+ "for each running or queued handshake, so the sum of this value and " + TLS_TASK_QUEUE_SIZE 
+						+ " must not exceed half of " + MAX_THREADS + ". "
+						+ "Statistics of the pool are available via JMX."));
+		defaults.put(TLS_TASK_QUEUE_SIZE, new PropertyMD("0").setNonNegative().setCategory(_advanced).
+				setDescription("Maximum number of TLS handshakes waiting for a thread of the handshake pool. "
+						+ "Further handshakes are rejected. 0 means the same as " + TLS_TASK_THREADS + ". "
+						+ "Used only if " + TLS_TASK_THREADS + " is positive."));
 		defaults.put(ENABLE_SNI, new PropertyMD("false").setCategory(_advanced).
 				setDescription("Enable Server Name Indication (SNI)"));
 	}
@@ -218,6 +606,15 @@ public class HttpServerProperties extends PropertiesHelper
 	}
 	
 	
+	/**
+	 * @return properties which are applied to a running server, when changed with 
+	 * {@link #setProperties(Properties)}. Other properties are used only when the server is created.
+	 */
+	public String[] getUpdateableProperties()
+	{
+		return UPDATEABLE_PROPS;
+	}
+
 	/**
 	 * @return Jetty settings useful for tests, with insecure random
 	 */
@@ -9,6 +9,7 @@ import java.security.cert.X509Certificate;
 
 import javax.net.ssl.HandshakeCompletedEvent;
 import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSocket;
 
@@ -33,19 +34,34 @@ public class JettyConnectorUtils
 			NoSuchProviderException, KeyManagementException
 	{
 		SslContextFactory.Server ret = new SslContextFactory.Server();
-		String protocol = "TLS"; 
-		ret.setSslContext(SSLContextCreator.createSSLContext(credential, validator, protocol, 
-				"Jetty HTTP Server", log, ServerHostnameCheckingMode.NONE));
+		ret.setSslContext(createServerSSLContext(validator, credential, log));
 		return ret;
 	}
-	
+
+	/**
+	 * @return SSL context for Jetty connectors. The same context can be shared by many connectors.
+	 */
+	public static SSLContext createServerSSLContext(X509CertChainValidator validator,
+			X509Credential credential, Logger log) throws NoSuchAlgorithmException, 
+			NoSuchProviderException, KeyManagementException
+	{
+		String protocol = "TLS"; 
+		return SSLContextCreator.createSSLContext(credential, validator, protocol, 
+				"Jetty HTTP Server", log, ServerHostnameCheckingMode.NONE);
+	}
 	
 	public static void reloadCredential(SslContextFactory.Server contextFactory, X509Credential newCredential, 
 			X509CertChainValidator validator, Logger log) throws Exception {
-		String protocol = "TLS";
-		contextFactory.setSslContext(SSLContextCreator.createSSLContext(newCredential, validator, protocol, 
-				"Jetty HTTP Server", log, ServerHostnameCheckingMode.NONE));
-		contextFactory.reload(scf->{});	
+		replaceSslContext(contextFactory, createServerSSLContext(validator, newCredential, log));
+	}
+
+	/**
+	 * Replaces the SSL context of a (possibly running) context factory. Handshakes which are 
+	 * in progress are completed with the previous context.
+	 */
+	public static void replaceSslContext(SslContextFactory.Server contextFactory, SSLContext sslContext) 
+			throws Exception {
+		contextFactory.reload(scf -> scf.setSslContext(sslContext));
 	}
 
 	public static void logConnection(final Socket socket, final Logger log) {
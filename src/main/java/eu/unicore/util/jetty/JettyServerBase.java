@@ -1,19 +1,44 @@
 package eu.unicore.util.jetty;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.net.ssl.SSLContext;
 
 import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.compression.Compression;
 import org.eclipse.jetty.compression.gzip.GzipCompression;
+import org.eclipse.jetty.compression.gzip.GzipEncoderConfig;
+import org.eclipse.jetty.compression.server.CompressionConfig;
 import org.eclipse.jetty.compression.server.CompressionHandler;
 import org.eclipse.jetty.ee10.servlet.ErrorHandler;
 import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
 import org.eclipse.jetty.rewrite.handler.HeaderPatternRule;
 import org.eclipse.jetty.rewrite.handler.RewriteHandler;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.SelectorManager;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.LowResourceMonitor;
 import org.eclipse.jetty.server.NetworkConnectionLimit;
 import org.eclipse.jetty.server.NetworkConnector;
 import org.eclipse.jetty.server.Request;
@@ -22,15 +47,25 @@ import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.CrossOriginHandler;
+import org.eclipse.jetty.server.handler.DoSHandler;
+import org.eclipse.jetty.server.handler.QoSHandler;
 import org.eclipse.jetty.session.DefaultSessionIdManager;
 import org.eclipse.jetty.session.SessionIdManager;
 import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.VirtualThreads;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
+import eu.emi.security.authn.x509.X509Credential;
+import eu.unicore.security.canl.AuthnAndTrustProperties;
+import eu.unicore.security.canl.CredentialExpiryMonitor;
+import eu.unicore.security.canl.CredentialProperties;
+import eu.unicore.security.canl.FileChangeWatcher;
 import eu.unicore.security.canl.IAuthnAndTrustConfiguration;
+import eu.unicore.security.canl.TruststoreProperties;
 import eu.unicore.util.Log;
 import eu.unicore.util.configuration.ConfigurationException;
+import eu.unicore.util.configuration.PropertyChangeListener;
 import eu.unicore.util.jetty.HttpServerProperties.XFrameOptions;
 import jakarta.servlet.http.HttpServletResponse;
 
@@ -45,6 +80,8 @@ import jakarta.servlet.http.HttpServletResponse;
 public abstract class JettyServerBase {
 
 	private static final Logger logger=Log.getLogger(Log.HTTP_SERVER, JettyServerBase.class);
+	private static final String BROTLI_COMPRESSION = "org.eclipse.jetty.compression.brotli.BrotliCompression";
+	private static final String ZSTD_COMPRESSION = "org.eclipse.jetty.compression.zstandard.ZstandardCompression";
 
 	protected final URL[] listenUrls;
 	protected final IAuthnAndTrustConfiguration securityConfiguration;
@@ -52,6 +89,18 @@ public abstract class JettyServerBase {
 
 	private Handler rootHandler;
 	private Server theServer;
+	private final List<FileChangeWatcher.Registration> securityWatches = new ArrayList<>();
+	private CredentialExpiryMonitor expiryMonitor;
+	private boolean credentialWatched;
+	private TlsTaskExecutor tlsTaskExecutor;
+	private LowResourceMonitor lowResourceMonitor;
+	private NetworkConnectionLimit connectionLimit;
+	private UpdateableRateLimit rateLimit;
+	private final PropertyChangeListener settingsListener = new SettingsChangeListener();
+	private ServerMetrics serverMetrics;
+	private final List<ObjectName> mbeanNames = new ArrayList<>();
+	private X509Credential sslCredential;
+	private boolean sslContextPending;
 
 	/**
 	 * Simplified constructor with only a single listen URL
@@ -87,13 +136,28 @@ public abstract class JettyServerBase {
 
 	public void start() throws Exception{
 		logger.debug("Starting Jetty HTTP server");
+		initPendingSslContexts();
 		theServer.start();
 		updatePortsIfNeeded();
+		watchSecurityFiles();
+		monitorCredentialExpiry();
+		registerMBeans();
+		extraSettings.addPropertyChangeListener(settingsListener);
 		logger.info("Jetty HTTP server was started");
 	}
 
 	public void stop() throws Exception{
 		logger.debug("Stopping Jetty HTTP server");
+		extraSettings.removePropertyChangeListener(settingsListener);
+		for (FileChangeWatcher.Registration watch: securityWatches)
+			watch.cancel();
+		securityWatches.clear();
+		credentialWatched = false;
+		if (expiryMonitor != null) {
+			expiryMonitor.stop();
+			expiryMonitor = null;
+		}
+		unregisterMBeans();
 		theServer.stop();
 		logger.info("Jetty HTTP server was stopped");
 	}
@@ -113,7 +177,10 @@ public abstract class JettyServerBase {
 		for (Connector connector: connectors) {
 			theServer.addConnector(connector);
 		}
+		if (theServer.getThreadPool() instanceof QueuedThreadPool pool)
+			setThreadPoolSize(pool);
 		configureResourceMonitoring();
+		configureMetrics();
 		rootHandler = createRootHandler();
 		Handler handler = configureHandlers(rootHandler);
 		theServer.setHandler(handler);
@@ -122,7 +189,7 @@ public abstract class JettyServerBase {
 	}
 
 	protected Server createServer(){
-		return new Server(getThreadPool()) {
+		return new Server(getThreadPool(), null, getByteBufferPool()) {
 			@Override
 		    public boolean handle(Request request, Response response, Callback callback) throws Exception {
 		        if ("TRACE".equals(request.getMethod())){
@@ -148,12 +215,64 @@ public abstract class JettyServerBase {
 	protected QueuedThreadPool getThreadPool()
 	{
 		QueuedThreadPool btPool=new QueuedThreadPool();
-		int extraThreads = listenUrls.length * 3;
-		btPool.setMaxThreads(extraSettings.getIntValue(HttpServerProperties.MAX_THREADS) + extraThreads);
-		btPool.setMinThreads(extraSettings.getIntValue(HttpServerProperties.MIN_THREADS) + extraThreads);
+		//threads occupied by acceptors and selectors are added when the connectors are created
+		btPool.setMaxThreads(extraSettings.getIntValue(HttpServerProperties.MAX_THREADS));
+		btPool.setMinThreads(extraSettings.getIntValue(HttpServerProperties.MIN_THREADS));
+		if (extraSettings.getIntValue(HttpServerProperties.LOW_RESOURCES_THREADS) > 0)
+			btPool.setLowThreadsThreshold(extraSettings.getIntValue(HttpServerProperties.LOW_RESOURCES_THREADS));
+		if (extraSettings.getBooleanValue(HttpServerProperties.USE_VIRTUAL_THREADS)) {
+			if (VirtualThreads.areSupported()) {
+				btPool.setVirtualThreadsExecutor(VirtualThreads.getNamedVirtualThreadsExecutor("unicore-vt"));
+				logger.info("Requests will be processed by virtual threads");
+			} else {
+				logger.warn("Virtual threads are not supported by this JVM, requests will be processed by "
+						+ "the thread pool of at most {} threads", btPool.getMaxThreads());
+			}
+		}
 		return btPool;
 	}
 
+	/**
+	 * Sets the size of the pool to the configured number of threads processing requests, 
+	 * increased by the threads occupied by acceptors and selectors of the server connectors.
+	 */
+	private void setThreadPoolSize(QueuedThreadPool pool)
+	{
+		int extraThreads = getConnectorThreads();
+		pool.setMaxThreads(extraSettings.getIntValue(HttpServerProperties.MAX_THREADS) + extraThreads);
+		pool.setMinThreads(extraSettings.getIntValue(HttpServerProperties.MIN_THREADS) + extraThreads);
+	}
+
+	/**
+	 * @return number of threads of the pool occupied by acceptors and selectors, as resolved 
+	 * by the connectors, also when Jetty defaults are used
+	 */
+	private int getConnectorThreads()
+	{
+		int ret = 0;
+		for (Connector connector: theServer.getConnectors()) {
+			if (connector instanceof AbstractConnector abstractConnector)
+				ret += abstractConnector.getAcceptors();
+			SelectorManager selectorManager = connector.getBean(SelectorManager.class);
+			if (selectorManager != null)
+				ret += selectorManager.getSelectorCount();
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the pool of buffers used for network I/O, shared by all connectors
+	 */
+	protected ByteBufferPool getByteBufferPool()
+	{
+		int maxBucketSize = extraSettings.getIntValue(HttpServerProperties.BUFFER_POOL_MAX_BUCKET_SIZE);
+		return new ArrayByteBufferPool(0, -1, 
+				extraSettings.getIntValue(HttpServerProperties.BUFFER_POOL_MAX_CAPACITY), 
+				maxBucketSize < 0 ? Integer.MAX_VALUE : maxBucketSize, 
+				extraSettings.getLongValue(HttpServerProperties.BUFFER_POOL_MAX_HEAP_MEMORY), 
+				extraSettings.getLongValue(HttpServerProperties.BUFFER_POOL_MAX_DIRECT_MEMORY));
+	}
+
 	/**
 	 * configure all the handlers that need to be chained around the root handler
 	 * @param toWrap
@@ -164,6 +283,8 @@ public abstract class JettyServerBase {
 		handler = configureGzip(handler);
 		handler = configureFrame(handler);
 		handler = configureHsts(handler);
+		handler = configureAdmissionControl(handler);
+		handler = configureStatistics(handler);
 		return handler;
 	}
 
@@ -220,14 +341,50 @@ public abstract class JettyServerBase {
 	}
 	
 	protected Connector[] createConnectors() throws ConfigurationException {
-		ServerConnector[] ret = new ServerConnector[listenUrls.length];
+		Connector[] ret = new Connector[listenUrls.length];
 		for (int i=0; i<listenUrls.length; i++) {
-			ret[i] = createConnector(listenUrls[i]);
-			configureConnector(ret[i], listenUrls[i]);
+			if (UnixDomainSupport.PROTOCOL.equals(listenUrls[i].getProtocol())) {
+				ret[i] = createUnixDomainConnector(listenUrls[i]);
+			} else {
+				ServerConnector connector = createConnector(listenUrls[i]);
+				configureConnector(connector, listenUrls[i]);
+				ret[i] = connector;
+			}
 		}
 		return ret;
 	}
 
+	/**
+	 * @return listen URL of a Unix domain socket, which can be passed to the constructor 
+	 * together with other listen URLs
+	 */
+	public static URL createUnixDomainListenUrl(Path socketPath) {
+		return UnixDomainSupport.createURL(socketPath);
+	}
+
+	/**
+	 * Creates a plain HTTP connector listening on the Unix domain socket given as the URL path. 
+	 * Requests received by the connector have credentials of the client process set as 
+	 * the {@link UnixPeerCredentialsCustomizer#PEER_ATTRIBUTE} attribute. 
+	 * Requires the Jetty Unix domain server module.
+	 * @param url
+	 * @throws ConfigurationException
+	 */
+	protected Connector createUnixDomainConnector(URL url) throws ConfigurationException {
+		logger.debug("Creating Unix domain socket connector on: {}", url);
+		HttpConnectionFactory httpConnFactory = getHttpConnectionFactory();
+		httpConnFactory.getHttpConfiguration().addCustomizer(new UnixPeerCredentialsCustomizer());
+		ConnectionFactory[] factories = isHttp2Enabled(false) ? 
+				Http2Support.getPlainFactories(httpConnFactory, extraSettings) : 
+				new ConnectionFactory[] {httpConnFactory};
+		AbstractConnector connector = UnixDomainSupport.createConnector(theServer, Paths.get(url.getPath()), 
+				extraSettings.getIntValue(HttpServerProperties.ACCEPTORS), 
+				extraSettings.getIntValue(HttpServerProperties.SELECTORS), 
+				extraSettings.getIntValue(HttpServerProperties.ACCEPT_QUEUE_SIZE), factories);
+		connector.setIdleTimeout(extraSettings.getIntValue(HttpServerProperties.MAX_IDLE_TIME));
+		return connector;
+	}
+
 	/**
 	 * Default connector creation: uses {@link #createSecureConnector(URL)} and {@link #createPlainConnector(URL)}
 	 * depending on the URL protocol. Returns a fully configured connector.
@@ -252,18 +409,112 @@ public abstract class JettyServerBase {
 	protected SecuredServerConnector getSecuredConnectorInstance() throws ConfigurationException {
 		HttpConnectionFactory httpConnFactory = getHttpConnectionFactory();
 		SslContextFactory.Server secureContextFactory;
+		if (securityConfiguration instanceof AuthnAndTrustProperties props && !props.isReady())
+		{
+			logger.debug("Credential and truststore are still loading, SSL context will be set on start");
+			sslContextPending = true;
+			return newSecuredServerConnector(new SslContextFactory.Server(), httpConnFactory);
+		}
 		try
 		{
+			sslCredential = securityConfiguration.getCredential();
 			secureContextFactory = SecuredServerConnector.createContextFactory(
-					securityConfiguration.getValidator(), 
-					securityConfiguration.getCredential());
+					securityConfiguration.getValidator(), sslCredential);
 		} catch (Exception e)
 		{
 			throw new ConfigurationException("Can't create secure context factory", e);
 		}
-		SecuredServerConnector connector = new SecuredServerConnector(theServer, 
-				secureContextFactory, httpConnFactory);
-		return connector;
+		return newSecuredServerConnector(secureContextFactory, httpConnFactory);
+	}
+
+	private SecuredServerConnector newSecuredServerConnector(SslContextFactory.Server secureContextFactory, 
+			HttpConnectionFactory httpConnFactory) {
+		ConnectionFactory[] factories = new ConnectionFactory[] {httpConnFactory};
+		if (isHttp2Enabled(true))
+			factories = Http2Support.getSecureFactories(httpConnFactory, extraSettings, secureContextFactory);
+		return new SecuredServerConnector(theServer, 
+				extraSettings.getIntValue(HttpServerProperties.ACCEPTORS), 
+				extraSettings.getIntValue(HttpServerProperties.SELECTORS), 
+				secureContextFactory, getTlsTaskExecutor(), factories);
+	}
+
+	/**
+	 * @return whether HTTP/2 is enabled and available for a secured or plain connector
+	 */
+	private boolean isHttp2Enabled(boolean secure) {
+		if (!extraSettings.getBooleanValue(HttpServerProperties.ENABLE_HTTP2))
+			return false;
+		if (Http2Support.isAvailable(secure))
+			return true;
+		logger.warn("HTTP/2 is enabled, but the Jetty HTTP/2 server {}module is not available, only HTTP/1.1 will be used",
+				secure ? "or ALPN " : "");
+		return false;
+	}
+
+	/**
+	 * @return executor of TLS handshake tasks, shared by all secured connectors, or null if 
+	 * handshakes are processed by the connection threads.
+	 */
+	protected TlsTaskExecutor getTlsTaskExecutor() {
+		int threads = extraSettings.getIntValue(HttpServerProperties.TLS_TASK_THREADS);
+		if (threads <= 0)
+			return null;
+		if (tlsTaskExecutor == null) {
+			int queueSize = getTlsTaskQueueSize();
+			checkTlsTaskLimits(extraSettings.getIntValue(HttpServerProperties.MAX_THREADS));
+			logger.info("TLS handshake tasks will be run by {} dedicated thread(s), with up to {} queued", 
+					threads, queueSize);
+			tlsTaskExecutor = new TlsTaskExecutor(threads, queueSize);
+		}
+		return tlsTaskExecutor;
+	}
+
+	private int getTlsTaskQueueSize() {
+		int queueSize = extraSettings.getIntValue(HttpServerProperties.TLS_TASK_QUEUE_SIZE);
+		return queueSize > 0 ? queueSize : extraSettings.getIntValue(HttpServerProperties.TLS_TASK_THREADS);
+	}
+
+	/**
+	 * A pool thread waits for each running or queued handshake, so together they must leave 
+	 * most of the pool to the requests.
+	 */
+	private void checkTlsTaskLimits(int maxThreads) {
+		int threads = extraSettings.getIntValue(HttpServerProperties.TLS_TASK_THREADS);
+		if (threads > 0 && threads + getTlsTaskQueueSize() > maxThreads / 2)
+			throw new ConfigurationException("The sum of " + HttpServerProperties.TLS_TASK_THREADS + " and " + 
+					HttpServerProperties.TLS_TASK_QUEUE_SIZE + " must not exceed half of " + 
+					HttpServerProperties.MAX_THREADS + " (" + maxThreads + ")");
+	}
+
+	private void registerMBeans() {
+		if (tlsTaskExecutor != null)
+			registerMBean(tlsTaskExecutor, "TlsTaskExecutor");
+		if (lowResourceMonitor != null)
+			registerMBean(new LowResourcesStatus(lowResourceMonitor), "LowResources");
+		if (serverMetrics != null)
+			registerMBean(serverMetrics, "ServerMetrics");
+	}
+
+	private void registerMBean(Object mbean, String type) {
+		try {
+			ObjectName name = new ObjectName("eu.unicore.util.jetty:type=" + type + ",id=" + 
+					System.identityHashCode(this));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+			mbeanNames.add(name);
+		} catch (JMException e) {
+			logger.warn("Cannot register {} MBean", type, e);
+		}
+	}
+
+	private void unregisterMBeans() {
+		for (ObjectName name: mbeanNames) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				logger.debug("Cannot unregister {} MBean", name, e);
+			}
+		}
+		mbeanNames.clear();
 	}
 	
 	/**
@@ -303,7 +554,11 @@ public abstract class JettyServerBase {
 	 */
 	protected ServerConnector getPlainConnectorInstance() {
 		HttpConnectionFactory httpConnFactory = getHttpConnectionFactory();
-		return new PlainServerConnector(theServer, httpConnFactory);
+		ConnectionFactory[] factories = isHttp2Enabled(false) ? 
+				Http2Support.getPlainFactories(httpConnFactory, extraSettings) : 
+				new ConnectionFactory[] {httpConnFactory};
+		return new PlainServerConnector(theServer, extraSettings.getIntValue(HttpServerProperties.ACCEPTORS), 
+				extraSettings.getIntValue(HttpServerProperties.SELECTORS), factories);
 	}
 	
 	/**
@@ -314,6 +569,18 @@ public abstract class JettyServerBase {
 		HttpConfiguration httpConfig = new HttpConfiguration();
 		httpConfig.setSendServerVersion(false);
 		httpConfig.setSendXPoweredBy(false);
+		int outputBufferSize = extraSettings.getIntValue(HttpServerProperties.OUTPUT_BUFFER_SIZE);
+		int aggregationSize = extraSettings.getIntValue(HttpServerProperties.OUTPUT_AGGREGATION_SIZE);
+		if (aggregationSize > outputBufferSize)
+			throw new ConfigurationException("The " + HttpServerProperties.OUTPUT_AGGREGATION_SIZE + 
+					" must not be larger than " + HttpServerProperties.OUTPUT_BUFFER_SIZE);
+		httpConfig.setOutputBufferSize(outputBufferSize);
+		httpConfig.setOutputAggregationSize(aggregationSize);
+		httpConfig.setRequestHeaderSize(extraSettings.getIntValue(HttpServerProperties.REQUEST_HEADER_SIZE));
+		httpConfig.setResponseHeaderSize(extraSettings.getIntValue(HttpServerProperties.RESPONSE_HEADER_SIZE));
+		boolean direct = extraSettings.getBooleanValue(HttpServerProperties.USE_DIRECT_BUFFERS);
+		httpConfig.setUseInputDirectByteBuffers(direct);
+		httpConfig.setUseOutputDirectByteBuffers(direct);
 		boolean sni = extraSettings.getBooleanValue(HttpServerProperties.ENABLE_SNI);
 		SecureRequestCustomizer src = new SecureRequestCustomizer();
 		src.setSniHostCheck(sni);
@@ -336,22 +603,112 @@ public abstract class JettyServerBase {
 
 	/**
 	 * sets parameters on the Connector, which are shared by all of them regardless of their type.
-	 * The default implementation sets port and hostname.
+	 * The default implementation sets port and hostname, idle timeout and socket options.
 	 * @throws ConfigurationException 
 	 */
 	protected void configureConnector(ServerConnector connector, URL url) throws ConfigurationException {
 		connector.setHost(url.getHost());
 		connector.setPort(url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
 		connector.setIdleTimeout(extraSettings.getIntValue(HttpServerProperties.MAX_IDLE_TIME));
+		connector.setAcceptQueueSize(extraSettings.getIntValue(HttpServerProperties.ACCEPT_QUEUE_SIZE));
+		connector.setReusePort(extraSettings.getBooleanValue(HttpServerProperties.REUSE_PORT));
+		connector.setAcceptedTcpNoDelay(extraSettings.getBooleanValue(HttpServerProperties.TCP_NO_DELAY));
 	}
 
 	protected void configureResourceMonitoring() throws ConfigurationException {
 		Integer maxConnections = extraSettings.getIntValue(HttpServerProperties.MAX_CONNECTIONS);
 		if (maxConnections > 0) {
-			theServer.addBean(new NetworkConnectionLimit(maxConnections, theServer));
+			connectionLimit = new NetworkConnectionLimit(maxConnections, theServer);
+			theServer.addBean(connectionLimit);
+		}
+		if (extraSettings.getBooleanValue(HttpServerProperties.ENABLE_LOW_RESOURCES)) {
+			lowResourceMonitor = new LowResourceMonitor(theServer);
+			lowResourceMonitor.setPeriod(extraSettings.getIntValue(HttpServerProperties.LOW_RESOURCES_PERIOD));
+			lowResourceMonitor.setMonitorThreads(
+					extraSettings.getIntValue(HttpServerProperties.LOW_RESOURCES_THREADS) > 0);
+			lowResourceMonitor.setMaxMemory(extraSettings.getLongValue(HttpServerProperties.LOW_RESOURCES_MAX_MEMORY));
+			lowResourceMonitor.setLowResourcesIdleTimeout(
+					extraSettings.getIntValue(HttpServerProperties.LOW_RESOURCES_IDLE_TIME));
+			lowResourceMonitor.setAcceptingInLowResources(
+					extraSettings.getBooleanValue(HttpServerProperties.LOW_RESOURCES_ACCEPT));
+			theServer.addBean(lowResourceMonitor);
 		}
 	}
 
+	/**
+	 * Starts collecting statistics of all connectors, if metrics are enabled.
+	 */
+	protected void configureMetrics() {
+		if (!extraSettings.getBooleanValue(HttpServerProperties.ENABLE_METRICS))
+			return;
+		serverMetrics = new ServerMetrics(theServer, extraSettings.getIntValue(HttpServerProperties.METRICS_MAX_PATHS));
+		for (Connector connector: theServer.getConnectors())
+			serverMetrics.monitor(connector);
+	}
+
+	/**
+	 * Wraps the handler with the one collecting request statistics, if metrics are enabled.
+	 */
+	protected Handler configureStatistics(Handler handler) {
+		if (serverMetrics == null)
+			return handler;
+		String endpoint = extraSettings.getValue(HttpServerProperties.METRICS_ENDPOINT).trim();
+		Handler ret = serverMetrics.wrap(handler, endpoint.isEmpty() ? null : endpoint);
+		ret.setServer(theServer);
+		logger.info("Collecting server metrics{}", endpoint.isEmpty() ? "" : ", available at " + endpoint);
+		return ret;
+	}
+
+	/**
+	 * @return the server metrics or null if metrics are not enabled
+	 */
+	public ServerMetrics getServerMetrics() {
+		return serverMetrics;
+	}
+
+	/**
+	 * Configures the limit of concurrently processed requests and the per client rate limiting, 
+	 * if enabled. The rate limit is checked first, so requests of a client exceeding its rate 
+	 * do not occupy the queue of waiting requests.
+	 */
+	protected Handler configureAdmissionControl(Handler handler) throws ConfigurationException {
+		int maxConcurrent = extraSettings.getIntValue(HttpServerProperties.MAX_CONCURRENT_REQUESTS);
+		if (maxConcurrent > 0) {
+			QoSHandler qos = new QoSHandler(handler);
+			qos.setMaxRequestCount(maxConcurrent);
+			qos.setMaxSuspendedRequestCount(extraSettings.getIntValue(HttpServerProperties.MAX_QUEUED_REQUESTS));
+			qos.setMaxSuspend(Duration.ofMillis(extraSettings.getIntValue(HttpServerProperties.MAX_QUEUE_TIME)));
+			qos.setRejectStatusCode(HttpStatus.SERVICE_UNAVAILABLE_503);
+			qos.setServer(theServer);
+			logger.info("Limiting the number of concurrently processed requests to {}", maxConcurrent);
+			handler = qos;
+		}
+		int rate = extraSettings.getIntValue(HttpServerProperties.RATE_LIMIT_REQUESTS);
+		if (rate > 0) {
+			rateLimit = new UpdateableRateLimit(rate, extraSettings.getIntValue(HttpServerProperties.RATE_LIMIT_BURST));
+			DoSHandler dos = new DoSHandler(handler, JettyServerBase::getClientId, rateLimit,
+					new DoSHandler.StatusRejectHandler(HttpStatus.TOO_MANY_REQUESTS_429),
+					extraSettings.getIntValue(HttpServerProperties.RATE_LIMIT_MAX_CLIENTS));
+			dos.setServer(theServer);
+			logger.info("Limiting the rate of requests of each client to {}/s, with bursts of {}", 
+					rate, rateLimit.getBurst());
+			handler = dos;
+		}
+		return handler;
+	}
+
+	/**
+	 * @return the subject of the TLS client certificate or the client IP address
+	 */
+	static String getClientId(Request request) {
+		if (request.getAttribute(EndPoint.SslSessionData.ATTRIBUTE) instanceof EndPoint.SslSessionData sslData) {
+			X509Certificate[] chain = sslData.peerCertificates();
+			if (chain != null && chain.length > 0)
+				return chain[0].getSubjectX500Principal().getName();
+		}
+		return Request.getRemoteAddr(request);
+	}
+
 	/**
 	 * Configures Gzip filter if gzipping is enabled, for all servlet handlers which are configured.
 	 * Warning: if you use a complex setup of handlers it might be better to override this method and
@@ -364,15 +721,60 @@ public abstract class JettyServerBase {
 			var compressionHandler = new CompressionHandler(handler);
 			compressionHandler.setServer(theServer);
 			compressionHandler.setHandler(handler);
+			int minSize = extraSettings.getIntValue(HttpServerProperties.MIN_GZIP_SIZE);
 			var gzip = new GzipCompression(); 
-			gzip.setMinCompressSize(extraSettings.getIntValue(HttpServerProperties.MIN_GZIP_SIZE));
+			gzip.setMinCompressSize(minSize);
+			GzipEncoderConfig gzipConfig = new GzipEncoderConfig();
+			gzipConfig.setCompressionLevel(extraSettings.getIntValue(HttpServerProperties.GZIP_COMPRESSION_LEVEL));
+			gzip.setDefaultEncoderConfig(gzipConfig);
 			compressionHandler.putCompression(gzip);
+			if (extraSettings.getBooleanValue(HttpServerProperties.ENABLE_BROTLI))
+				addOptionalCompression(compressionHandler, BROTLI_COMPRESSION, minSize);
+			if (extraSettings.getBooleanValue(HttpServerProperties.ENABLE_ZSTD))
+				addOptionalCompression(compressionHandler, ZSTD_COMPRESSION, minSize);
+			configureCompressedMimeTypes(compressionHandler);
 			logger.info("Enabling GZIP compression filter");
+			int cacheEntries = extraSettings.getIntValue(HttpServerProperties.COMPRESSION_CACHE_ENTRIES);
+			if (cacheEntries > 0) {
+				var cache = new CompressedResponseCache(compressionHandler, cacheEntries, 
+						extraSettings.getIntValue(HttpServerProperties.COMPRESSION_CACHE_MAX_ENTRY_SIZE));
+				cache.setServer(theServer);
+				return cache;
+			}
 			return compressionHandler;
 		}
 		return handler;
 	}
 
+	private void configureCompressedMimeTypes(CompressionHandler compressionHandler) {
+		String included = extraSettings.getValue(HttpServerProperties.COMPRESSED_MIME_TYPES).trim();
+		String excluded = extraSettings.getValue(HttpServerProperties.NOT_COMPRESSED_MIME_TYPES).trim();
+		if (included.isEmpty() && excluded.isEmpty())
+			return;
+		CompressionConfig.Builder config = CompressionConfig.builder().defaults();
+		if (!included.isEmpty())
+			for (String type: included.split("[ ]+"))
+				config.compressIncludeMimeType(type);
+		if (!excluded.isEmpty())
+			for (String type: excluded.split("[ ]+"))
+				config.compressExcludeMimeType(type);
+		compressionHandler.putConfiguration("/", config.build());
+	}
+
+	/**
+	 * Adds a compression implemented by an optional Jetty module, if it is available.
+	 */
+	private void addOptionalCompression(CompressionHandler compressionHandler, String className, int minSize) {
+		try {
+			Compression compression = (Compression) Class.forName(className).getConstructor().newInstance();
+			compression.setMinCompressSize(minSize);
+			compressionHandler.putCompression(compression);
+			logger.info("Enabling {} compression", compression.getEncodingName());
+		} catch (ReflectiveOperationException | LinkageError e) {
+			logger.warn("Compression {} is enabled, but it is not available: {}", className, e.toString());
+		}
+	}
+
 	/**
 	 * configures Cross Origin Resource Sharing
 	 * @throws ConfigurationException
@@ -450,24 +852,261 @@ public abstract class JettyServerBase {
 	public URL[] getUrls() {
 		return listenUrls;
 	}
+
+	/**
+	 * @return settings of this server. Changes of its updateable properties, made with 
+	 * {@link HttpServerProperties#setProperties(java.util.Properties)}, are applied to the running server.
+	 */
+	public HttpServerProperties getExtraSettings() {
+		return extraSettings;
+	}
 	
+	/**
+	 * Applies a changed value of one of {@link HttpServerProperties#getUpdateableProperties()} to 
+	 * the running server. Invoked when the properties are changed with 
+	 * {@link HttpServerProperties#setProperties(java.util.Properties)}, after the server was started.
+	 * Established connections are kept. If the change can not be applied, the previous value is still used.
+	 */
+	protected synchronized void updateSetting(String property) {
+		try {
+			switch (property) {
+			case HttpServerProperties.MAX_THREADS, HttpServerProperties.MIN_THREADS -> updateThreadPool();
+			case HttpServerProperties.MAX_CONNECTIONS -> updateConnectionLimit();
+			case HttpServerProperties.MAX_IDLE_TIME -> updateIdleTimeout();
+			case HttpServerProperties.LOW_RESOURCES_IDLE_TIME -> updateLowResourcesIdleTimeout();
+			case HttpServerProperties.RATE_LIMIT_REQUESTS, HttpServerProperties.RATE_LIMIT_BURST -> updateRateLimit();
+			default -> logger.warn("Changed {} is not applied to the running server", property);
+			}
+		} catch (RuntimeException ex) {
+			logger.error("Cannot apply changed " + property + " to the running server", ex);
+		}
+	}
+
+	private void updateThreadPool() {
+		if (!(theServer.getThreadPool() instanceof QueuedThreadPool pool))
+			return;
+		if (tlsTaskExecutor != null)
+			checkTlsTaskLimits(extraSettings.getIntValue(HttpServerProperties.MAX_THREADS));
+		setThreadPoolSize(pool);
+		logger.info("Updated the thread pool size to {}-{} threads", pool.getMinThreads(), pool.getMaxThreads());
+	}
+
+	private void updateConnectionLimit() {
+		int maxConnections = extraSettings.getIntValue(HttpServerProperties.MAX_CONNECTIONS);
+		if (connectionLimit == null && maxConnections > 0) {
+			connectionLimit = new NetworkConnectionLimit(maxConnections, theServer);
+			theServer.addBean(connectionLimit);
+		} else if (connectionLimit != null) {
+			connectionLimit.setMaxNetworkConnectionCount(maxConnections > 0 ? maxConnections : Integer.MAX_VALUE);
+		}
+		logger.info("Updated the limit of incoming connections to {}", 
+				maxConnections > 0 ? maxConnections : "unlimited");
+	}
+
+	/**
+	 * The timeout is set also on the established connections, unless the server is low on resources. 
+	 * Then the low resources monitor restores the timeout of connectors when the resources are available.
+	 */
+	private void updateIdleTimeout() {
+		int idleTimeout = extraSettings.getIntValue(HttpServerProperties.MAX_IDLE_TIME);
+		boolean lowOnResources = lowResourceMonitor != null && lowResourceMonitor.isLowOnResources();
+		for (Connector connector: theServer.getConnectors()) {
+			if (!(connector instanceof AbstractConnector abstractConnector))
+				continue;
+			abstractConnector.setIdleTimeout(idleTimeout);
+			if (!lowOnResources)
+				for (EndPoint endPoint: abstractConnector.getConnectedEndPoints())
+					endPoint.setIdleTimeout(idleTimeout);
+		}
+		logger.info("Updated the idle timeout of connections to {} ms", idleTimeout);
+	}
+
+	private void updateLowResourcesIdleTimeout() {
+		if (lowResourceMonitor == null)
+			return;
+		lowResourceMonitor.setLowResourcesIdleTimeout(
+				extraSettings.getIntValue(HttpServerProperties.LOW_RESOURCES_IDLE_TIME));
+		logger.info("Updated the idle timeout of connections when low on resources to {} ms", 
+				lowResourceMonitor.getLowResourcesIdleTimeout());
+	}
+
+	private void updateRateLimit() {
+		int rate = extraSettings.getIntValue(HttpServerProperties.RATE_LIMIT_REQUESTS);
+		if (rateLimit == null || rate == 0) {
+			logger.warn("Enabling or disabling the rate limit requires restart of the server, the change is ignored");
+			return;
+		}
+		rateLimit.update(rate, extraSettings.getIntValue(HttpServerProperties.RATE_LIMIT_BURST));
+		logger.info("Updated the rate of requests of each client to {}/s, with bursts of {}", 
+				rateLimit.getRate(), rateLimit.getBurst());
+	}
+
+	/**
+	 * If the security configuration is given as {@link AuthnAndTrustProperties}, starts monitoring 
+	 * of the credential files (if its dynamical reload is enabled) and of the truststore files 
+	 * (if enabled). After the credential is modified, it is reloaded. In both cases SSL contexts
+	 * of the secured connectors are replaced, so also the cached TLS sessions are dropped.
+	 */
+	protected void watchSecurityFiles()
+	{
+		if (!(securityConfiguration instanceof AuthnAndTrustProperties))
+			return;
+		AuthnAndTrustProperties props = (AuthnAndTrustProperties) securityConfiguration;
+		CredentialProperties credProps = props.getCredentialProperties();
+		TruststoreProperties trustProps = props.getTruststoreProperties();
+		FileChangeWatcher watcher = FileChangeWatcher.getShared();
+		try
+		{
+			if (credProps != null && credProps.isDynamicalReloadEnabled()) {
+				securityWatches.add(watcher.watch(credProps.getCredentialFiles(), this, 
+						JettyServerBase::reloadChangedCredential));
+				credentialWatched = true;
+			}
+			List<File> trustFiles = trustProps == null ? List.of() : trustProps.getWatchedFiles();
+			if (!trustFiles.isEmpty())
+				securityWatches.add(watcher.watch(trustFiles, this, JettyServerBase::reloadSslContexts));
+		} catch (IOException e)
+		{
+			logger.warn("Cannot monitor credential and truststore files for changes", e);
+		}
+	}
+
+	/**
+	 * If the security configuration is given as {@link AuthnAndTrustProperties} and the credential
+	 * expiry monitoring is enabled, starts the {@link CredentialExpiryMonitor}. When it finds 
+	 * the credential files modified, the credential is reloaded and applied to the secured connectors.
+	 * If the credential files are watched, they are reloaded only after the watch notification, 
+	 * and the monitor only tracks the expiry.
+	 */
+	protected void monitorCredentialExpiry()
+	{
+		if (!(securityConfiguration instanceof AuthnAndTrustProperties) || getSecuredConnectors().isEmpty())
+			return;
+		CredentialProperties credProps = ((AuthnAndTrustProperties) securityConfiguration).getCredentialProperties();
+		if (credProps == null || !credProps.isExpiryMonitoringEnabled())
+			return;
+		expiryMonitor = new CredentialExpiryMonitor(credProps, credentialWatched ? null : () -> {
+			((AuthnAndTrustProperties) securityConfiguration).reloadCredential();
+			reloadChangedSslContexts();
+		});
+		expiryMonitor.start();
+	}
+
+	private void reloadChangedCredential()
+	{
+		try
+		{
+			((AuthnAndTrustProperties) securityConfiguration).reloadCredential();
+		} catch (ConfigurationException e)
+		{
+			logger.error("Cannot reload the modified credential, the previous one is still used: " + 
+					e.getMessage());
+			return;
+		}
+		reloadChangedSslContexts();
+	}
+
+	/**
+	 * Used after the credential files were modified. Nothing is done if the reloaded credential 
+	 * is the same as the one already used, so the TLS session caches are preserved.
+	 */
+	private void reloadChangedSslContexts() {
+		if (isSameCredential(sslCredential, securityConfiguration.getCredential())) {
+			logger.info("The credential was not changed, SSL contexts are not reloaded");
+			return;
+		}
+		reloadSslContexts();
+	}
+
+	/**
+	 * Applies the current credential and validator of the security configuration to the 
+	 * secured connectors.
+	 */
 	public void reloadCredential() {
-		for(Connector connector: theServer.getConnectors()) {
-			try{
-				if(connector instanceof SecuredServerConnector) {
-					logger.info("Reloading credential on {}", connector.getServer().getURI());
-					@SuppressWarnings("resource")
-					SecuredServerConnector sConnector = (SecuredServerConnector)connector;
-					SslContextFactory.Server scf = sConnector.getSslContextFactory();
-					JettyConnectorUtils.reloadCredential(scf,
-							securityConfiguration.getCredential(),
-							securityConfiguration.getValidator(),
-							logger);
-				}
-			}catch(Exception ex) {
-				logger.error("Cannot reload credential.",ex);
+		reloadSslContexts();
+	}
+
+	/**
+	 * Replaces SSL contexts of all secured connectors with a single new context, created from 
+	 * the current credential and validator. The context is created before any connector is 
+	 * updated, and if this fails the previous contexts are kept. Handshakes in progress are 
+	 * completed with the previous context. 
+	 */
+	public synchronized void reloadSslContexts() {
+		List<SecuredServerConnector> secured = getSecuredConnectors();
+		if (secured.isEmpty())
+			return;
+		long start = System.nanoTime();
+		X509Credential credential = securityConfiguration.getCredential();
+		SSLContext sslContext;
+		try {
+			sslContext = JettyConnectorUtils.createServerSSLContext(
+					securityConfiguration.getValidator(), credential, logger);
+		} catch (Exception ex) {
+			logger.error("Cannot create SSL context, the previous one is still used.", ex);
+			return;
+		}
+		long created = System.nanoTime();
+		for (SecuredServerConnector connector: secured) {
+			try {
+				JettyConnectorUtils.replaceSslContext(connector.getSslContextFactory(), sslContext);
+			} catch (Exception ex) {
+				logger.error("Cannot reload SSL context of " + connector, ex);
 			}
 		}
+		sslCredential = credential;
+		long end = System.nanoTime();
+		logger.info("Reloaded SSL context of {} connector(s) in {} ms (context creation took {} ms)",
+				secured.size(), (end - start) / 1000000, (created - start) / 1000000);
+	}
+
+	/**
+	 * Sets SSL context of the secured connectors which were created before the asynchronously 
+	 * loaded security configuration was ready. Waits for the configuration, so the connectors 
+	 * are opened only when the credential and truststore are available.
+	 */
+	private synchronized void initPendingSslContexts() throws Exception {
+		if (!sslContextPending)
+			return;
+		long start = System.nanoTime();
+		((AuthnAndTrustProperties) securityConfiguration).awaitReady();
+		X509Credential credential = securityConfiguration.getCredential();
+		SSLContext sslContext = JettyConnectorUtils.createServerSSLContext(
+				securityConfiguration.getValidator(), credential, logger);
+		for (SecuredServerConnector connector: getSecuredConnectors())
+			connector.getSslContextFactory().setSslContext(sslContext);
+		sslCredential = credential;
+		sslContextPending = false;
+		logger.info("Waited {} ms for the credential and truststore", (System.nanoTime() - start) / 1000000);
 	}
 
+	private List<SecuredServerConnector> getSecuredConnectors() {
+		List<SecuredServerConnector> secured = new ArrayList<>();
+		for (Connector connector: theServer.getConnectors())
+			if (connector instanceof SecuredServerConnector)
+				secured.add((SecuredServerConnector) connector);
+		return secured;
+	}
+
+	private static boolean isSameCredential(X509Credential current, X509Credential updated) {
+		if (current == null || updated == null)
+			return current == updated;
+		return Arrays.equals(current.getCertificateChain(), updated.getCertificateChain()) &&
+				current.getKey().equals(updated.getKey());
+	}
+
+	/**
+	 * Applies the changed settings to the running server.
+	 */
+	private class SettingsChangeListener implements PropertyChangeListener {
+		@Override
+		public String[] getInterestingProperties() {
+			return extraSettings.getUpdateableProperties();
+		}
+
+		@Override
+		public void propertyChanged(String propertyKey) {
+			updateSetting(propertyKey);
+		}
+	}
 }
@@ -0,0 +1,34 @@
+package eu.unicore.util.jetty;
+
+import org.eclipse.jetty.server.LowResourceMonitor;
+
+/**
+ * Exposes the state of the Jetty {@link LowResourceMonitor} via JMX.
+ */
+public class LowResourcesStatus implements LowResourcesStatusMBean
+{
+	private final LowResourceMonitor monitor;
+
+	public LowResourcesStatus(LowResourceMonitor monitor)
+	{
+		this.monitor = monitor;
+	}
+
+	@Override
+	public boolean isLowOnResources()
+	{
+		return monitor.isLowOnResources();
+	}
+
+	@Override
+	public String getReasons()
+	{
+		return monitor.isLowOnResources() ? monitor.getLowResourcesReasons() : null;
+	}
+
+	@Override
+	public long getLowResourcesSince()
+	{
+		return monitor.isLowOnResources() ? monitor.getLowResourcesStarted() : -1;
+	}
+}
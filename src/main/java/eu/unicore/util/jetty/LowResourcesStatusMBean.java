@@ -0,0 +1,23 @@
+package eu.unicore.util.jetty;
+
+/**
+ * JMX view of the low resources state of the server.
+ */
+public interface LowResourcesStatusMBean
+{
+	/**
+	 * @return whether the server is low on resources, so idle connections are closed earlier
+	 */
+	boolean isLowOnResources();
+
+	/**
+	 * @return description of the exhausted resources or null if the server is not low on resources
+	 */
+	String getReasons();
+
+	/**
+	 * @return time (in ms. since the epoch) when the server became low on resources 
+	 * or -1 if it is not low on resources
+	 */
+	long getLowResourcesSince();
+}
@@ -0,0 +1,59 @@
+package eu.unicore.util.jetty;
+
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * SSL connection factory creating connections which run the SSLEngine delegated tasks 
+ * in a {@link TlsTaskExecutor}, instead of the connection's thread.
+ */
+public class OffloadingSslConnectionFactory extends SslConnectionFactory
+{
+	private final TlsTaskExecutor taskExecutor;
+
+	public OffloadingSslConnectionFactory(SslContextFactory.Server factory, String nextProtocol, 
+			TlsTaskExecutor taskExecutor)
+	{
+		super(factory, nextProtocol);
+		this.taskExecutor = taskExecutor;
+	}
+
+	@Override
+	protected SslConnection newSslConnection(Connector connector, EndPoint endPoint, SSLEngine engine)
+	{
+		return new SslConnection(connector.getByteBufferPool(), connector.getExecutor(), getSslContextFactory(), 
+				endPoint, engine, isDirectBuffersForEncryption(), isDirectBuffersForDecryption())
+		{
+			@Override
+			protected SSLEngineResult wrap(SSLEngine sslEngine, ByteBuffer[] input, ByteBuffer output) 
+					throws SSLException
+			{
+				return runTasks(sslEngine, super.wrap(sslEngine, input, output));
+			}
+
+			@Override
+			protected SSLEngineResult unwrap(SSLEngine sslEngine, ByteBuffer input, ByteBuffer output) 
+					throws SSLException
+			{
+				return runTasks(sslEngine, super.unwrap(sslEngine, input, output));
+			}
+		};
+	}
+
+	private SSLEngineResult runTasks(SSLEngine engine, SSLEngineResult result) throws SSLException
+	{
+		if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+			taskExecutor.runDelegatedTasks(engine);
+		return result;
+	}
+}
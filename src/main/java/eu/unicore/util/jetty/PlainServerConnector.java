@@ -16,4 +16,13 @@ public class PlainServerConnector extends ServerConnector {
 		super(server, factories);
 	}
 
+	/**
+	 * @param acceptors number of acceptor threads, -1 selects the Jetty default
+	 * @param selectors number of selectors, -1 selects the Jetty default
+	 */
+	public PlainServerConnector(Server server, int acceptors, int selectors, ConnectionFactory... factories)
+	{
+		super(server, acceptors, selectors, factories);
+	}
+
 }
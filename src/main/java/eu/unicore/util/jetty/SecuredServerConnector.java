@@ -1,6 +1,7 @@
 package eu.unicore.util.jetty;
 
 import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.server.AbstractConnectionFactory;
 import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
@@ -29,6 +30,41 @@ public class SecuredServerConnector extends ServerConnector {
 		this.sslContextFactory = sslContextFactory;
 	}
 
+	/**
+	 * The SSLEngine delegated tasks of TLS handshakes are run in the given executor.
+	 */
+	public SecuredServerConnector(Server server, SslContextFactory.Server sslContextFactory, 
+			TlsTaskExecutor tlsTaskExecutor, ConnectionFactory... factories)
+	{
+		this(server, -1, -1, sslContextFactory, tlsTaskExecutor, factories);
+	}
+
+	/**
+	 * @param acceptors number of acceptor threads, -1 selects the Jetty default
+	 * @param selectors number of selectors, -1 selects the Jetty default
+	 * @param tlsTaskExecutor executor of the SSLEngine delegated tasks of TLS handshakes or null 
+	 * if they should be run by the connection threads
+	 */
+	public SecuredServerConnector(Server server, int acceptors, int selectors, 
+			SslContextFactory.Server sslContextFactory, TlsTaskExecutor tlsTaskExecutor, 
+			ConnectionFactory... factories)
+	{
+		super(server, acceptors, selectors, getFactories(sslContextFactory, tlsTaskExecutor, factories));
+		this.sslContextFactory = sslContextFactory;
+	}
+
+	private static ConnectionFactory[] getFactories(SslContextFactory.Server sslContextFactory, 
+			TlsTaskExecutor tlsTaskExecutor, ConnectionFactory... factories)
+	{
+		if (tlsTaskExecutor == null)
+			return AbstractConnectionFactory.getFactories(sslContextFactory, factories);
+		ConnectionFactory[] ret = new ConnectionFactory[factories.length + 1];
+		ret[0] = new OffloadingSslConnectionFactory(sslContextFactory, factories[0].getProtocol(), 
+				tlsTaskExecutor);
+		System.arraycopy(factories, 0, ret, 1, factories.length);
+		return ret;
+	}
+
 	public SslContextFactory.Server getSslContextFactory()
 	{
 		return sslContextFactory;
@@ -0,0 +1,372 @@
+package eu.unicore.util.jetty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.io.ssl.SslHandshakeListener;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Collects statistics of the server: requests, connections, TLS handshakes, the thread pool and
+ * the buffer pool, together with histograms of request latency per path. The path of a request is
+ * reduced to its first segment (typically the context or servlet path), and the number of
+ * distinct paths is limited, further paths are counted together.
+ * <p>
+ * The metrics are available via JMX and, optionally, as text in the Prometheus format from
+ * an endpoint of the server.
+ */
+public class ServerMetrics implements ServerMetricsMBean, SslHandshakeListener
+{
+	static final String OTHER_PATHS = "other";
+	private static final long[] BUCKETS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+	private static final long[] BUCKETS_NANOS = Arrays.stream(BUCKETS_MS).map(TimeUnit.MILLISECONDS::toNanos).toArray();
+
+	private final Server server;
+	private final int maxPaths;
+	private final List<ConnectionStatistics> connectionStatistics = new ArrayList<>();
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	private final LongAdder tlsHandshakes = new LongAdder();
+	private final LongAdder failedTlsHandshakes = new LongAdder();
+	private StatisticsHandler statistics;
+
+	/**
+	 * @param maxPaths maximum number of paths with separate latency histograms
+	 */
+	public ServerMetrics(Server server, int maxPaths)
+	{
+		this.server = server;
+		this.maxPaths = maxPaths;
+	}
+
+	/**
+	 * Starts collecting statistics of connections of the connector, and of TLS handshakes if
+	 * the connector is secured.
+	 */
+	public void monitor(Connector connector)
+	{
+		ConnectionStatistics stats = new ConnectionStatistics();
+		connector.addBean(stats);
+		connector.addBean(this);
+		synchronized (connectionStatistics)
+		{
+			connectionStatistics.add(stats);
+		}
+	}
+
+	/**
+	 * @param endpointPath path of the text endpoint or null if the endpoint should not be served
+	 * @return handler collecting the request statistics
+	 */
+	public Handler wrap(Handler handler, String endpointPath)
+	{
+		statistics = new StatisticsHandler(handler);
+		return new MetricsHandler(statistics, endpointPath);
+	}
+
+	@Override
+	public void handshakeSucceeded(Event event)
+	{
+		tlsHandshakes.increment();
+	}
+
+	@Override
+	public void handshakeFailed(Event event, Throwable failure)
+	{
+		failedTlsHandshakes.increment();
+	}
+
+	@Override
+	public long getRequests()
+	{
+		return statistics == null ? 0 : statistics.getRequestTotal();
+	}
+
+	@Override
+	public long getActiveRequests()
+	{
+		return statistics == null ? 0 : statistics.getRequestsActive();
+	}
+
+	@Override
+	public long getMaxActiveRequests()
+	{
+		return statistics == null ? 0 : statistics.getRequestsActiveMax();
+	}
+
+	@Override
+	public double getMeanRequestTime()
+	{
+		return statistics == null ? 0 : statistics.getRequestTimeMean() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@Override
+	public long getResponses4xx()
+	{
+		return statistics == null ? 0 : statistics.getResponses4xx();
+	}
+
+	@Override
+	public long getResponses5xx()
+	{
+		return statistics == null ? 0 : statistics.getResponses5xx();
+	}
+
+	@Override
+	public long getOpenConnections()
+	{
+		long ret = 0;
+		for (ConnectionStatistics stats: getConnectionStatistics())
+			ret += stats.getConnections();
+		return ret;
+	}
+
+	@Override
+	public long getTotalConnections()
+	{
+		long ret = 0;
+		for (ConnectionStatistics stats: getConnectionStatistics())
+			ret += stats.getConnectionsTotal();
+		return ret;
+	}
+
+	@Override
+	public long getTlsHandshakes()
+	{
+		return tlsHandshakes.sum();
+	}
+
+	@Override
+	public long getFailedTlsHandshakes()
+	{
+		return failedTlsHandshakes.sum();
+	}
+
+	@Override
+	public int getThreads()
+	{
+		ThreadPool pool = server.getThreadPool();
+		return pool == null ? -1 : pool.getThreads();
+	}
+
+	@Override
+	public int getIdleThreads()
+	{
+		ThreadPool pool = server.getThreadPool();
+		return pool == null ? -1 : pool.getIdleThreads();
+	}
+
+	@Override
+	public int getQueueSize()
+	{
+		return server.getThreadPool() instanceof QueuedThreadPool pool ? pool.getQueueSize() : -1;
+	}
+
+	@Override
+	public long getBufferPoolHeapMemory()
+	{
+		ByteBufferPool pool = server.getByteBufferPool();
+		return pool instanceof ArrayByteBufferPool arrayPool ? arrayPool.getHeapMemory() : -1;
+	}
+
+	@Override
+	public long getBufferPoolDirectMemory()
+	{
+		ByteBufferPool pool = server.getByteBufferPool();
+		return pool instanceof ArrayByteBufferPool arrayPool ? arrayPool.getDirectMemory() : -1;
+	}
+
+	@Override
+	public long getBufferPoolHeapBuffers()
+	{
+		ByteBufferPool pool = server.getByteBufferPool();
+		return pool instanceof ArrayByteBufferPool arrayPool ? arrayPool.getHeapByteBufferCount() : -1;
+	}
+
+	@Override
+	public long getBufferPoolDirectBuffers()
+	{
+		ByteBufferPool pool = server.getByteBufferPool();
+		return pool instanceof ArrayByteBufferPool arrayPool ? arrayPool.getDirectByteBufferCount() : -1;
+	}
+
+	@Override
+	public String getText()
+	{
+		StringBuilder sb = new StringBuilder();
+		appendMetric(sb, "http_server_requests_total", "counter", getRequests());
+		appendMetric(sb, "http_server_requests_active", "gauge", getActiveRequests());
+		appendMetric(sb, "http_server_requests_active_max", "gauge", getMaxActiveRequests());
+		sb.append("# TYPE http_server_responses_total counter\n");
+		if (statistics != null)
+		{
+			appendResponses(sb, "1xx", statistics.getResponses1xx());
+			appendResponses(sb, "2xx", statistics.getResponses2xx());
+			appendResponses(sb, "3xx", statistics.getResponses3xx());
+			appendResponses(sb, "4xx", statistics.getResponses4xx());
+			appendResponses(sb, "5xx", statistics.getResponses5xx());
+		}
+		sb.append("# TYPE http_server_request_duration_ms histogram\n");
+		for (Map.Entry<String, LatencyHistogram> entry: new TreeMap<>(histograms).entrySet())
+			entry.getValue().append(sb, "http_server_request_duration_ms", entry.getKey());
+		appendMetric(sb, "http_server_connections_open", "gauge", getOpenConnections());
+		appendMetric(sb, "http_server_connections_total", "counter", getTotalConnections());
+		appendMetric(sb, "http_server_tls_handshakes_total", "counter", getTlsHandshakes());
+		appendMetric(sb, "http_server_tls_handshakes_failed_total", "counter", getFailedTlsHandshakes());
+		appendMetric(sb, "http_server_threads", "gauge", getThreads());
+		appendMetric(sb, "http_server_threads_idle", "gauge", getIdleThreads());
+		appendMetric(sb, "http_server_thread_pool_queue_size", "gauge", getQueueSize());
+		appendMetric(sb, "http_server_buffer_pool_heap_bytes", "gauge", getBufferPoolHeapMemory());
+		appendMetric(sb, "http_server_buffer_pool_direct_bytes", "gauge", getBufferPoolDirectMemory());
+		appendMetric(sb, "http_server_buffer_pool_heap_buffers", "gauge", getBufferPoolHeapBuffers());
+		appendMetric(sb, "http_server_buffer_pool_direct_buffers", "gauge", getBufferPoolDirectBuffers());
+		return sb.toString();
+	}
+
+	private List<ConnectionStatistics> getConnectionStatistics()
+	{
+		synchronized (connectionStatistics)
+		{
+			return new ArrayList<>(connectionStatistics);
+		}
+	}
+
+	private static void appendMetric(StringBuilder sb, String name, String type, long value)
+	{
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void appendResponses(StringBuilder sb, String code, long value)
+	{
+		sb.append("http_server_responses_total{code=\"").append(code).append("\"} ").append(value).append('\n');
+	}
+
+	private static String escape(String label)
+	{
+		return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * @return first segment of the request path
+	 */
+	static String getPathKey(Request request)
+	{
+		String path = request.getHttpURI().getPath();
+		if (path == null || path.length() <= 1)
+			return "/";
+		int end = path.indexOf('/', 1);
+		return end < 0 ? path : path.substring(0, end);
+	}
+
+	private LatencyHistogram getHistogram(String path)
+	{
+		LatencyHistogram histogram = histograms.get(path);
+		if (histogram != null)
+			return histogram;
+		if (histograms.size() >= maxPaths)
+			return histograms.computeIfAbsent(OTHER_PATHS, k -> new LatencyHistogram());
+		return histograms.computeIfAbsent(path, k -> new LatencyHistogram());
+	}
+
+	private class MetricsHandler extends Handler.Wrapper
+	{
+		private final String endpointPath;
+
+		private MetricsHandler(Handler handler, String endpointPath)
+		{
+			super(handler);
+			this.endpointPath = endpointPath;
+		}
+
+		@Override
+		public boolean handle(Request request, Response response, Callback callback) throws Exception
+		{
+			if (endpointPath != null && HttpMethod.GET.is(request.getMethod()) &&
+					endpointPath.equals(request.getHttpURI().getPath()))
+			{
+				response.getHeaders().put(HttpHeader.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+				Content.Sink.write(response, true, getText(), callback);
+				return true;
+			}
+			LatencyHistogram histogram = getHistogram(getPathKey(request));
+			long start = System.nanoTime();
+			return super.handle(request, response, new Callback.Nested(callback)
+			{
+				@Override
+				public void succeeded()
+				{
+					histogram.record(System.nanoTime() - start);
+					super.succeeded();
+				}
+
+				@Override
+				public void failed(Throwable x)
+				{
+					histogram.record(System.nanoTime() - start);
+					super.failed(x);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Histogram with fixed buckets, updated without locking.
+	 */
+	static class LatencyHistogram
+	{
+		private final LongAdder[] buckets = new LongAdder[BUCKETS_MS.length + 1];
+		private final LongAdder sumNanos = new LongAdder();
+
+		LatencyHistogram()
+		{
+			for (int i=0; i<buckets.length; i++)
+				buckets[i] = new LongAdder();
+		}
+
+		void record(long nanos)
+		{
+			int i = 0;
+			while (i < BUCKETS_NANOS.length && nanos > BUCKETS_NANOS[i])
+				i++;
+			buckets[i].increment();
+			sumNanos.add(nanos);
+		}
+
+		void append(StringBuilder sb, String name, String path)
+		{
+			String label = "path=\"" + escape(path) + "\"";
+			long cumulative = 0;
+			for (int i=0; i<buckets.length; i++)
+			{
+				cumulative += buckets[i].sum();
+				String le = i < BUCKETS_MS.length ? String.valueOf(BUCKETS_MS[i]) : "+Inf";
+				sb.append(name).append("_bucket{").append(label).append(",le=\"").append(le).append("\"} ")
+					.append(cumulative).append('\n');
+			}
+			sb.append(name).append("_sum{").append(label).append("} ")
+				.append(sumNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1)).append('\n');
+			sb.append(name).append("_count{").append(label).append("} ").append(cumulative).append('\n');
+		}
+	}
+}
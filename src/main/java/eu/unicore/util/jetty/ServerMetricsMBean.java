@@ -0,0 +1,97 @@
+package eu.unicore.util.jetty;
+
+/**
+ * JMX view of {@link ServerMetrics}.
+ */
+public interface ServerMetricsMBean
+{
+	/**
+	 * @return number of handled requests
+	 */
+	long getRequests();
+
+	/**
+	 * @return number of requests being handled
+	 */
+	long getActiveRequests();
+
+	/**
+	 * @return maximum number of requests handled at the same time
+	 */
+	long getMaxActiveRequests();
+
+	/**
+	 * @return mean time (in ms.) of handling a request
+	 */
+	double getMeanRequestTime();
+
+	/**
+	 * @return number of responses with the 4xx status
+	 */
+	long getResponses4xx();
+
+	/**
+	 * @return number of responses with the 5xx status
+	 */
+	long getResponses5xx();
+
+	/**
+	 * @return number of open connections
+	 */
+	long getOpenConnections();
+
+	/**
+	 * @return number of accepted connections
+	 */
+	long getTotalConnections();
+
+	/**
+	 * @return number of successful TLS handshakes
+	 */
+	long getTlsHandshakes();
+
+	/**
+	 * @return number of failed TLS handshakes
+	 */
+	long getFailedTlsHandshakes();
+
+	/**
+	 * @return number of threads of the thread pool
+	 */
+	int getThreads();
+
+	/**
+	 * @return number of idle threads of the thread pool
+	 */
+	int getIdleThreads();
+
+	/**
+	 * @return number of jobs waiting for a thread of the thread pool
+	 */
+	int getQueueSize();
+
+	/**
+	 * @return heap memory (in bytes) retained by the buffer pool or -1 if unknown
+	 */
+	long getBufferPoolHeapMemory();
+
+	/**
+	 * @return direct memory (in bytes) retained by the buffer pool or -1 if unknown
+	 */
+	long getBufferPoolDirectMemory();
+
+	/**
+	 * @return number of heap buffers retained by the buffer pool or -1 if unknown
+	 */
+	long getBufferPoolHeapBuffers();
+
+	/**
+	 * @return number of direct buffers retained by the buffer pool or -1 if unknown
+	 */
+	long getBufferPoolDirectBuffers();
+
+	/**
+	 * @return all metrics, including the latency histograms, in the Prometheus text format
+	 */
+	String getText();
+}
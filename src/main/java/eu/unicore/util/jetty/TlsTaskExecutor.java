@@ -0,0 +1,98 @@
+package eu.unicore.util.jetty;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+
+/**
+ * Bounded executor of the SSLEngine delegated tasks, which perform the expensive parts of TLS handshakes,
+ * including the private key operations. The number of concurrently processed handshakes is limited 
+ * by the number of threads, and handshakes which can not be queued are rejected immediately, so 
+ * a handshake storm is not able to occupy all threads of the server's thread pool with CPU bound work.
+ */
+public class TlsTaskExecutor implements TlsTaskExecutorMBean
+{
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param threads maximum number of concurrently executed tasks
+	 * @param queueSize maximum number of waiting tasks, further tasks are rejected
+	 */
+	public TlsTaskExecutor(int threads, int queueSize)
+	{
+		AtomicInteger counter = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<>(queueSize), r -> {
+					Thread t = new Thread(r, "tls-tasks-" + counter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs all pending delegated tasks of the engine in the executor, waiting for their completion.
+	 * @throws SSLException if the tasks were rejected or failed
+	 */
+	public void runDelegatedTasks(SSLEngine engine) throws SSLException
+	{
+		Future<?> result;
+		try
+		{
+			result = executor.submit(() -> {
+				Runnable task;
+				while ((task = engine.getDelegatedTask()) != null)
+					task.run();
+			});
+		} catch (RejectedExecutionException e)
+		{
+			rejected.incrementAndGet();
+			throw new SSLException("TLS handshake rejected, too many handshakes are in progress");
+		}
+		try
+		{
+			result.get();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			result.cancel(false);
+			throw new SSLException("Interrupted while waiting for TLS handshake processing", e);
+		} catch (ExecutionException e)
+		{
+			throw new SSLException("TLS handshake processing failed", e.getCause());
+		}
+	}
+
+	@Override
+	public int getQueueDepth()
+	{
+		return executor.getQueue().size();
+	}
+
+	@Override
+	public int getActiveCount()
+	{
+		return executor.getActiveCount();
+	}
+
+	@Override
+	public long getCompletedCount()
+	{
+		return executor.getCompletedTaskCount();
+	}
+
+	@Override
+	public long getRejectedCount()
+	{
+		return rejected.get();
+	}
+}
@@ -0,0 +1,27 @@
+package eu.unicore.util.jetty;
+
+/**
+ * JMX view of {@link TlsTaskExecutor}.
+ */
+public interface TlsTaskExecutorMBean
+{
+	/**
+	 * @return number of handshake tasks waiting for a free thread
+	 */
+	int getQueueDepth();
+
+	/**
+	 * @return number of handshake tasks being executed
+	 */
+	int getActiveCount();
+
+	/**
+	 * @return number of executed handshake tasks
+	 */
+	long getCompletedCount();
+
+	/**
+	 * @return number of handshakes rejected as the queue was full
+	 */
+	long getRejectedCount();
+}
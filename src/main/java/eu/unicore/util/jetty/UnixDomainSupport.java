@@ -0,0 +1,89 @@
+package eu.unicore.util.jetty;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Path;
+
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.unixdomain.server.UnixDomainServerConnector;
+
+import eu.unicore.util.configuration.ConfigurationException;
+
+/**
+ * Creates connectors listening on Unix domain sockets. The Jetty Unix domain server module is an optional 
+ * dependency, so such connectors are available only when it is present at runtime. The connector class 
+ * is referenced only from {@link Connectors}, which is not loaded unless the module is available.
+ */
+class UnixDomainSupport
+{
+	static final String PROTOCOL = "unix";
+	private static final String CONNECTOR = "org.eclipse.jetty.unixdomain.server.UnixDomainServerConnector";
+	private static final URLStreamHandler URL_HANDLER = new URLStreamHandler()
+	{
+		@Override
+		protected URLConnection openConnection(URL u) throws IOException
+		{
+			throw new IOException("Unix domain socket URLs can be used only as listen URLs");
+		}
+	};
+
+	private UnixDomainSupport()
+	{
+	}
+
+	/**
+	 * @return listen URL of the given socket file
+	 */
+	static URL createURL(Path socketPath)
+	{
+		try
+		{
+			return new URL(null, PROTOCOL + ":" + socketPath.toAbsolutePath(), URL_HANDLER);
+		} catch (MalformedURLException e)
+		{
+			throw new IllegalArgumentException("Invalid Unix domain socket path " + socketPath, e);
+		}
+	}
+
+	static boolean isAvailable()
+	{
+		try
+		{
+			Class.forName(CONNECTOR, false, UnixDomainSupport.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * @param acceptors number of acceptor threads, -1 selects the Jetty default
+	 * @param selectors number of selectors, -1 selects the Jetty default
+	 */
+	static AbstractConnector createConnector(Server server, Path socketPath, int acceptors, int selectors, 
+			int acceptQueueSize, ConnectionFactory... factories) throws ConfigurationException
+	{
+		if (!isAvailable())
+			throw new ConfigurationException("Can not listen on the Unix domain socket " + socketPath 
+					+ ", the Jetty Unix domain server module is not available");
+		return Connectors.create(server, socketPath, acceptors, selectors, acceptQueueSize, factories);
+	}
+
+	private static class Connectors
+	{
+		private static AbstractConnector create(Server server, Path socketPath, int acceptors, int selectors, 
+				int acceptQueueSize, ConnectionFactory... factories)
+		{
+			UnixDomainServerConnector ret = new UnixDomainServerConnector(server, acceptors, selectors, factories);
+			ret.setUnixDomainPath(socketPath);
+			ret.setAcceptQueueSize(acceptQueueSize);
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package eu.unicore.util.jetty;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.SocketChannelEndPoint;
+import org.eclipse.jetty.server.ConnectionMetaData;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+
+import eu.unicore.util.Log;
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+/**
+ * Makes the credentials of the local peer of a Unix domain socket connection available to the application 
+ * as the {@link #PEER_ATTRIBUTE} request attribute, holding {@link UnixDomainPrincipal} with the user 
+ * and group of the client process. As the credentials are provided by the operating system, they can be 
+ * used to authenticate local clients instead of TLS. Requests received over other connections are 
+ * not modified.
+ */
+public class UnixPeerCredentialsCustomizer implements HttpConfiguration.Customizer
+{
+	private static final Logger log = Log.getLogger(Log.CONNECTIONS, UnixPeerCredentialsCustomizer.class);
+
+	/**
+	 * Name of the request attribute with the {@link UnixDomainPrincipal} of the peer
+	 */
+	public static final String PEER_ATTRIBUTE = "eu.unicore.util.jetty.unixPeerCredentials";
+
+	@Override
+	public Request customize(Request request, HttpFields.Mutable responseHeaders)
+	{
+		ConnectionMetaData connection = request.getConnectionMetaData();
+		Object peer = connection.getAttribute(PEER_ATTRIBUTE);
+		if (peer == null)
+		{
+			EndPoint endPoint = connection.getConnection().getEndPoint();
+			if (endPoint instanceof SocketChannelEndPoint channelEndPoint)
+			{
+				peer = getPeerCredentials(channelEndPoint.getChannel());
+				if (peer != null)
+					connection.setAttribute(PEER_ATTRIBUTE, peer);
+			}
+		}
+		if (peer != null)
+			request.setAttribute(PEER_ATTRIBUTE, peer);
+		return request;
+	}
+
+	/**
+	 * @return credentials of the peer or null if the channel is not a Unix domain socket 
+	 * or the credentials are not available
+	 */
+	public static UnixDomainPrincipal getPeerCredentials(SelectableChannel channel)
+	{
+		if (!(channel instanceof SocketChannel socketChannel))
+			return null;
+		try
+		{
+			if (!(socketChannel.getRemoteAddress() instanceof UnixDomainSocketAddress))
+				return null;
+			return socketChannel.getOption(ExtendedSocketOptions.SO_PEERCRED);
+		} catch (IOException | UnsupportedOperationException e)
+		{
+			log.debug("Can not get credentials of the Unix domain socket peer", e);
+			return null;
+		}
+	}
+}
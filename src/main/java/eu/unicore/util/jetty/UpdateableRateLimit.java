@@ -0,0 +1,91 @@
+package eu.unicore.util.jetty;
+
+import java.time.Duration;
+
+import org.eclipse.jetty.server.handler.DoSHandler;
+import org.eclipse.jetty.server.handler.DoSHandler.Tracker;
+
+/**
+ * Creates leaking bucket trackers of the per client rate limiting, whose rate and burst can be
+ * changed while the server is running. After an update the tracker of each client is replaced
+ * with a new one on the client's next request, so also the already tracked clients are limited
+ * with the new settings.
+ */
+class UpdateableRateLimit implements DoSHandler.Tracker.Factory
+{
+	private volatile DoSHandler.Tracker.Factory current;
+	private volatile int rate;
+	private volatile int burst;
+
+	UpdateableRateLimit(int rate, int burst)
+	{
+		update(rate, burst);
+	}
+
+	/**
+	 * @param rate maximum sustained number of requests per second, must be positive
+	 * @param burst number of requests accepted at once, 0 means the same as the rate
+	 */
+	void update(int rate, int burst)
+	{
+		if (burst == 0)
+			burst = rate;
+		//an idle client's bucket is empty after this time, so it can be forgotten
+		Duration idleTimeout = Duration.ofMillis(Math.max(1000, 1000L * burst / rate));
+		this.rate = rate;
+		this.burst = burst;
+		current = new DoSHandler.LeakingBucketTrackerFactory(rate, burst, idleTimeout);
+	}
+
+	int getRate()
+	{
+		return rate;
+	}
+
+	int getBurst()
+	{
+		return burst;
+	}
+
+	@Override
+	public Tracker newTracker(String id)
+	{
+		return new ReplaceableTracker(id);
+	}
+
+	private class ReplaceableTracker implements Tracker
+	{
+		private final String id;
+		private DoSHandler.Tracker.Factory factory;
+		private volatile Tracker delegate;
+
+		private ReplaceableTracker(String id)
+		{
+			this.id = id;
+			this.factory = current;
+			this.delegate = factory.newTracker(id);
+		}
+
+		@Override
+		public boolean onRequest(long now)
+		{
+			Tracker tracker;
+			synchronized (this)
+			{
+				if (factory != current)
+				{
+					factory = current;
+					delegate = factory.newTracker(id);
+				}
+				tracker = delegate;
+			}
+			return tracker.onRequest(now);
+		}
+
+		@Override
+		public long getExpireNanoTime()
+		{
+			return delegate.getExpireNanoTime();
+		}
+	}
+}
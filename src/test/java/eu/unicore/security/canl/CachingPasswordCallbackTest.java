@@ -0,0 +1,110 @@
+package eu.unicore.security.canl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class CachingPasswordCallbackTest
+{
+	@Test
+	public void concurrentRequestsShouldAskOnce() throws Exception
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		TestCallback callback = new TestCallback(-1, release);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<char[]>> results = new ArrayList<>();
+			for (int i=0; i<8; i++)
+				results.add(executor.submit(() -> callback.getPassword("keystore", "cred.p12")));
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<char[]> result: results)
+				assertArrayEquals("secret".toCharArray(), result.get());
+		} finally
+		{
+			executor.shutdown();
+		}
+		assertEquals(1, callback.invocations.get());
+		callback.getPassword("keystore", "other.p12");
+		assertEquals(2, callback.invocations.get());
+	}
+
+	@Test
+	public void expiredPasswordShouldBeAskedAgain() throws Exception
+	{
+		TestCallback callback = new TestCallback(100, null);
+		char[] password = callback.getPassword("keystore", "cred.p12");
+		password[0] = 'x';
+		assertArrayEquals("secret".toCharArray(), callback.getPassword("keystore", "cred.p12"));
+		assertEquals(1, callback.invocations.get());
+		Thread.sleep(200);
+		callback.getPassword("keystore", "cred.p12");
+		assertEquals(2, callback.invocations.get());
+		callback.clearCache();
+		callback.getPassword("keystore", "cred.p12");
+		assertEquals(3, callback.invocations.get());
+	}
+
+	@Test
+	public void missingPasswordShouldNotBeCached() throws Exception
+	{
+		TestCallback callback = new TestCallback(-1, null);
+		callback.password = null;
+		assertNull(callback.getPassword("keystore", "cred.p12"));
+		callback.password = "secret";
+		assertArrayEquals("secret".toCharArray(), callback.getPassword("keystore", "cred.p12"));
+		assertEquals(2, callback.invocations.get());
+	}
+
+	private static class TestCallback extends CachingPasswordCallback
+	{
+		private final AtomicInteger invocations = new AtomicInteger();
+		private final CountDownLatch release;
+		private volatile String password = "secret";
+
+		private TestCallback(long expiry, CountDownLatch release)
+		{
+			super(expiry);
+			this.release = release;
+		}
+
+		@Override
+		protected char[] getPasswordFromUser(String protectedArtifactType,
+				String protectedArtifactDescription)
+		{
+			invocations.incrementAndGet();
+			try
+			{
+				if (release != null)
+					release.await();
+			} catch (InterruptedException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			return password == null ? null : password.toCharArray();
+		}
+
+		@Override
+		public boolean askForSeparateKeyPassword()
+		{
+			return false;
+		}
+
+		@Override
+		public boolean ignoreProperties()
+		{
+			return false;
+		}
+	}
+}
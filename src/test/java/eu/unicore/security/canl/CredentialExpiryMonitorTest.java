@@ -0,0 +1,107 @@
+package eu.unicore.security.canl;
+
+import static eu.unicore.security.canl.CredentialProperties.DEFAULT_PREFIX;
+import static eu.unicore.security.canl.CredentialProperties.PROP_LOCATION;
+import static eu.unicore.security.canl.CredentialProperties.PROP_PASSWORD;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import eu.emi.security.authn.x509.X509Credential;
+
+public class CredentialExpiryMonitorTest
+{
+	@Test
+	public void shouldReloadModifiedCredentialAndExportExpiry() throws Exception
+	{
+		File dir = Files.createTempDirectory("expiry").toFile();
+		File keystore = new File(dir, "keystore.jks");
+		Files.copy(new File("src/test/resources/credentials/keystore-1.jks").toPath(), keystore.toPath());
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_LOCATION, keystore.getPath());
+		p.setProperty(DEFAULT_PREFIX + PROP_PASSWORD, "the!njs");
+		CredentialProperties credProps = new CredentialProperties(p);
+		AtomicInteger reloads = new AtomicInteger();
+		CredentialExpiryMonitor monitor = new CredentialExpiryMonitor(credProps, () -> {
+			credProps.reloadCredential();
+			reloads.incrementAndGet();
+		});
+		try
+		{
+			monitor.start();
+			assertNotNull(monitor.getNextCheck());
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			Set<ObjectName> names = server.queryNames(new ObjectName("eu.unicore.security:type=CredentialExpiry,*"), null);
+			assertEquals(1, names.size());
+			long exported = (Long) server.getAttribute(names.iterator().next(), "SecondsToExpiry");
+			long expected = (credProps.getCredential().getCertificate().getNotAfter().getTime() - 
+					System.currentTimeMillis()) / 1000;
+			assertTrue(Math.abs(expected - exported) <= 5);
+
+			monitor.check();
+			assertEquals(0, reloads.get());
+
+			Files.copy(new File("src/test/resources/credentials/keystore-1.jks").toPath(), keystore.toPath(), 
+					StandardCopyOption.REPLACE_EXISTING);
+			keystore.setLastModified(keystore.lastModified() - 10000);
+			monitor.check();
+			assertEquals(1, reloads.get());
+			monitor.check();
+			assertEquals(1, reloads.get());
+			assertTrue(monitor.getNextCheck().getTime() > System.currentTimeMillis());
+		} finally
+		{
+			monitor.stop();
+			keystore.delete();
+			dir.delete();
+		}
+		assertNull(monitor.getNextCheck());
+		assertTrue(ManagementFactory.getPlatformMBeanServer().queryNames(
+				new ObjectName("eu.unicore.security:type=CredentialExpiry,*"), null).isEmpty());
+	}
+
+	@Test
+	public void shouldOnlyTrackExpiryWithoutReloadAction() throws Exception
+	{
+		File dir = Files.createTempDirectory("expiry").toFile();
+		File keystore = new File(dir, "keystore.jks");
+		Files.copy(new File("src/test/resources/credentials/keystore-1.jks").toPath(), keystore.toPath());
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_LOCATION, keystore.getPath());
+		p.setProperty(DEFAULT_PREFIX + PROP_PASSWORD, "the!njs");
+		CredentialProperties credProps = new CredentialProperties(p);
+		X509Credential loaded = credProps.getCredential();
+		CredentialExpiryMonitor monitor = new CredentialExpiryMonitor(credProps, null);
+		try
+		{
+			monitor.start();
+			Files.copy(new File("src/test/resources/credentials/keystore-1.jks").toPath(), keystore.toPath(), 
+					StandardCopyOption.REPLACE_EXISTING);
+			keystore.setLastModified(keystore.lastModified() - 10000);
+			monitor.check();
+			assertSame(loaded, credProps.getCredential());
+			assertTrue(monitor.getSecondsToExpiry() > 0);
+			assertTrue(monitor.getNextCheck().getTime() > System.currentTimeMillis());
+		} finally
+		{
+			monitor.stop();
+			keystore.delete();
+			dir.delete();
+		}
+	}
+}
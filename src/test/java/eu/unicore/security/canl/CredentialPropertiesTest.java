@@ -7,9 +7,16 @@ import static eu.unicore.security.canl.CredentialProperties.PROP_KS_ALIAS;
 import static eu.unicore.security.canl.CredentialProperties.PROP_KS_KEY_PASSWORD;
 import static eu.unicore.security.canl.CredentialProperties.PROP_LOCATION;
 import static eu.unicore.security.canl.CredentialProperties.PROP_PASSWORD;
+import static eu.unicore.security.canl.CredentialProperties.PROP_PASSWORD_SECRET;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
@@ -73,6 +80,39 @@ public class CredentialPropertiesTest
 		verify(p);
 	}
 
+	@Test
+	public void testPasswordFromSecretProvider() throws Exception
+	{
+		File secret = File.createTempFile("credential", ".secret");
+		secret.deleteOnExit();
+		Files.writeString(secret.toPath(), "the!njs\n");
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_LOCATION, PFX+"keystore-1.jks");
+		p.setProperty(DEFAULT_PREFIX + PROP_PASSWORD_SECRET, "file:" + secret.getPath());
+		verify(p);
+
+		AtomicInteger lookups = new AtomicInteger();
+		SecretProviders.register(new SecretProvider()
+		{
+			@Override
+			public String getName()
+			{
+				return "counting";
+			}
+
+			@Override
+			public char[] getSecret(String value)
+			{
+				lookups.incrementAndGet();
+				return value.toCharArray();
+			}
+		});
+		p.setProperty(DEFAULT_PREFIX + PROP_PASSWORD_SECRET, "counting:the!njs");
+		verify(p);
+		verify(p);
+		assertEquals(1, lookups.get());
+	}
+
 	@Test
 	public void testDetect() throws Exception
 	{
@@ -84,6 +124,24 @@ public class CredentialPropertiesTest
 		verify(p);
 	}
 
+	@Test
+	public void testCloneSharesCredential() throws Exception
+	{
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_LOCATION, PFX+"keystore-1.jks");
+		p.setProperty(DEFAULT_PREFIX + PROP_PASSWORD, "the!njs");
+		CredentialProperties cfg = new CredentialProperties(p);
+		CredentialProperties cloned = cfg.clone();
+		assertSame(cfg.getCredential(), cloned.getCredential());
+
+		cloned.setProperty(PROP_PASSWORD, "the!njs");
+		assertSame(cfg.getCredential(), cloned.getCredential());
+
+		cloned.setProperty(PROP_LOCATION, PFX+"keystore-1.p12");
+		assertNotSame(cfg.getCredential(), cloned.getCredential());
+		assertEquals(PFX+"keystore-1.jks", cfg.getValue(PROP_LOCATION));
+	}
+
 	private void verify(Properties p) throws Exception {
 		CredentialProperties cfg = new CredentialProperties(p);
 		assertNotNull(cfg.getCredential().getCertificate());
@@ -0,0 +1,127 @@
+package eu.unicore.security.canl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FileChangeWatcherTest
+{
+	private static final long DELAY = 300;
+
+	private FileChangeWatcher watcher;
+	private File dir;
+
+	@BeforeEach
+	public void setup() throws Exception
+	{
+		watcher = new FileChangeWatcher(DELAY);
+		dir = Files.createTempDirectory("watcher").toFile();
+	}
+
+	@AfterEach
+	public void cleanup()
+	{
+		watcher.dispose();
+		File[] children = dir.listFiles();
+		if (children != null)
+			for (File child: children)
+				child.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void shouldCoalesceBurstOfChanges() throws Exception
+	{
+		File file = new File(dir, "cred.pem");
+		Files.writeString(file.toPath(), "initial");
+		AtomicInteger invocations = new AtomicInteger();
+		watcher.watch(List.of(file), invocations::incrementAndGet);
+
+		for (int i=0; i<5; i++)
+		{
+			Files.writeString(file.toPath(), "update " + i);
+			Thread.sleep(DELAY/5);
+		}
+		waitFor(invocations, 1);
+		Thread.sleep(DELAY*3);
+		assertEquals(1, invocations.get());
+	}
+
+	@Test
+	public void shouldInvokeOnlyActionsOfModifiedFiles() throws Exception
+	{
+		File file1 = new File(dir, "file1");
+		File file2 = new File(dir, "file2");
+		Files.writeString(file1.toPath(), "1");
+		Files.writeString(file2.toPath(), "2");
+		AtomicInteger first = new AtomicInteger();
+		AtomicInteger second = new AtomicInteger();
+		AtomicInteger wholeDir = new AtomicInteger();
+		watcher.watch(List.of(file1), first::incrementAndGet);
+		watcher.watch(List.of(file2), second::incrementAndGet);
+		watcher.watch(List.of(dir), wholeDir::incrementAndGet);
+
+		File replacement = new File(dir, "file2.tmp");
+		Files.writeString(replacement.toPath(), "new 2");
+		replacement.renameTo(file2);
+
+		waitFor(second, 1);
+		waitFor(wholeDir, 1);
+		Thread.sleep(DELAY*2);
+		assertEquals(0, first.get());
+		assertEquals(1, second.get());
+		assertEquals(1, wholeDir.get());
+	}
+
+	@Test
+	public void shouldStopWatchingAfterCancel() throws Exception
+	{
+		File file = new File(dir, "file");
+		AtomicInteger invocations = new AtomicInteger();
+		FileChangeWatcher.Registration registration = watcher.watch(List.of(file),
+				invocations::incrementAndGet);
+		Files.writeString(file.toPath(), "created");
+		waitFor(invocations, 1);
+
+		registration.cancel();
+		Files.writeString(file.toPath(), "modified");
+		Thread.sleep(DELAY*3);
+		assertEquals(1, invocations.get());
+	}
+
+	@Test
+	public void shouldCancelRegistrationOfCollectedOwner() throws Exception
+	{
+		watcher.dispose();
+		watcher = new FileChangeWatcher(DELAY, DELAY);
+		AtomicInteger invocations = new AtomicInteger();
+		Object owner = new Object();
+		watcher.watch(List.of(new File(dir, "file")), owner, o -> invocations.incrementAndGet());
+		assertTrue(watcher.isWatched(dir));
+
+		owner = null;
+		for (int i=0; i<100 && watcher.isWatched(dir); i++)
+		{
+			System.gc();
+			Thread.sleep(100);
+		}
+		assertFalse(watcher.isWatched(dir));
+		assertEquals(0, invocations.get());
+	}
+
+	private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException
+	{
+		for (int i=0; i<100 && counter.get() < expected; i++)
+			Thread.sleep(100);
+		assertEquals(expected, counter.get());
+	}
+}
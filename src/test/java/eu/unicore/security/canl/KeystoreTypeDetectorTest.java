@@ -0,0 +1,24 @@
+package eu.unicore.security.canl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+
+public class KeystoreTypeDetectorTest
+{
+	private static final String PFX = "src/test/resources/credentials/";
+
+	@Test
+	public void shouldDetectTypeFromHeader() throws Exception
+	{
+		assertEquals(KeystoreTypeDetector.JKS, KeystoreTypeDetector.detect(new File(PFX + "keystore-1.jks")));
+		assertEquals(KeystoreTypeDetector.PKCS12, KeystoreTypeDetector.detect(new File(PFX + "keystore-1.p12")));
+		assertEquals(KeystoreTypeDetector.PKCS12, KeystoreTypeDetector.detect(new File(PFX + "portal.p12")));
+		assertEquals(KeystoreTypeDetector.PEM, KeystoreTypeDetector.detect(new File(PFX + "keystore-1.pem")));
+		assertEquals(KeystoreTypeDetector.PEM, KeystoreTypeDetector.detect(new File(PFX + "pk-1.pem")));
+		assertNull(KeystoreTypeDetector.detect(new File(PFX + "cert-1.der")));
+	}
+}
@@ -0,0 +1,277 @@
+package eu.unicore.security.canl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.emi.security.authn.x509.CrlCheckingMode;
+import eu.emi.security.authn.x509.OCSPCheckingMode;
+import eu.emi.security.authn.x509.OCSPParametes;
+import eu.emi.security.authn.x509.OCSPResponder;
+import eu.emi.security.authn.x509.ProxySupport;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.impl.CRLParameters;
+import eu.emi.security.authn.x509.impl.InMemoryKeystoreCertChainValidator;
+import eu.emi.security.authn.x509.impl.RevocationParametersExt;
+import eu.emi.security.authn.x509.impl.ValidatorParamsExt;
+
+/**
+ * Uses a local, slow OCSP responder to compare validation latency with and without prefetching.
+ */
+public class OCSPPrefetchingValidatorTest
+{
+	private static final int RESPONDER_DELAY = 300;
+	private static final int CACHE_TTL = 1;
+
+	private KeyPair caKeys;
+	private X509Certificate caCert;
+	private X509Certificate userCert;
+	private HttpServer responder;
+	private final AtomicInteger queries = new AtomicInteger();
+	private volatile CertificateStatus status = CertificateStatus.GOOD;
+
+	@BeforeEach
+	public void setup() throws Exception
+	{
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+		kpg.initialize(2048);
+		caKeys = kpg.generateKeyPair();
+		X500Name caName = new X500Name("CN=Test OCSP CA,O=UNICORE");
+		caCert = issue(caName, BigInteger.ONE, caName, caKeys, true);
+		userCert = issue(caName, BigInteger.TWO, new X500Name("CN=Test user,O=UNICORE"),
+				kpg.generateKeyPair(), false);
+
+		responder = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		responder.createContext("/ocsp", exchange -> {
+			try
+			{
+				queries.incrementAndGet();
+				Thread.sleep(RESPONDER_DELAY);
+				byte[] response = respond(new OCSPReq(readRequest(exchange)));
+				exchange.getResponseHeaders().add("Content-Type", "application/ocsp-response");
+				exchange.sendResponseHeaders(200, response.length);
+				try (OutputStream os = exchange.getResponseBody())
+				{
+					os.write(response);
+				}
+			} catch (Exception e)
+			{
+				exchange.sendResponseHeaders(500, -1);
+			}
+		});
+		responder.start();
+	}
+
+	@AfterEach
+	public void shutdown()
+	{
+		responder.stop(0);
+	}
+
+	@Test
+	public void shouldServeRefreshedStatusWithoutQueryingResponder() throws Exception
+	{
+		OCSPPrefetchingValidator validator = new OCSPPrefetchingValidator(
+				createValidator(OCSPCheckingMode.IGNORE), getOCSPParameters(),
+				Collections.emptyList(), 1, 10);
+		try
+		{
+			long first = timeValidation(validator);
+			Thread.sleep(CACHE_TTL*1000 + 500);
+			long afterExpiry = timeValidation(validator);
+			System.out.println("With prefetching: first validation " + first +
+					"ms, after cache period " + afterExpiry + "ms");
+
+			assertTrue(first >= RESPONDER_DELAY);
+			assertTrue(afterExpiry < RESPONDER_DELAY, "Validation waited for the responder: " + afterExpiry);
+			assertTrue(queries.get() >= 2);
+			assertEquals(1, validator.getTrackedCount());
+		} finally
+		{
+			validator.dispose();
+		}
+	}
+
+	@Test
+	public void shouldQueryResponderAfterExpiryWithoutPrefetching() throws Exception
+	{
+		X509CertChainValidatorExt validator = createValidator(OCSPCheckingMode.REQUIRE);
+		try
+		{
+			long first = timeValidation(validator);
+			Thread.sleep(CACHE_TTL*1000 + 500);
+			long afterExpiry = timeValidation(validator);
+			System.out.println("Without prefetching: first validation " + first +
+					"ms, after cache period " + afterExpiry + "ms");
+
+			assertTrue(afterExpiry >= RESPONDER_DELAY);
+			assertEquals(2, queries.get());
+		} finally
+		{
+			validator.dispose();
+		}
+	}
+
+	@Test
+	public void shouldReportOCSPErrors() throws Exception
+	{
+		responder.stop(0);
+		OCSPPrefetchingValidator validator = new OCSPPrefetchingValidator(
+				createValidator(OCSPCheckingMode.IGNORE), getOCSPParameters(),
+				Collections.emptyList(), 1, 10);
+		try
+		{
+			assertFalse(validator.validate(new X509Certificate[] {userCert}).isValid());
+		} finally
+		{
+			validator.dispose();
+		}
+	}
+
+	@Test
+	public void shouldKeepRevokedStatusDuringResponderOutage() throws Exception
+	{
+		status = new RevokedStatus(new Date(), CRLReason.keyCompromise);
+		OCSPPrefetchingValidator validator = new OCSPPrefetchingValidator(
+				createValidator(OCSPCheckingMode.IGNORE), getOCSPParameters(OCSPCheckingMode.IF_AVAILABLE),
+				Collections.emptyList(), 1, 10);
+		try
+		{
+			assertFalse(validator.validate(new X509Certificate[] {userCert}).isValid());
+			responder.stop(0);
+			//past the expiry of the cached status, but before the certificate is forgotten
+			Thread.sleep(CACHE_TTL*1000);
+			assertFalse(validator.validate(new X509Certificate[] {userCert}).isValid());
+		} finally
+		{
+			validator.dispose();
+		}
+	}
+
+	@Test
+	public void shouldNotCacheUnknownStatus() throws Exception
+	{
+		status = new UnknownStatus();
+		OCSPPrefetchingValidator validator = new OCSPPrefetchingValidator(
+				createValidator(OCSPCheckingMode.IGNORE), getOCSPParameters(OCSPCheckingMode.IF_AVAILABLE),
+				Collections.emptyList(), 1, 10);
+		try
+		{
+			assertTrue(validator.validate(new X509Certificate[] {userCert}).isValid());
+			status = new RevokedStatus(new Date(), CRLReason.keyCompromise);
+			assertFalse(validator.validate(new X509Certificate[] {userCert}).isValid());
+			assertEquals(2, queries.get());
+		} finally
+		{
+			validator.dispose();
+		}
+	}
+
+	private long timeValidation(X509CertChainValidatorExt validator)
+	{
+		long start = System.currentTimeMillis();
+		assertTrue(validator.validate(new X509Certificate[] {userCert}).isValid());
+		return System.currentTimeMillis() - start;
+	}
+
+	private X509CertChainValidatorExt createValidator(OCSPCheckingMode mode) throws Exception
+	{
+		KeyStore ks = KeyStore.getInstance("JKS");
+		ks.load(null);
+		ks.setCertificateEntry("ca", caCert);
+		OCSPParametes ocsp = getOCSPParameters();
+		ocsp.setCheckingMode(mode);
+		RevocationParametersExt revocation = new RevocationParametersExt(CrlCheckingMode.IGNORE,
+				new CRLParameters(), ocsp);
+		return new InMemoryKeystoreCertChainValidator(ks,
+				new ValidatorParamsExt(revocation, ProxySupport.DENY));
+	}
+
+	private OCSPParametes getOCSPParameters() throws Exception
+	{
+		return getOCSPParameters(OCSPCheckingMode.REQUIRE);
+	}
+
+	private OCSPParametes getOCSPParameters(OCSPCheckingMode mode) throws Exception
+	{
+		URL url = new URL("http://127.0.0.1:" + responder.getAddress().getPort() + "/ocsp");
+		return new OCSPParametes(mode,
+				new OCSPResponder[] {new OCSPResponder(url, caCert)}, 5000, true, false, CACHE_TTL, null);
+	}
+
+	private static byte[] readRequest(HttpExchange exchange) throws IOException
+	{
+		if ("POST".equals(exchange.getRequestMethod()))
+			return exchange.getRequestBody().readAllBytes();
+		String path = exchange.getRequestURI().getRawPath();
+		String encoded = URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), StandardCharsets.US_ASCII);
+		return Base64.getDecoder().decode(encoded);
+	}
+
+	private byte[] respond(OCSPReq request) throws Exception
+	{
+		X509CertificateHolder caHolder = new JcaX509CertificateHolder(caCert);
+		BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(new RespID(caHolder.getSubject()));
+		Date now = new Date();
+		for (Req req: request.getRequestList())
+			builder.addResponse(req.getCertID(), status, now,
+					new Date(now.getTime() + 3600000L), null);
+		ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(caKeys.getPrivate());
+		BasicOCSPResp basic = builder.build(signer, new X509CertificateHolder[] {caHolder}, now);
+		return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basic).getEncoded();
+	}
+
+	private X509Certificate issue(X500Name issuer, BigInteger serial, X500Name subject,
+			KeyPair subjectKeys, boolean ca) throws Exception
+	{
+		Date notBefore = new Date(System.currentTimeMillis() - 60000);
+		Date notAfter = new Date(System.currentTimeMillis() + 3600000);
+		JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer, serial,
+				notBefore, notAfter, subject, subjectKeys.getPublic());
+		builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+		ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(caKeys.getPrivate());
+		return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+	}
+}
@@ -0,0 +1,109 @@
+package eu.unicore.security.canl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import eu.unicore.util.configuration.ConfigurationException;
+
+public class SecretProvidersTest
+{
+	private Path socket;
+	private ServerSocketChannel agent;
+
+	@BeforeEach
+	public void setup() throws Exception
+	{
+		socket = Files.createTempDirectory("agent").resolve("agent.sock");
+		agent = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		agent.bind(UnixDomainSocketAddress.of(socket));
+	}
+
+	@AfterEach
+	public void cleanup() throws Exception
+	{
+		agent.close();
+		Files.deleteIfExists(socket);
+		Files.deleteIfExists(socket.getParent());
+	}
+
+	@Test
+	public void shouldObtainSecretFromAgent() throws Exception
+	{
+		Thread server = new Thread(() -> {
+			try (SocketChannel client = agent.accept())
+			{
+				client.read(ByteBuffer.allocate(64));
+				client.write(StandardCharsets.UTF_8.encode("the!njs\n"));
+			} catch (IOException e)
+			{
+				//reported by the failed lookup
+			}
+		});
+		server.start();
+		char[] secret = new SecretProviders.AgentSecretProvider(5000).getSecret(socket + "#name");
+		assertArrayEquals("the!njs".toCharArray(), secret);
+		server.join();
+	}
+
+	@Test
+	public void shouldFailWhenAgentDoesNotAnswer() throws Exception
+	{
+		SecretProviders.AgentSecretProvider provider = new SecretProviders.AgentSecretProvider(300);
+		long start = System.currentTimeMillis();
+		IOException e = assertThrows(IOException.class, () -> provider.getSecret(socket + "#name"));
+		assertTrue(e.getMessage().contains("has not answered"), e.getMessage());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	@Test
+	public void shouldFailResolvingWhenLookupHangs() throws Exception
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		SecretProviders.register(new SecretProvider()
+		{
+			@Override
+			public String getName()
+			{
+				return "hanging";
+			}
+
+			@Override
+			public char[] getSecret(String value)
+			{
+				try
+				{
+					release.await();
+				} catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				return value.toCharArray();
+			}
+		});
+		try
+		{
+			long start = System.currentTimeMillis();
+			assertThrows(ConfigurationException.class, () -> SecretProviders.resolve("hanging:secret", 300));
+			assertTrue(System.currentTimeMillis() - start < 5000);
+		} finally
+		{
+			release.countDown();
+		}
+	}
+}
@@ -7,34 +7,61 @@ import static eu.unicore.security.canl.TrustedIssuersProperties.PROP_DIRECTORY_L
 import static eu.unicore.security.canl.TrustedIssuersProperties.PROP_KS_PASSWORD;
 import static eu.unicore.security.canl.TrustedIssuersProperties.PROP_KS_PATH;
 import static eu.unicore.security.canl.TrustedIssuersProperties.PROP_OPENSSL_DIR;
+import static eu.unicore.security.canl.TrustedIssuersProperties.PROP_OPENSSL_LAZY_MODE;
+import static eu.unicore.security.canl.TrustedIssuersProperties.PROP_RELOAD_ON_CHANGE;
+import static eu.unicore.security.canl.TrustedIssuersProperties.PROP_SNAPSHOT_PATH;
 import static eu.unicore.security.canl.TrustedIssuersProperties.PROP_TYPE;
 import static eu.unicore.security.canl.TrustedIssuersProperties.PROP_UPDATE;
 import static eu.unicore.security.canl.TruststoreProperties.DEFAULT_PREFIX;
 import static eu.unicore.security.canl.TruststoreProperties.PROP_CRL_CACHE_PATH;
 import static eu.unicore.security.canl.TruststoreProperties.PROP_CRL_CONNECTION_TIMEOUT;
+import static eu.unicore.security.canl.TruststoreProperties.PROP_CRL_INDEX_MODE;
+import static eu.unicore.security.canl.TruststoreProperties.PROP_CRL_INDEX_PATH;
 import static eu.unicore.security.canl.TruststoreProperties.PROP_CRL_LOCATIONS;
 import static eu.unicore.security.canl.TruststoreProperties.PROP_CRL_MODE;
 import static eu.unicore.security.canl.TruststoreProperties.PROP_CRL_UPDATE;
 import static eu.unicore.security.canl.TruststoreProperties.PROP_OCSP_LOCAL_RESPONDERS;
+import static eu.unicore.security.canl.TruststoreProperties.PROP_OCSP_PREFETCH;
 import static eu.unicore.security.canl.TruststoreProperties.PROP_OPENSSL_NS_MODE;
 import static eu.unicore.security.canl.TruststoreProperties.PROP_PROXY_SUPPORT;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.junit.jupiter.api.Test;
 
 import eu.emi.security.authn.x509.CrlCheckingMode;
 import eu.emi.security.authn.x509.NamespaceCheckingMode;
+import eu.emi.security.authn.x509.OCSPCheckingMode;
 import eu.emi.security.authn.x509.ProxySupport;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
 import eu.emi.security.authn.x509.impl.DirectoryCertChainValidator;
 import eu.emi.security.authn.x509.impl.InMemoryKeystoreCertChainValidator;
 import eu.emi.security.authn.x509.impl.KeystoreCertChainValidator;
 import eu.emi.security.authn.x509.impl.OpensslCertChainValidator;
 import eu.unicore.security.canl.TrustedIssuersProperties.TruststoreType;
+import eu.unicore.security.canl.crl.RevocationIndexValidator;
+import eu.unicore.util.configuration.ConfigurationException;
 
 
 public class TruststorePropertiesTest
@@ -62,6 +89,20 @@ public class TruststorePropertiesTest
 		assertTrue(v.getTrustedIssuers().length == 1);
 	}
 
+	@Test
+	public void testOpensslLazy() throws Exception
+	{
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.openssl.toString());
+		p.setProperty(DEFAULT_PREFIX + PROP_OPENSSL_DIR, PFX+"openssl");
+		p.setProperty(DEFAULT_PREFIX + PROP_OPENSSL_LAZY_MODE, "true");
+
+		OpensslCertChainValidator v = (OpensslCertChainValidator) verify(p).getValidator();
+		assertEquals(v.getTruststorePath(), PFX+"openssl");
+		assertTrue(v.getTrustedIssuers().length == 1);
+		v.dispose();
+	}
+
 	@Test
 	public void testOpensslDefaults() throws Exception
 	{
@@ -193,6 +234,300 @@ public class TruststorePropertiesTest
 		v.dispose();
 	}
 
+	@Test
+	public void testJDKDefaultCertsShared() throws Exception
+	{
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.java_default.toString());
+		X509CertChainValidatorExt v1 = verify(p).getValidator();
+		X509CertChainValidatorExt v2 = verify(p).getValidator();
+		assertNotSame(v1, v2);
+		assertEquals(new HashSet<>(Arrays.asList(v1.getTrustedIssuers())),
+				new HashSet<>(Arrays.asList(v2.getTrustedIssuers())));
+		int jdkCAs = v2.getTrustedIssuers().length;
+		assertTrue(jdkCAs > 0);
+		v1.addValidationListener(error -> false);
+		v1.dispose();
+		assertEquals(jdkCAs, v2.getTrustedIssuers().length);
+
+		String previous = System.getProperty("javax.net.ssl.trustStore");
+		System.setProperty("javax.net.ssl.trustStore", PFX + "truststore1.jks");
+		try
+		{
+			X509CertChainValidatorExt v3 = verify(p).getValidator();
+			assertNotSame(v1, v3);
+			assertNotEquals(jdkCAs, v3.getTrustedIssuers().length);
+		} finally
+		{
+			if (previous == null)
+				System.clearProperty("javax.net.ssl.trustStore");
+			else
+				System.setProperty("javax.net.ssl.trustStore", previous);
+		}
+		assertEquals(jdkCAs, verify(p).getValidator().getTrustedIssuers().length);
+	}
+
+	@Test
+	public void testCloneSharesValidator() throws Exception
+	{
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.directory.toString());
+		p.setProperty(DEFAULT_PREFIX + PROP_DIRECTORY_LOCATIONS, PFX+"dir/*.pem");
+		TruststoreProperties cfg = new TruststoreProperties(p, Collections.singleton(new LoggingStoreUpdateListener()));
+		TruststoreProperties cloned = cfg.clone();
+		assertSame(cfg.getValidator(), cloned.getValidator());
+
+		cloned.setProperty(PROP_UPDATE, "1000");
+		DirectoryCertChainValidator own = (DirectoryCertChainValidator) cloned.getValidator();
+		assertNotSame(cfg.getValidator(), own);
+		assertEquals(1000000, own.getTruststoreUpdateInterval());
+		assertEquals(Long.parseLong(TruststoreProperties.META.get(PROP_UPDATE).getDefault())*1000,
+				((DirectoryCertChainValidator) cfg.getValidator()).getTruststoreUpdateInterval());
+
+		cloned.setProperty(PROP_UPDATE, "2000");
+		assertSame(own, cloned.getValidator());
+		assertEquals(2000000, own.getTruststoreUpdateInterval());
+		own.dispose();
+		cfg.getValidator().dispose();
+	}
+
+	@Test
+	public void testSourceChangeAfterClone() throws Exception
+	{
+		File dir = Files.createTempDirectory("truststore").toFile();
+		try
+		{
+			Files.copy(new File(PFX+"dir/cert-1.pem").toPath(), new File(dir, "a.pem").toPath());
+			Properties p = new Properties();
+			p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.directory.toString());
+			p.setProperty(DEFAULT_PREFIX + PROP_DIRECTORY_LOCATIONS + "1", dir.getPath() + "/*.pem");
+			p.setProperty(DEFAULT_PREFIX + PROP_RELOAD_ON_CHANGE, "true");
+			TruststoreProperties cfg = verify(p);
+			TruststoreProperties cloned = cfg.clone();
+			X509CertChainValidatorExt shared = cfg.getValidator();
+
+			cfg.setProperty(PROP_UPDATE, "1000");
+			assertNotSame(shared, cfg.getValidator());
+			assertSame(shared, cloned.getValidator());
+
+			Files.copy(new File(PFX+"openssl/2537774a.0").toPath(), new File(dir, "b.pem").toPath());
+			waitForIssuers(cfg, 2);
+			waitForIssuers(cloned, 2);
+			cfg.getValidator().dispose();
+			shared.dispose();
+		} finally
+		{
+			for (File f: dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testClonedCRLIndexSurvivesDispose() throws Exception
+	{
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.directory.toString());
+		p.setProperty(DEFAULT_PREFIX + PROP_DIRECTORY_LOCATIONS, PFX+"dir/*.pem");
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_MODE, "IF_VALID");
+		//not a CRL, but enough to make the index load it on each refresh
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_LOCATIONS + "1", PFX+"dir/cert-1.pem");
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_INDEX_MODE, "heap");
+		TruststoreProperties cfg = verify(p);
+		TruststoreProperties cloned = cfg.clone();
+		cfg.getValidator().dispose();
+		cloned.reloadCRLs();
+		cloned.getValidator().dispose();
+	}
+
+	@Test
+	public void testSharedValidatorDisposedByLastUser() throws Exception
+	{
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.directory.toString());
+		p.setProperty(DEFAULT_PREFIX + PROP_DIRECTORY_LOCATIONS, PFX+"dir/*.pem");
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_MODE, "IF_VALID");
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_LOCATIONS + "1", PFX+"dir/cert-1.pem");
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_INDEX_MODE, "heap");
+		p.setProperty(DEFAULT_PREFIX + PROP_OCSP_PREFETCH, "true");
+		TruststoreProperties cfg = verify(p);
+		X509CertChainValidatorExt shared = cfg.getValidator();
+		TruststoreProperties cloned = cfg.clone();
+		TruststoreProperties cloned2 = cfg.clone();
+		cloned2.getValidator().dispose();
+
+		cloned.setProperty(PROP_UPDATE, "1000");
+		assertNotSame(shared, cloned.getValidator());
+		cloned.getValidator().dispose();
+		cfg.reloadCRLs();
+
+		shared.dispose();
+		assertThrows(RejectedExecutionException.class, cfg::reloadCRLs);
+	}
+
+	@Test
+	public void testOCSPPrefetch() throws Exception
+	{
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.directory.toString());
+		p.setProperty(DEFAULT_PREFIX + PROP_DIRECTORY_LOCATIONS, PFX+"dir/*.pem");
+		p.setProperty(DEFAULT_PREFIX + PROP_OCSP_PREFETCH, "true");
+		OCSPPrefetchingValidator v = (OCSPPrefetchingValidator) verify(p).getValidator();
+		assertEquals(OCSPCheckingMode.IGNORE, 
+				v.getRevocationCheckingMode().getOcspParameters().getCheckingMode());
+		assertTrue(v.getTrustedIssuers().length == 1);
+		v.dispose();
+	}
+
+	@Test
+	public void testCRLIndex() throws Exception
+	{
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.directory.toString());
+		p.setProperty(DEFAULT_PREFIX + PROP_DIRECTORY_LOCATIONS, PFX+"dir/*.pem");
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_MODE, "REQUIRE");
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_LOCATIONS + "1", PFX+"dir/*.crl");
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_INDEX_MODE, "heap");
+		TruststoreProperties tp = verify(p);
+		RevocationIndexValidator v = (RevocationIndexValidator) tp.getValidator();
+		assertEquals(CrlCheckingMode.REQUIRE, v.getRevocationCheckingMode().getCrlCheckingMode());
+		DirectoryCertChainValidator wrapped = (DirectoryCertChainValidator) v.getDelegate();
+		assertEquals(CrlCheckingMode.IGNORE, wrapped.getRevocationCheckingMode().getCrlCheckingMode());
+		assertTrue(wrapped.getRevocationParameters().getCrlParameters().getCrls().isEmpty());
+		assertTrue(v.getTrustedIssuers().length == 1);
+
+		tp.setProperty(PROP_CRL_LOCATIONS + "1", PFX+"dir/ss*.crl");
+		tp.setProperty(PROP_CRL_UPDATE, "40");
+		v.dispose();
+	}
+
+	@Test
+	public void testOffHeapCRLIndexRequiresPath() throws Exception
+	{
+		Properties p = new Properties();
+		p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.directory.toString());
+		p.setProperty(DEFAULT_PREFIX + PROP_DIRECTORY_LOCATIONS, PFX+"dir/*.pem");
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_INDEX_MODE, "offheap");
+		assertThrows(ConfigurationException.class, () -> verify(p));
+
+		p.setProperty(DEFAULT_PREFIX + PROP_CRL_INDEX_PATH, "target");
+		RevocationIndexValidator v = (RevocationIndexValidator) verify(p).getValidator();
+		v.dispose();
+	}
+
+	@Test
+	public void testDirectorySnapshot() throws Exception
+	{
+		File dir = Files.createTempDirectory("truststore").toFile();
+		File cas = new File(dir, "cas");
+		File snapshot = new File(dir, "truststore.snapshot");
+		try
+		{
+			cas.mkdir();
+			Files.copy(new File(PFX+"dir/cert-1.pem").toPath(), new File(cas, "a.pem").toPath());
+			Properties p = new Properties();
+			p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.directory.toString());
+			p.setProperty(DEFAULT_PREFIX + PROP_DIRECTORY_LOCATIONS + "1", cas.getPath() + "/*.pem");
+			p.setProperty(DEFAULT_PREFIX + PROP_SNAPSHOT_PATH, snapshot.getPath());
+			InMemoryKeystoreCertChainValidator v = (InMemoryKeystoreCertChainValidator) verify(p).getValidator();
+			assertEquals(1, v.getTrustedIssuers().length);
+			assertTrue(snapshot.isFile());
+
+			long past = snapshot.lastModified() - 10000;
+			snapshot.setLastModified(past);
+			v = (InMemoryKeystoreCertChainValidator) verify(p).getValidator();
+			assertEquals(1, v.getTrustedIssuers().length);
+			assertEquals(past, snapshot.lastModified());
+
+			Files.copy(new File(PFX+"openssl/2537774a.0").toPath(), new File(cas, "b.pem").toPath());
+			v = (InMemoryKeystoreCertChainValidator) verify(p).getValidator();
+			assertEquals(2, v.getTrustedIssuers().length);
+			assertNotEquals(past, snapshot.lastModified());
+		} finally
+		{
+			for (File f: cas.listFiles())
+				f.delete();
+			cas.delete();
+			snapshot.delete();
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testDirectoryReloadOnChange() throws Exception
+	{
+		File dir = Files.createTempDirectory("truststore").toFile();
+		try
+		{
+			Files.copy(new File(PFX+"dir/cert-1.pem").toPath(), new File(dir, "a.pem").toPath());
+			Properties p = new Properties();
+			p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.directory.toString());
+			p.setProperty(DEFAULT_PREFIX + PROP_DIRECTORY_LOCATIONS + "1", dir.getPath() + "/*.pem");
+			p.setProperty(DEFAULT_PREFIX + PROP_RELOAD_ON_CHANGE, "true");
+			TruststoreProperties tp = verify(p);
+			DirectoryCertChainValidator v = (DirectoryCertChainValidator) tp.getValidator();
+			assertEquals(-1, v.getTruststoreUpdateInterval());
+			assertEquals(dir.getAbsoluteFile(), tp.getWatchedFiles().get(0));
+			assertEquals(1, v.getTrustedIssuers().length);
+
+			Files.copy(new File(PFX+"openssl/2537774a.0").toPath(), new File(dir, "b.pem").toPath());
+			waitForIssuers(tp, 2);
+			v.dispose();
+		} finally
+		{
+			for (File f: dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testKeystoreReloadOnChange() throws Exception
+	{
+		File ks = File.createTempFile("truststore", ".jks");
+		try
+		{
+			Files.copy(new File(PFX+"truststore1.jks").toPath(), ks.toPath(), 
+					StandardCopyOption.REPLACE_EXISTING);
+			Properties p = new Properties();
+			p.setProperty(DEFAULT_PREFIX + PROP_TYPE, TruststoreType.keystore.toString());
+			p.setProperty(DEFAULT_PREFIX + PROP_KS_PATH, ks.getPath());
+			p.setProperty(DEFAULT_PREFIX + PROP_KS_PASSWORD, "the!njs");
+			p.setProperty(DEFAULT_PREFIX + PROP_RELOAD_ON_CHANGE, "true");
+			TruststoreProperties tp = verify(p);
+			InMemoryKeystoreCertChainValidator v = (InMemoryKeystoreCertChainValidator) tp.getValidator();
+			int initial = v.getTrustedIssuers().length;
+
+			KeyStore store = KeyStore.getInstance("JKS");
+			try (InputStream is = new FileInputStream(ks))
+			{
+				store.load(is, "the!njs".toCharArray());
+			}
+			try (InputStream is = new FileInputStream("src/test/resources/credentials/cert-1.pem"))
+			{
+				X509Certificate added = (X509Certificate) CertificateFactory.getInstance("X.509").
+						generateCertificate(is);
+				store.setCertificateEntry("added", added);
+			}
+			try (OutputStream os = new FileOutputStream(ks))
+			{
+				store.store(os, "the!njs".toCharArray());
+			}
+			waitForIssuers(tp, initial + 1);
+			assertSame(v, tp.getValidator());
+		} finally
+		{
+			ks.delete();
+		}
+	}
+
+	private static void waitForIssuers(TruststoreProperties tp, int expected) throws InterruptedException
+	{
+		for (int i=0; i<150 && tp.getValidator().getTrustedIssuers().length != expected; i++)
+			Thread.sleep(100);
+		assertEquals(expected, tp.getValidator().getTrustedIssuers().length);
+	}
+
 	private TruststoreProperties verify(Properties p) throws Exception
 	{
 		TruststoreProperties cfg = new TruststoreProperties(p, 
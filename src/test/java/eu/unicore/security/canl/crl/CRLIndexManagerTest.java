@@ -0,0 +1,405 @@
+package eu.unicore.security.canl.crl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.CRLException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import eu.emi.security.authn.x509.CrlCheckingMode;
+import eu.emi.security.authn.x509.OCSPCheckingMode;
+import eu.emi.security.authn.x509.OCSPParametes;
+import eu.emi.security.authn.x509.ProxySupport;
+import eu.emi.security.authn.x509.ValidationErrorCode;
+import eu.emi.security.authn.x509.ValidationResult;
+import eu.emi.security.authn.x509.impl.CRLParameters;
+import eu.emi.security.authn.x509.impl.InMemoryKeystoreCertChainValidator;
+import eu.emi.security.authn.x509.impl.RevocationParametersExt;
+import eu.emi.security.authn.x509.impl.ValidatorParamsExt;
+
+public class CRLIndexManagerTest
+{
+	private static final BigInteger BIG_SERIAL = new BigInteger("123456789012345678901234567890");
+
+	private KeyPairGenerator kpg;
+	private KeyPair caKeys;
+	private X500Name caName;
+	private X509Certificate caCert;
+	private File dir;
+
+	@BeforeEach
+	public void setup() throws Exception
+	{
+		kpg = KeyPairGenerator.getInstance("RSA");
+		kpg.initialize(2048);
+		caKeys = kpg.generateKeyPair();
+		caName = new X500Name("CN=Test CRL CA,O=UNICORE");
+		caCert = issue(BigInteger.ONE, caName, caKeys, true);
+		dir = Files.createTempDirectory("crlindex").toFile();
+	}
+
+	@AfterEach
+	public void cleanup()
+	{
+		delete(dir);
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child: children)
+				delete(child);
+		file.delete();
+	}
+
+	@Test
+	public void shouldParseDERAndPEMCRL() throws Exception
+	{
+		byte[] der = createCRL(5000, BigInteger.valueOf(77));
+		for (byte[] encoded: List.of(der, toPEM(der)))
+		{
+			CompactCRL crl = StreamingCRLParser.parse(new ByteArrayInputStream(encoded), List.of(caCert));
+			assertEquals(5001, crl.size());
+			assertNotNull(crl.getNextUpdate());
+			assertTrue(crl.isValidAt(new Date()));
+			int idx = crl.find(BigInteger.valueOf(77));
+			assertTrue(idx >= 0);
+			assertEquals(CRLReason.keyCompromise, crl.getReason(idx));
+			assertTrue(crl.find(BigInteger.valueOf(4999*3)) >= 0);
+			assertTrue(crl.find(BIG_SERIAL) >= 0);
+			assertEquals(CRLReason.unspecified, crl.getReason(crl.find(BIG_SERIAL)));
+			assertTrue(crl.find(BigInteger.valueOf(2)) < 0);
+			assertTrue(crl.find(BIG_SERIAL.add(BigInteger.ONE)) < 0);
+		}
+	}
+
+	@Test
+	public void shouldRejectUntrustedOrTamperedCRL() throws Exception
+	{
+		byte[] der = createCRL(10, BigInteger.valueOf(77));
+		X509Certificate otherCA = issue(BigInteger.TEN, new X500Name("CN=Other CA"), kpg.generateKeyPair(), true);
+		assertThrows(CRLException.class, () ->
+			StreamingCRLParser.parse(new ByteArrayInputStream(der), List.of(otherCA)));
+
+		byte[] tampered = der.clone();
+		tampered[tampered.length - 100] ^= 0x01;
+		assertThrows(Exception.class, () ->
+			StreamingCRLParser.parse(new ByteArrayInputStream(tampered), List.of(caCert)));
+	}
+
+	@Test
+	public void shouldRejectPartialCRLs() throws Exception
+	{
+		X509v2CRLBuilder partitioned = newCRLBuilder(10, BigInteger.valueOf(77));
+		partitioned.addExtension(Extension.issuingDistributionPoint, true,
+				new IssuingDistributionPoint(null, true, false, null, false, false));
+		X509v2CRLBuilder indirect = newCRLBuilder(10, BigInteger.valueOf(77));
+		ExtensionsGenerator entryExtensions = new ExtensionsGenerator();
+		entryExtensions.addExtension(Extension.certificateIssuer, true,
+				new GeneralNames(new GeneralName(new X500Name("CN=Other CA"))));
+		indirect.addCRLEntry(BigInteger.valueOf(80), new Date(), entryExtensions.generate());
+		X509v2CRLBuilder unknownCritical = newCRLBuilder(10, BigInteger.valueOf(77));
+		unknownCritical.addExtension(new ASN1ObjectIdentifier("1.3.6.1.4.1.99999.1"), true, DERNull.INSTANCE);
+		X509v2CRLBuilder unknownNonCritical = newCRLBuilder(10, BigInteger.valueOf(77));
+		unknownNonCritical.addExtension(new ASN1ObjectIdentifier("1.3.6.1.4.1.99999.1"), false, DERNull.INSTANCE);
+
+		for (X509v2CRLBuilder builder: List.of(partitioned, indirect, unknownCritical))
+		{
+			byte[] der = sign(builder);
+			assertThrows(CRLException.class, () ->
+				StreamingCRLParser.parse(new ByteArrayInputStream(der), List.of(caCert)));
+		}
+		assertEquals(11, StreamingCRLParser.parse(new ByteArrayInputStream(sign(unknownNonCritical)),
+				List.of(caCert)).size());
+
+		X509Certificate good = issue(BigInteger.valueOf(79), new X500Name("CN=Good"),
+				kpg.generateKeyPair(), false);
+		Files.write(new File(dir, "ca.crl").toPath(), sign(partitioned));
+		InMemoryKeystoreCertChainValidator wrapped = createValidator();
+		CRLIndexManager manager = new CRLIndexManager(List.of(dir.getPath() + "/*.crl"), -1,
+				1000, null, wrapped::getTrustedIssuers, Collections.emptyList(), 2);
+		manager.start();
+		assertNull(manager.getCRL(caCert.getSubjectX500Principal()));
+		RevocationIndexValidator validator = new RevocationIndexValidator(wrapped, manager,
+				CrlCheckingMode.REQUIRE);
+		ValidationResult result = validator.validate(new X509Certificate[] {good});
+		assertFalse(result.isValid());
+		assertEquals(ValidationErrorCode.noValidCrlFound, result.getErrors().get(0).getErrorCode());
+		validator.dispose();
+	}
+
+	@Test
+	public void shouldReloadOnlyChangedCRLs() throws Exception
+	{
+		File crlFile = new File(dir, "ca.crl");
+		Files.write(crlFile.toPath(), createCRL(100, BigInteger.valueOf(77)));
+		CRLIndexManager manager = new CRLIndexManager(List.of(dir.getPath() + "/*.crl"), -1,
+				1000, null, () -> new X509Certificate[] {caCert}, Collections.emptyList(), 2);
+		try
+		{
+			manager.start();
+			assertEquals(1, manager.size());
+			assertEquals(1, manager.getLastParsedCount());
+			IndexedCRL crl = manager.getCRL(caCert.getSubjectX500Principal());
+			assertTrue(crl.find(BigInteger.valueOf(77)) >= 0);
+
+			manager.refresh();
+			assertEquals(0, manager.getLastParsedCount());
+			assertTrue(crl == manager.getCRL(caCert.getSubjectX500Principal()));
+
+			crlFile.setLastModified(crlFile.lastModified() - 10000);
+			manager.refresh();
+			assertEquals(0, manager.getLastParsedCount());
+
+			Files.write(crlFile.toPath(), createCRL(100, BigInteger.valueOf(79)));
+			manager.refresh();
+			assertEquals(1, manager.getLastParsedCount());
+			crl = manager.getCRL(caCert.getSubjectX500Principal());
+			assertTrue(crl.find(BigInteger.valueOf(77)) < 0);
+			assertTrue(crl.find(BigInteger.valueOf(79)) >= 0);
+
+			Files.write(crlFile.toPath(), "broken".getBytes(StandardCharsets.US_ASCII));
+			manager.refresh();
+			assertTrue(manager.getCRL(caCert.getSubjectX500Principal()).find(BigInteger.valueOf(79)) >= 0);
+		} finally
+		{
+			manager.dispose();
+		}
+	}
+
+	@Test
+	public void shouldReuseOffHeapIndexAfterRestart() throws Exception
+	{
+		File crlDir = new File(dir, "crls");
+		File indexDir = new File(dir, "index");
+		crlDir.mkdir();
+		indexDir.mkdir();
+		BigInteger sameLowBits = BIG_SERIAL.add(BigInteger.ONE.shiftLeft(64));
+		Files.write(new File(crlDir, "ca.crl").toPath(), createCRL(20000, BigInteger.valueOf(77)));
+		List<String> locations = List.of(crlDir.getPath() + "/*.crl");
+
+		CRLIndexManager manager = new CRLIndexManager(locations, -1, 1000, null,
+				() -> new X509Certificate[] {caCert}, Collections.emptyList(), 2, indexDir);
+		manager.start();
+		assertEquals(1, manager.getLastParsedCount());
+		IndexedCRL crl = manager.getCRL(caCert.getSubjectX500Principal());
+		assertTrue(crl instanceof MappedCRL);
+		assertEquals(20001, crl.size());
+		manager.dispose();
+
+		CRLIndexManager restarted = new CRLIndexManager(locations, -1, 1000, null,
+				() -> new X509Certificate[] {caCert}, Collections.emptyList(), 2, indexDir);
+		try
+		{
+			restarted.start();
+			assertEquals(0, restarted.getLastParsedCount());
+			crl = restarted.getCRL(caCert.getSubjectX500Principal());
+			assertEquals(20001, crl.size());
+			assertNotNull(crl.getNextUpdate());
+			for (int i=1; i<20000; i++)
+				assertTrue(crl.find(BigInteger.valueOf(i*3)) >= 0);
+			assertTrue(crl.find(BigInteger.valueOf(4)) < 0);
+			int idx = crl.find(BigInteger.valueOf(77));
+			assertEquals(CRLReason.keyCompromise, crl.getReason(idx));
+			assertTrue(Math.abs(crl.getRevocationTime(idx).getTime() - System.currentTimeMillis()) < 120000);
+			assertTrue(crl.find(BIG_SERIAL) >= 0);
+			assertTrue(crl.find(sameLowBits) < 0);
+			assertTrue(crl.find(BigInteger.valueOf(-3)) < 0);
+		} finally
+		{
+			restarted.dispose();
+		}
+	}
+
+	@Test
+	public void shouldRequestRemoteCRLConditionally() throws Exception
+	{
+		byte[] crl = createCRL(100, BigInteger.valueOf(77));
+		AtomicInteger downloads = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/ca.crl", exchange -> {
+			exchange.getResponseHeaders().add("ETag", "\"v1\"");
+			if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+			{
+				exchange.sendResponseHeaders(304, -1);
+			} else
+			{
+				downloads.incrementAndGet();
+				exchange.sendResponseHeaders(200, crl.length);
+				try (OutputStream os = exchange.getResponseBody())
+				{
+					os.write(crl);
+				}
+			}
+			exchange.close();
+		});
+		server.start();
+		String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/ca.crl";
+		CRLIndexManager manager = new CRLIndexManager(List.of(url), -1, 5000, dir.getPath(),
+				() -> new X509Certificate[] {caCert}, Collections.emptyList(), 2);
+		try
+		{
+			manager.start();
+			assertEquals(1, manager.getLastParsedCount());
+			assertTrue(manager.getCRL(caCert.getSubjectX500Principal()).find(BigInteger.valueOf(77)) >= 0);
+			manager.refresh();
+			assertEquals(0, manager.getLastParsedCount());
+			assertEquals(1, downloads.get());
+			assertEquals(1, manager.size());
+			assertEquals(1, dir.listFiles().length);
+		} finally
+		{
+			manager.dispose();
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void shouldRejectRevokedCertificate() throws Exception
+	{
+		X509Certificate revoked = issue(BigInteger.valueOf(77), new X500Name("CN=Revoked"),
+				kpg.generateKeyPair(), false);
+		X509Certificate good = issue(BigInteger.valueOf(79), new X500Name("CN=Good"),
+				kpg.generateKeyPair(), false);
+		Files.write(new File(dir, "ca.crl").toPath(), createCRL(100, BigInteger.valueOf(77)));
+
+		InMemoryKeystoreCertChainValidator wrapped = createValidator();
+		CRLIndexManager manager = new CRLIndexManager(List.of(dir.getPath() + "/*.crl"), -1,
+				1000, null, wrapped::getTrustedIssuers, Collections.emptyList(), 2);
+		manager.start();
+		RevocationIndexValidator validator = new RevocationIndexValidator(wrapped, manager,
+				CrlCheckingMode.REQUIRE);
+		try
+		{
+			assertTrue(validator.validate(new X509Certificate[] {good}).isValid());
+			ValidationResult result = validator.validate(new X509Certificate[] {revoked});
+			assertFalse(result.isValid());
+			assertEquals(ValidationErrorCode.certRevoked, result.getErrors().get(0).getErrorCode());
+
+			validator.addValidationListener(error -> true);
+			assertTrue(validator.validate(new X509Certificate[] {revoked}).isValid());
+		} finally
+		{
+			validator.dispose();
+		}
+	}
+
+	@Test
+	public void shouldRequireCRL() throws Exception
+	{
+		X509Certificate good = issue(BigInteger.valueOf(79), new X500Name("CN=Good"),
+				kpg.generateKeyPair(), false);
+		InMemoryKeystoreCertChainValidator wrapped = createValidator();
+		CRLIndexManager manager = new CRLIndexManager(List.of(dir.getPath() + "/*.crl"), -1,
+				1000, null, wrapped::getTrustedIssuers, Collections.emptyList(), 2);
+		manager.start();
+		assertNull(manager.getCRL(caCert.getSubjectX500Principal()));
+
+		RevocationIndexValidator required = new RevocationIndexValidator(wrapped, manager,
+				CrlCheckingMode.REQUIRE);
+		ValidationResult result = required.validate(new X509Certificate[] {good});
+		assertFalse(result.isValid());
+		assertEquals(ValidationErrorCode.noValidCrlFound, result.getErrors().get(0).getErrorCode());
+
+		RevocationIndexValidator ifValid = new RevocationIndexValidator(wrapped, manager,
+				CrlCheckingMode.IF_VALID);
+		assertTrue(ifValid.validate(new X509Certificate[] {good}).isValid());
+		required.dispose();
+	}
+
+	private InMemoryKeystoreCertChainValidator createValidator() throws Exception
+	{
+		KeyStore ks = KeyStore.getInstance("JKS");
+		ks.load(null);
+		ks.setCertificateEntry("ca", caCert);
+		RevocationParametersExt revocation = new RevocationParametersExt(CrlCheckingMode.IGNORE,
+				new CRLParameters(), new OCSPParametes(OCSPCheckingMode.IGNORE));
+		return new InMemoryKeystoreCertChainValidator(ks,
+				new ValidatorParamsExt(revocation, ProxySupport.DENY));
+	}
+
+	private byte[] createCRL(int count, BigInteger compromised) throws Exception
+	{
+		return sign(newCRLBuilder(count, compromised));
+	}
+
+	private X509v2CRLBuilder newCRLBuilder(int count, BigInteger compromised)
+	{
+		Date now = new Date();
+		X509v2CRLBuilder builder = new X509v2CRLBuilder(caName, new Date(now.getTime() - 60000));
+		builder.setNextUpdate(new Date(now.getTime() + 3600000));
+		for (int i=count-1; i>0; i--)
+			builder.addCRLEntry(BigInteger.valueOf(i*3), now, CRLReason.superseded);
+		builder.addCRLEntry(compromised, now, CRLReason.keyCompromise);
+		builder.addCRLEntry(BIG_SERIAL, now, CRLReason.unspecified);
+		return builder;
+	}
+
+	private byte[] sign(X509v2CRLBuilder builder) throws Exception
+	{
+		ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(caKeys.getPrivate());
+		return builder.build(signer).getEncoded();
+	}
+
+	private static byte[] toPEM(byte[] der)
+	{
+		String pem = "-----BEGIN X509 CRL-----\n" +
+				Base64.getMimeEncoder().encodeToString(der) + "\n-----END X509 CRL-----\n";
+		return pem.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private X509Certificate issue(BigInteger serial, X500Name subject, KeyPair subjectKeys, boolean ca)
+			throws Exception
+	{
+		Date notBefore = new Date(System.currentTimeMillis() - 60000);
+		Date notAfter = new Date(System.currentTimeMillis() + 3600000);
+		X500Name issuer = ca ? subject : caName;
+		JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer, serial,
+				notBefore, notAfter, subject, subjectKeys.getPublic());
+		builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+		ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(
+				ca ? subjectKeys.getPrivate() : caKeys.getPrivate());
+		return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+	}
+}
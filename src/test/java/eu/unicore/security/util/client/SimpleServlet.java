@@ -2,12 +2,16 @@ package eu.unicore.security.util.client;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
+import eu.unicore.util.jetty.UnixPeerCredentialsCustomizer;
+import jdk.net.UnixDomainPrincipal;
+
 public class SimpleServlet extends HttpServlet
 {
 	private static final long serialVersionUID = 1L;
@@ -19,11 +23,38 @@ public class SimpleServlet extends HttpServlet
 			"OK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GET" +
 			"OK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GETOK-GET";
 	
+	public static final String ETAG = "\"v1\"";
+	public static final AtomicInteger ETAG_FULL_RESPONSES = new AtomicInteger();
+	public static final String NO_PEER = "NO-PEER";
+	
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp) 
 		throws ServletException, IOException
 	{
+		if (req.getParameter("cache") != null)
+			resp.setHeader("Cache-Control", "max-age=60");
+		if (req.getParameter("accept") != null)
+			resp.setHeader("Vary", "Accept");
+		if (req.getParameter("etag") != null)
+		{
+			resp.setHeader("ETag", ETAG);
+			if (ETAG.equals(req.getHeader("If-None-Match")))
+			{
+				resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			ETAG_FULL_RESPONSES.incrementAndGet();
+		}
+		if (req.getParameter("peer") != null)
+		{
+			UnixDomainPrincipal peer = (UnixDomainPrincipal) req.getAttribute(
+					UnixPeerCredentialsCustomizer.PEER_ATTRIBUTE);
+			write(peer == null ? NO_PEER : peer.user().getName(), resp);
+			return;
+		}
 		String bigResp = req.getParameter("gobig");
-		if (bigResp == null)
+		if (req.getParameter("accept") != null)
+			write(BIG_GET + req.getHeader("Accept"), resp);
+		else if (bigResp == null)
 			write(OK_GET, resp);
 		else
 			write(BIG_GET, resp);
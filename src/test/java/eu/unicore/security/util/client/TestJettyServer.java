@@ -2,15 +2,49 @@ package eu.unicore.security.util.client;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
 import java.net.URL;
+import java.net.UnixDomainSocketAddress;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
 import jakarta.servlet.http.HttpServletResponse;
 
 import org.apache.hc.client5.http.classic.HttpClient;
@@ -18,16 +52,30 @@ import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpTrace;
 import org.apache.hc.client5.http.impl.classic.BasicHttpClientResponseHandler;
 import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.NetworkConnectionLimit;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.junit.jupiter.api.Test;
 
 import eu.emi.security.authn.x509.X509CertChainValidatorExt;
 import eu.emi.security.authn.x509.X509Credential;
 import eu.emi.security.authn.x509.impl.KeystoreCertChainValidator;
 import eu.emi.security.authn.x509.impl.KeystoreCredential;
+import eu.unicore.security.canl.AuthnAndTrustProperties;
+import eu.unicore.util.configuration.ConfigurationException;
 import eu.unicore.util.httpclient.DefaultClientConfiguration;
 import eu.unicore.util.httpclient.HttpClientProperties;
 import eu.unicore.util.httpclient.HttpUtils;
 import eu.unicore.util.jetty.HttpServerProperties;
+import eu.unicore.util.jetty.JettyServerBase;
+import eu.unicore.util.jetty.SecuredServerConnector;
+import eu.unicore.util.jetty.UnixPeerCredentialsCustomizer;
+import jdk.net.UnixDomainPrincipal;
 
 /**
  * Tests Jetty server features
@@ -88,7 +136,652 @@ public class TestJettyServer
 		JettyServer4Testing server = prepareServer(p1);
 		makeRequest(server, true, null, true);
 	}
+
+	@Test
+	public void testSSLContextReload() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		JettyServer4Testing server = prepareServer(p1);
+		SslContextFactory.Server factory = null;
+		for (Connector connector: server.getServer().getConnectors())
+			if (connector instanceof SecuredServerConnector)
+				factory = ((SecuredServerConnector) connector).getSslContextFactory();
+		SSLContext initial = factory.getSslContext();
+		server.reloadCredential();
+		assertNotSame(initial, factory.getSslContext());
+		server.reloadSslContexts();
+		makeRequest(server, true, null, true);
+	}
 	
+	@Test
+	public void testConnectorTuning() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.ACCEPTORS, "2");
+		p1.setProperty("j." + HttpServerProperties.SELECTORS, "3");
+		p1.setProperty("j." + HttpServerProperties.ACCEPT_QUEUE_SIZE, "512");
+		p1.setProperty("j." + HttpServerProperties.REUSE_PORT, "true");
+		p1.setProperty("j." + HttpServerProperties.MAX_THREADS, "100");
+		JettyServer4Testing server = prepareServer(p1);
+		for (Connector connector: server.getServer().getConnectors())
+		{
+			ServerConnector serverConnector = (ServerConnector) connector;
+			assertEquals(2, serverConnector.getAcceptors());
+			assertEquals(3, serverConnector.getSelectorManager().getSelectorCount());
+			assertEquals(512, serverConnector.getAcceptQueueSize());
+			assertTrue(serverConnector.isReusePort());
+		}
+		assertEquals(100 + 2 * (2 + 3), ((QueuedThreadPool) server.getServer().getThreadPool()).getMaxThreads());
+		makeRequest(server, true, null, true);
+	}
+
+	@Test
+	public void testDefaultConnectorThreadsReserved() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.MAX_THREADS, "100");
+		p1.setProperty("j." + HttpServerProperties.SELECTORS, "0");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			int connectorThreads = 0;
+			for (Connector connector: server.getServer().getConnectors())
+			{
+				ServerConnector serverConnector = (ServerConnector) connector;
+				assertTrue(serverConnector.getSelectorManager().getSelectorCount() > 0);
+				connectorThreads += serverConnector.getAcceptors() 
+						+ serverConnector.getSelectorManager().getSelectorCount();
+			}
+			assertEquals(100 + connectorThreads, 
+					((QueuedThreadPool) server.getServer().getThreadPool()).getMaxThreads());
+		} finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testBufferSettings() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.OUTPUT_BUFFER_SIZE, "131072");
+		p1.setProperty("j." + HttpServerProperties.OUTPUT_AGGREGATION_SIZE, "65536");
+		p1.setProperty("j." + HttpServerProperties.REQUEST_HEADER_SIZE, "16384");
+		p1.setProperty("j." + HttpServerProperties.BUFFER_POOL_MAX_CAPACITY, "131072");
+		p1.setProperty("j." + HttpServerProperties.BUFFER_POOL_MAX_DIRECT_MEMORY, "4194304");
+		JettyServer4Testing server = prepareServer(p1);
+		HttpConfiguration httpConfig = server.getServer().getConnectors()[0]
+				.getConnectionFactory(HttpConnectionFactory.class).getHttpConfiguration();
+		assertEquals(131072, httpConfig.getOutputBufferSize());
+		assertEquals(65536, httpConfig.getOutputAggregationSize());
+		assertEquals(16384, httpConfig.getRequestHeaderSize());
+		ArrayByteBufferPool pool = (ArrayByteBufferPool) server.getServer().getByteBufferPool();
+		assertEquals(131072, pool.getMaxCapacity());
+		makeRequest(server, true, null, true);
+	}
+
+	@Test
+	public void testInvalidAggregationSize() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.OUTPUT_BUFFER_SIZE, "8192");
+		p1.setProperty("j." + HttpServerProperties.OUTPUT_AGGREGATION_SIZE, "16384");
+		assertThrows(ConfigurationException.class, () -> JettyServer4Testing.getInstance(p1, 65432));
+	}
+
+	@Test
+	public void testUnixDomainListenUrl() throws Exception
+	{
+		Path socket = Files.createTempDirectory("jetty").resolve("server.sock");
+		URL unixUrl = JettyServerBase.createUnixDomainListenUrl(socket);
+		assertEquals("unix", unixUrl.getProtocol());
+		assertEquals(socket.toAbsolutePath().toString(), unixUrl.getPath());
+
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		URL[] urls = new URL[] {new URL("http://127.0.0.1:65432"), unixUrl};
+		JettyServer4Testing server = new JettyServer4Testing(urls, 
+				new AuthnAndTrustProperties(p1, "t.", "k."), new HttpServerProperties(p1, "j."));
+		server.addServlet(SimpleServlet.class.getName(), "/servlet1");
+		server.start();
+		try
+		{
+			try (SocketChannel client = SocketChannel.open(UnixDomainSocketAddress.of(socket)))
+			{
+				client.write(StandardCharsets.US_ASCII.encode("GET /servlet1?peer HTTP/1.1\r\n"
+						+ "Host: localhost\r\nConnection: close\r\n\r\n"));
+				String response = new String(Channels.newInputStream(client).readAllBytes(), 
+						StandardCharsets.US_ASCII);
+				assertTrue(response.startsWith("HTTP/1.1 200"), response);
+				assertTrue(response.endsWith("\r\n\r\n" + System.getProperty("user.name")), response);
+			}
+			URL tcp = new URL(server.getUrl() + "/servlet1?peer");
+			try (InputStream in = tcp.openStream())
+			{
+				assertEquals(SimpleServlet.NO_PEER, new String(in.readAllBytes()));
+			}
+		} finally
+		{
+			server.stop();
+			Files.deleteIfExists(socket);
+		}
+	}
+
+	@Test
+	public void testUnixPeerCredentials() throws Exception
+	{
+		Path socket = Files.createTempDirectory("jetty").resolve("peer.sock");
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+		{
+			server.bind(UnixDomainSocketAddress.of(socket));
+			try (SocketChannel client = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+					SocketChannel accepted = server.accept())
+			{
+				UnixDomainPrincipal peer = UnixPeerCredentialsCustomizer.getPeerCredentials(accepted);
+				assertNotNull(peer);
+				assertEquals(System.getProperty("user.name"), peer.user().getName());
+			}
+		} finally
+		{
+			Files.deleteIfExists(socket);
+		}
+		try (SocketChannel tcp = SocketChannel.open())
+		{
+			assertNull(UnixPeerCredentialsCustomizer.getPeerCredentials(tcp));
+		}
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.USE_VIRTUAL_THREADS, "true");
+		JettyServer4Testing server = prepareServer(p1);
+		makeRequest(server, true, null, true);
+	}
+
+	@Test
+	public void testCompressedResponseCache() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.ENABLE_GZIP, "true");
+		p1.setProperty("j." + HttpServerProperties.MIN_GZIP_SIZE, "10");
+		p1.setProperty("j." + HttpServerProperties.COMPRESSION_CACHE_ENTRIES, "10");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			URL u = new URL(server.getUrl() + "/servlet1?gobig&etag&cache");
+			SimpleServlet.ETAG_FULL_RESPONSES.set(0);
+			byte[] first = null;
+			for (int i=0; i<3; i++)
+			{
+				HttpURLConnection conn = (HttpURLConnection) u.openConnection();
+				conn.addRequestProperty("Accept-Encoding", "gzip");
+				assertEquals(200, conn.getResponseCode());
+				assertEquals("gzip", conn.getContentEncoding());
+				byte[] body = conn.getInputStream().readAllBytes();
+				if (first == null)
+					first = body;
+				assertArrayEquals(first, body);
+			}
+			assertEquals(1, SimpleServlet.ETAG_FULL_RESPONSES.get());
+			String decompressed = new String(new GZIPInputStream(
+					new ByteArrayInputStream(first)).readAllBytes());
+			assertEquals(SimpleServlet.BIG_GET, decompressed);
+
+			//not explicitly cacheable
+			URL notCacheable = new URL(server.getUrl() + "/servlet1?gobig&etag");
+			SimpleServlet.ETAG_FULL_RESPONSES.set(0);
+			for (int i=0; i<2; i++)
+			{
+				HttpURLConnection conn = (HttpURLConnection) notCacheable.openConnection();
+				conn.addRequestProperty("Accept-Encoding", "gzip");
+				assertEquals(200, conn.getResponseCode());
+				conn.getInputStream().readAllBytes();
+			}
+			assertEquals(2, SimpleServlet.ETAG_FULL_RESPONSES.get());
+
+			//varies on Accept, which is not a part of the key, so each representation must be produced
+			URL varying = new URL(server.getUrl() + "/servlet1?etag&cache&accept");
+			SimpleServlet.ETAG_FULL_RESPONSES.set(0);
+			String[] accepts = {"text/plain", "application/json", "text/plain", "application/json"};
+			for (String accept: accepts)
+			{
+				HttpURLConnection conn = (HttpURLConnection) varying.openConnection();
+				conn.addRequestProperty("Accept-Encoding", "gzip");
+				conn.addRequestProperty("Accept", accept);
+				assertEquals(200, conn.getResponseCode());
+				assertEquals("gzip", conn.getContentEncoding());
+				String body = new String(new GZIPInputStream(conn.getInputStream()).readAllBytes());
+				assertEquals(SimpleServlet.BIG_GET + accept, body);
+			}
+			assertEquals(accepts.length, SimpleServlet.ETAG_FULL_RESPONSES.get());
+		} finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testRateLimit() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.RATE_LIMIT_REQUESTS, "1");
+		p1.setProperty("j." + HttpServerProperties.RATE_LIMIT_BURST, "2");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			URL u = new URL(server.getUrl() + "/servlet1");
+			assertEquals(200, ((HttpURLConnection) u.openConnection()).getResponseCode());
+			int rejected = 0;
+			for (int i=0; i<5; i++)
+				if (((HttpURLConnection) u.openConnection()).getResponseCode() == 429)
+					rejected++;
+			assertTrue(rejected > 0, "No request was rejected");
+		} finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testRuntimeReconfiguration() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.MAX_THREADS, "50");
+		p1.setProperty("j." + HttpServerProperties.RATE_LIMIT_REQUESTS, "1");
+		p1.setProperty("j." + HttpServerProperties.RATE_LIMIT_BURST, "2");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			URL u = new URL(server.getUrl() + "/servlet1");
+			int rejected = 0;
+			for (int i=0; i<5; i++)
+				if (((HttpURLConnection) u.openConnection()).getResponseCode() == 429)
+					rejected++;
+			assertTrue(rejected > 0, "No request was rejected");
+			QueuedThreadPool pool = (QueuedThreadPool) server.getServer().getThreadPool();
+			int connectorThreads = pool.getMaxThreads() - 50;
+
+			Properties p2 = new Properties();
+			p2.putAll(p1);
+			p2.setProperty("j." + HttpServerProperties.MAX_THREADS, "100");
+			p2.setProperty("j." + HttpServerProperties.MAX_IDLE_TIME, "30000");
+			p2.setProperty("j." + HttpServerProperties.MAX_CONNECTIONS, "10");
+			p2.setProperty("j." + HttpServerProperties.RATE_LIMIT_REQUESTS, "1000");
+			p2.setProperty("j." + HttpServerProperties.RATE_LIMIT_BURST, "1000");
+			server.getExtraSettings().setProperties(p2);
+
+			assertEquals(100 + connectorThreads, pool.getMaxThreads());
+			for (Connector connector: server.getServer().getConnectors())
+				assertEquals(30000, connector.getIdleTimeout());
+			NetworkConnectionLimit limit = server.getServer().getBean(NetworkConnectionLimit.class);
+			assertNotNull(limit);
+			assertEquals(10, limit.getMaxNetworkConnectionCount());
+			for (int i=0; i<5; i++)
+				assertEquals(200, ((HttpURLConnection) u.openConnection()).getResponseCode());
+		} finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testConcurrencyLimit() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.MAX_CONCURRENT_REQUESTS, "1");
+		p1.setProperty("j." + HttpServerProperties.MAX_QUEUED_REQUESTS, "0");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			HttpURLConnection slow = (HttpURLConnection) new URL(server.getUrl() + 
+					"/servlet1?timeout=2000").openConnection();
+			slow.setRequestMethod("POST");
+			Thread slowRequest = new Thread(() -> {
+				try
+				{
+					slow.getResponseCode();
+				} catch (Exception e)
+				{
+					e.printStackTrace();
+				}
+			});
+			slowRequest.start();
+			Thread.sleep(500);
+			URL u = new URL(server.getUrl() + "/servlet1");
+			assertEquals(503, ((HttpURLConnection) u.openConnection()).getResponseCode());
+			slowRequest.join();
+			assertEquals(200, slow.getResponseCode());
+			//the slot is released after the response is completed, what may be seen after the client got it
+			int status = 0;
+			for (int i=0; i<20 && status != 200; i++)
+			{
+				Thread.sleep(100);
+				status = ((HttpURLConnection) u.openConnection()).getResponseCode();
+			}
+			assertEquals(200, status);
+		} finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testLowResourcesMonitoring() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.ENABLE_LOW_RESOURCES, "true");
+		p1.setProperty("j." + HttpServerProperties.LOW_RESOURCES_PERIOD, "100");
+		p1.setProperty("j." + HttpServerProperties.LOW_RESOURCES_MAX_MEMORY, "1");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+			Set<ObjectName> names = mbeans.queryNames(new ObjectName("eu.unicore.util.jetty:type=LowResources,*"), null);
+			assertEquals(1, names.size());
+			ObjectName name = names.iterator().next();
+			for (int i=0; i<50 && !(Boolean) mbeans.getAttribute(name, "LowOnResources"); i++)
+				Thread.sleep(100);
+			assertTrue((Boolean) mbeans.getAttribute(name, "LowOnResources"));
+			assertTrue((Long) mbeans.getAttribute(name, "LowResourcesSince") > 0);
+			assertNotNull(mbeans.getAttribute(name, "Reasons"));
+			URL u = new URL(server.getUrl() + "/servlet1");
+			assertEquals(200, ((HttpURLConnection) u.openConnection()).getResponseCode());
+		} finally
+		{
+			server.stop();
+		}
+		assertTrue(ManagementFactory.getPlatformMBeanServer().queryNames(
+				new ObjectName("eu.unicore.util.jetty:type=LowResources,*"), null).isEmpty());
+	}
+
+	@Test
+	public void testMetrics() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.ENABLE_METRICS, "true");
+		p1.setProperty("j." + HttpServerProperties.METRICS_ENDPOINT, "/metrics");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			X509Credential cred = new KeystoreCredential("src/test/resources/client/httpclient.jks",
+					"the!client".toCharArray(), "the!client".toCharArray(), null, "JKS");
+			X509CertChainValidatorExt validator = new KeystoreCertChainValidator("src/test/resources/client/httpclient.jks",
+					"the!client".toCharArray(), "JKS", -1);
+			DefaultClientConfiguration secCfg = new DefaultClientConfiguration(validator, cred);
+			String url = server.getSecUrl()+"/servlet1";
+			HttpClient client = HttpUtils.createClient(url, secCfg);
+			assertEquals(SimpleServlet.OK_GET, client.execute(new HttpGet(url), new BasicHttpClientResponseHandler()));
+			assertEquals(200, ((HttpURLConnection) new URL(server.getUrl() + "/servlet1").openConnection())
+					.getResponseCode());
+
+			//requests are recorded when completed, what may be seen after the client got the response
+			String expected = "http_server_request_duration_ms_count{path=\"/servlet1\"} 2";
+			String text = "";
+			for (int i=0; i<20 && !text.contains(expected); i++)
+			{
+				Thread.sleep(100);
+				HttpURLConnection conn = (HttpURLConnection) new URL(server.getUrl() + "/metrics").openConnection();
+				assertEquals(200, conn.getResponseCode());
+				text = new String(conn.getInputStream().readAllBytes());
+			}
+			assertTrue(text.contains(expected), text);
+			assertTrue(text.contains("http_server_requests_total 2"), text);
+
+			MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+			Set<ObjectName> names = mbeans.queryNames(new ObjectName("eu.unicore.util.jetty:type=ServerMetrics,*"), null);
+			assertEquals(1, names.size());
+			ObjectName name = names.iterator().next();
+			assertEquals(1L, mbeans.getAttribute(name, "TlsHandshakes"));
+			assertTrue((Long) mbeans.getAttribute(name, "TotalConnections") >= 3);
+			assertTrue((Integer) mbeans.getAttribute(name, "Threads") > 0);
+		} finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testHttp2() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.ENABLE_HTTP2, "true");
+		p1.setProperty("j." + HttpServerProperties.HTTP2_MAX_CONCURRENT_STREAMS, "17");
+		p1.setProperty("j." + HttpServerProperties.HTTP2_SESSION_RECV_WINDOW, "300000");
+		p1.setProperty("j." + HttpServerProperties.HTTP2_STREAM_RECV_WINDOW, "200000");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			KeyStore ks = KeyStore.getInstance("JKS");
+			try (InputStream in = Files.newInputStream(Path.of("src/test/resources/client/httpclient.jks")))
+			{
+				ks.load(in, "the!client".toCharArray());
+			}
+			KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(ks, "the!client".toCharArray());
+			TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+			tmf.init(ks);
+			X509TrustManager trust = (X509TrustManager) tmf.getTrustManagers()[0];
+			SSLContext sslContext = SSLContext.getInstance("TLS");
+			sslContext.init(kmf.getKeyManagers(), new TrustManager[] {new X509ExtendedTrustManager()
+			{
+				//the test server certificate has no subject alternative names, so only the chain is checked
+				@Override
+				public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+						throws CertificateException
+				{
+					trust.checkServerTrusted(chain, authType);
+				}
+				@Override
+				public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+						throws CertificateException
+				{
+					trust.checkServerTrusted(chain, authType);
+				}
+				@Override
+				public void checkServerTrusted(X509Certificate[] chain, String authType) 
+						throws CertificateException
+				{
+					trust.checkServerTrusted(chain, authType);
+				}
+				@Override
+				public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+						throws CertificateException
+				{
+					trust.checkClientTrusted(chain, authType);
+				}
+				@Override
+				public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+						throws CertificateException
+				{
+					trust.checkClientTrusted(chain, authType);
+				}
+				@Override
+				public void checkClientTrusted(X509Certificate[] chain, String authType) 
+						throws CertificateException
+				{
+					trust.checkClientTrusted(chain, authType);
+				}
+				@Override
+				public X509Certificate[] getAcceptedIssuers()
+				{
+					return trust.getAcceptedIssuers();
+				}
+			}}, null);
+
+			URL secUrl = new URL(server.getSecUrl());
+			try (SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket(
+					secUrl.getHost(), secUrl.getPort()))
+			{
+				SSLParameters params = socket.getSSLParameters();
+				params.setApplicationProtocols(new String[] {"h2", "http/1.1"});
+				socket.setSSLParameters(params);
+				socket.startHandshake();
+				assertEquals("h2", socket.getApplicationProtocol());
+				assertHttp2Settings(socket);
+			}
+			URL url = new URL(server.getUrl());
+			try (Socket socket = new Socket(url.getHost(), url.getPort()))
+			{
+				assertHttp2Settings(socket);
+			}
+
+			java.net.http.HttpClient client = java.net.http.HttpClient.newBuilder()
+					.version(java.net.http.HttpClient.Version.HTTP_2)
+					.sslContext(sslContext)
+					.build();
+			for (String base: new String[] {server.getSecUrl(), server.getUrl()})
+			{
+				HttpResponse<String> response = client.send(
+						HttpRequest.newBuilder(URI.create(base + "/servlet1")).build(), 
+						HttpResponse.BodyHandlers.ofString());
+				assertEquals(java.net.http.HttpClient.Version.HTTP_2, response.version(), base);
+				assertEquals(SimpleServlet.OK_GET, response.body());
+			}
+		} finally
+		{
+			server.stop();
+		}
+	}
+
+	/**
+	 * Starts a HTTP/2 connection with prior knowledge and checks the settings and the connection 
+	 * window advertised by the server, as configured in {@link #testHttp2()}.
+	 */
+	private static void assertHttp2Settings(Socket socket) throws Exception
+	{
+		socket.setSoTimeout(5000);
+		OutputStream out = socket.getOutputStream();
+		out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+		out.write(new byte[] {0, 0, 0, 4, 0, 0, 0, 0, 0});
+		out.flush();
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		Map<Integer, Integer> settings = new HashMap<>();
+		int connectionWindowUpdate = -1;
+		while (settings.isEmpty() || connectionWindowUpdate < 0)
+		{
+			int length = (in.readUnsignedShort() << 8) | in.readUnsignedByte();
+			int type = in.readUnsignedByte();
+			int flags = in.readUnsignedByte();
+			int stream = in.readInt() & 0x7fffffff;
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			ByteBuffer frame = ByteBuffer.wrap(payload);
+			if (type == 0x4 && (flags & 0x1) == 0)
+			{
+				while (frame.remaining() >= 6)
+					settings.put((int) frame.getShort(), frame.getInt());
+			} else if (type == 0x8 && stream == 0)
+			{
+				connectionWindowUpdate = frame.getInt() & 0x7fffffff;
+			}
+		}
+		assertEquals(Integer.valueOf(17), settings.get(0x3));
+		assertEquals(Integer.valueOf(200000), settings.get(0x4));
+		assertEquals(300000 - 65535, connectionWindowUpdate);
+	}
+
+	@Test
+	public void testTlsTaskOffload() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.TLS_TASK_THREADS, "2");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			X509Credential cred = new KeystoreCredential("src/test/resources/client/httpclient.jks",
+					"the!client".toCharArray(), "the!client".toCharArray(), null, "JKS");
+			X509CertChainValidatorExt validator = new KeystoreCertChainValidator("src/test/resources/client/httpclient.jks",
+					"the!client".toCharArray(), "JKS", -1);
+			DefaultClientConfiguration secCfg = new DefaultClientConfiguration(validator, cred);
+			String url = server.getSecUrl()+"/servlet1";
+			HttpClient client = HttpUtils.createClient(url, secCfg);
+			String resp = client.execute(new HttpGet(url), new BasicHttpClientResponseHandler());
+			assertEquals(SimpleServlet.OK_GET, resp);
+
+			MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+			Set<ObjectName> names = mbeans.queryNames(new ObjectName("eu.unicore.util.jetty:type=TlsTaskExecutor,*"), null);
+			assertEquals(1, names.size());
+			assertTrue((Long) mbeans.getAttribute(names.iterator().next(), "CompletedCount") > 0);
+		} finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testTlsTaskQueueLimit() throws Exception
+	{
+		Properties p1 = JettyServer4Testing.getSecureProperties();
+		p1.setProperty("j." + HttpServerProperties.TLS_TASK_THREADS, "100");
+		assertThrows(ConfigurationException.class, () -> prepareServer(p1));
+
+		p1.setProperty("j." + HttpServerProperties.TLS_TASK_THREADS, "1");
+		JettyServer4Testing server = prepareServer(p1);
+		try
+		{
+			SSLContext trustAll = SSLContext.getInstance("TLS");
+			trustAll.init(null, new TrustManager[] {new X509TrustManager()
+			{
+				@Override
+				public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+				@Override
+				public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+				@Override
+				public X509Certificate[] getAcceptedIssuers()
+				{
+					return new X509Certificate[0];
+				}
+			}}, null);
+			URL secUrl = new URL(server.getSecUrl());
+			MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = mbeans.queryNames(
+					new ObjectName("eu.unicore.util.jetty:type=TlsTaskExecutor,*"), null).iterator().next();
+			for (int round=0; round<10 && (Long) mbeans.getAttribute(name, "RejectedCount") == 0; round++)
+			{
+				Thread[] clients = new Thread[64];
+				for (int i=0; i<clients.length; i++)
+				{
+					clients[i] = new Thread(() -> {
+						try (SSLSocket socket = (SSLSocket) trustAll.getSocketFactory().createSocket(
+								secUrl.getHost(), secUrl.getPort()))
+						{
+							socket.startHandshake();
+						} catch (Exception e)
+						{
+							//rejected handshake
+						}
+					});
+					clients[i].start();
+				}
+				for (Thread client: clients)
+					client.join();
+			}
+			assertTrue((Long) mbeans.getAttribute(name, "RejectedCount") > 0);
+			HttpURLConnection plain = (HttpURLConnection) new URL(server.getUrl() + "/servlet1").openConnection();
+			try (InputStream in = plain.getInputStream())
+			{
+				assertEquals(SimpleServlet.OK_GET, new String(in.readAllBytes()));
+			}
+		} finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testAsyncSecurityLoading() throws Exception
+	{
+		Properties p = JettyServer4Testing.getSecureProperties();
+		AuthnAndTrustProperties secCfg = new AuthnAndTrustProperties(p, "t.", "k.", null, false, false, null);
+		URL[] urls = new URL[] {new URL("http://127.0.0.1:65432"), new URL("https://127.0.0.1:65433")};
+		JettyServer4Testing server = new JettyServer4Testing(urls, secCfg, new HttpServerProperties(p, "j."));
+		server.addServlet(SimpleServlet.class.getName(), "/servlet1");
+		server.start();
+		assertTrue(secCfg.isReady());
+		makeRequest(server, true, null, true);
+	}
+
 	@Test
 	public void testGzip() throws Exception
 	{
@@ -0,0 +1,26 @@
+package eu.unicore.util.jetty;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import eu.unicore.util.jetty.ServerMetrics.LatencyHistogram;
+
+public class ServerMetricsTest
+{
+	@Test
+	public void shouldNotTruncateLatencyToMilliseconds()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(TimeUnit.MICROSECONDS.toNanos(1500));
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(2));
+		StringBuilder sb = new StringBuilder();
+		histogram.append(sb, "latency", "/");
+		String text = sb.toString();
+		assertTrue(text.contains("latency_bucket{path=\"/\",le=\"1\"} 0\n"), text);
+		assertTrue(text.contains("latency_bucket{path=\"/\",le=\"2\"} 2\n"), text);
+		assertTrue(text.contains("latency_sum{path=\"/\"} 3.5\n"), text);
+	}
+}